@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.errorprone.ErrorProneFlags;
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.matchers.Matcher;
+import com.google.errorprone.util.ASTHelpers;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.util.TreePath;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import io.sweers.configurablecheckreturnvalue.core.CheckReturnValueConfig;
+import io.sweers.configurablecheckreturnvalue.errorprone.ConfigurableCheckReturnValue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The entry points Error Prone calls for every invocation and member reference, over a compilation
+ * generated by {@link GeneratedSources}. Each operation is one pass over all
+ * {@value GeneratedSources#CALLS} call sites of the compilation, so scores of different parameters
+ * are directly comparable.
+ *
+ * <p>Compiling and attributing happens once per fork, in {@link #setUp}; only the check itself is
+ * measured. Run with {@code -prof gc} (the default of {@code :benchmarks:jmh}) to see the bytes
+ * allocated per pass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CheckerBenchmark {
+
+  /** Number of configured custom annotations. */
+  @Param({"1", "8", "32"})
+  public int annotationCount;
+
+  /** How many classes deep the called methods are declared. */
+  @Param({"0", "3"})
+  public int nestingDepth;
+
+  /** Whether the check annotation is on the package instead of the outermost class. */
+  @Param({"false", "true"})
+  public boolean packageAnnotation;
+
+  /** Fraction of calls made from void lambdas and method references. */
+  @Param({"0.0", "0.5"})
+  public double lambdaDensity;
+
+  private ConfigurableCheckReturnValue checker;
+  private Matcher<? super ExpressionTree> matcher;
+  private VisitorState[] invocationStates;
+  private VisitorState[] memberReferenceStates;
+  /** What a verdict lookup visits per call: the method, its enclosing classes and its package. */
+  private Symbol[] lookupChain;
+  private String annotationName;
+
+  @Setup public void setUp() {
+    List<String> annotations = GeneratedSources.annotations(annotationCount);
+    annotationName = annotations.get(annotations.size() - 1);
+    checker = new ConfigurableCheckReturnValue(ErrorProneFlags.fromMap(ImmutableMap.of(
+        CheckReturnValueConfig.CUSTOM_ANNOTATIONS, String.join(",", annotations))));
+    matcher = checker.specializedMatcher();
+
+    Compilation compilation = Compilation.compile(GeneratedSources.generate(
+        annotationCount, nestingDepth, packageAnnotation, lambdaDensity));
+    VisitorState state = new VisitorState(compilation.context);
+    invocationStates = states(state, compilation.invocations);
+    memberReferenceStates = states(state, compilation.memberReferences);
+
+    List<Symbol> chain = new ArrayList<>();
+    for (VisitorState invocation : invocationStates) {
+      Symbol sym = ASTHelpers.getSymbol(invocation.getPath().getLeaf());
+      if (!(sym instanceof MethodSymbol)) {
+        continue;
+      }
+      chain.add(sym);
+      for (Symbol owner = sym.owner; owner instanceof ClassSymbol; owner = owner.owner) {
+        chain.add(owner);
+      }
+      chain.add(sym.packge());
+    }
+    lookupChain = chain.toArray(new Symbol[0]);
+  }
+
+  private static VisitorState[] states(VisitorState state, List<TreePath> paths) {
+    VisitorState[] states = new VisitorState[paths.size()];
+    for (int i = 0; i < states.length; i++) {
+      states[i] = state.withPath(paths.get(i));
+    }
+    return states;
+  }
+
+  /** The check's specialized matcher, on every invocation whatever its context. */
+  @Benchmark public void matcher(Blackhole blackhole) {
+    for (VisitorState state : invocationStates) {
+      blackhole.consume(matcher.matches((ExpressionTree) state.getPath().getLeaf(), state));
+    }
+  }
+
+  /** The annotation lookups of a verdict, one configured name and {@code CanIgnoreReturnValue}. */
+  @Benchmark public void hasDirectAnnotationWithName(Blackhole blackhole) {
+    for (Symbol sym : lookupChain) {
+      blackhole.consume(
+          ConfigurableCheckReturnValue.hasDirectAnnotationWithName(sym, annotationName));
+      blackhole.consume(ConfigurableCheckReturnValue.hasDirectAnnotationWithName(
+          sym, CheckReturnValueConfig.CAN_IGNORE_RETURN_VALUE));
+    }
+  }
+
+  @Benchmark public void matchMethodInvocation(Blackhole blackhole) {
+    for (VisitorState state : invocationStates) {
+      blackhole.consume(checker.matchMethodInvocation(
+          (MethodInvocationTree) state.getPath().getLeaf(), state));
+    }
+  }
+
+  /** Member references only occur with a non-zero {@code lambdaDensity}. */
+  @Benchmark public void matchMemberReference(Blackhole blackhole) {
+    for (VisitorState state : memberReferenceStates) {
+      blackhole.consume(checker.matchMemberReference(
+          (MemberReferenceTree) state.getPath().getLeaf(), state));
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.benchmarks;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.tools.javac.api.BasicJavacTask;
+import com.sun.tools.javac.api.JavacTool;
+import com.sun.tools.javac.util.Context;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+/**
+ * An attributed in-memory compilation, with the paths of every method invocation and member
+ * reference in it. The javac context stays alive, so symbols and types can be used afterwards.
+ */
+final class Compilation {
+
+  final Context context;
+  final List<TreePath> invocations = new ArrayList<>();
+  final List<TreePath> memberReferences = new ArrayList<>();
+
+  private Compilation(Context context) {
+    this.context = context;
+  }
+
+  static Compilation compile(List<JavaFileObject> sources) {
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    JavacTask task = JavacTool.create().getTask(null, null, diagnostics,
+        Collections.singletonList("-proc:none"), null, sources);
+    Compilation compilation = new Compilation(((BasicJavacTask) task).getContext());
+    try {
+      Iterable<? extends CompilationUnitTree> units = task.parse();
+      task.analyze();
+      for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+        if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+          throw new IllegalStateException("Generated sources do not compile: " + diagnostic);
+        }
+      }
+      for (CompilationUnitTree unit : units) {
+        compilation.collect(unit);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return compilation;
+  }
+
+  private void collect(CompilationUnitTree unit) {
+    new TreePathScanner<Void, Void>() {
+      @Override public Void visitMethodInvocation(MethodInvocationTree tree, Void unused) {
+        invocations.add(getCurrentPath());
+        return super.visitMethodInvocation(tree, null);
+      }
+
+      @Override public Void visitMemberReference(MemberReferenceTree tree, Void unused) {
+        memberReferences.add(getCurrentPath());
+        return super.visitMemberReference(tree, null);
+      }
+    }.scan(unit, null);
+  }
+}
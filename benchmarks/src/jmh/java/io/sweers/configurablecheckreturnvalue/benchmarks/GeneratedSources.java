@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.benchmarks;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * Generates a small, self-contained program to run the check over.
+ *
+ * <p>{@code Caller} makes calls to two APIs with the same shape: {@code bench.api.Api}, which is
+ * annotated with a configured annotation, and {@code bench.plain.Plain}, which is not. The called
+ * methods are declared {@code nestingDepth} classes deep, so the verdict for a call walks up that
+ * many enclosing classes. With {@code packageAnnotation} the annotation is on
+ * {@code bench.api}'s {@code package-info} instead of on {@code Api}, which is one more step. A
+ * {@code lambdaDensity} fraction of the calls is made from void lambdas and method references,
+ * and a quarter of the remaining calls use their result.
+ */
+final class GeneratedSources {
+
+  static final int CALLS = 400;
+  private static final int CALLS_PER_METHOD = 50;
+
+  private GeneratedSources() {
+  }
+
+  /**
+   * The configured annotation names, alternating qualified and simple names. The generated APIs
+   * use the last one.
+   */
+  static List<String> annotations(int annotationCount) {
+    List<String> annotations = new ArrayList<>(annotationCount);
+    for (int i = 0; i < annotationCount; i++) {
+      annotations.add(i % 2 == 0 ? "bench.annotations.Check" + i : "Check" + i);
+    }
+    return annotations;
+  }
+
+  static List<JavaFileObject> generate(int annotationCount, int nestingDepth,
+      boolean packageAnnotation, double lambdaDensity) {
+    List<JavaFileObject> sources = new ArrayList<>();
+    for (int i = 0; i < annotationCount; i++) {
+      sources.add(source("bench/annotations/Check" + i + ".java",
+          "package bench.annotations;\n"
+              + "public @interface Check" + i + " {}\n"));
+    }
+    String annotation = "@bench.annotations.Check" + (annotationCount - 1);
+    if (packageAnnotation) {
+      sources.add(source("bench/api/package-info.java", annotation + "\npackage bench.api;\n"));
+    }
+    sources.add(source("bench/api/Api.java",
+        api("bench.api", "Api", nestingDepth, packageAnnotation ? "" : annotation + "\n")));
+    sources.add(source("bench/plain/Plain.java", api("bench.plain", "Plain", nestingDepth, "")));
+    sources.add(source("bench/caller/Caller.java", caller(nestingDepth, lambdaDensity)));
+    return sources;
+  }
+
+  private static String api(String packageName, String name, int nestingDepth,
+      String annotation) {
+    StringBuilder sb = new StringBuilder("package ").append(packageName).append(";\n")
+        .append(annotation)
+        .append("public class ").append(name).append(" {\n");
+    for (int i = 1; i <= nestingDepth; i++) {
+      sb.append("public static class Level").append(i).append(" {\n");
+    }
+    sb.append("public int value(int i) { return i; }\n")
+        .append("public void run(int i) {}\n");
+    for (int i = 0; i <= nestingDepth; i++) {
+      sb.append("}\n");
+    }
+    return sb.toString();
+  }
+
+  private static String caller(int nestingDepth, double lambdaDensity) {
+    String nested = "";
+    for (int i = 1; i <= nestingDepth; i++) {
+      nested += ".Level" + i;
+    }
+    StringBuilder sb = new StringBuilder("package bench.caller;\n")
+        .append("import java.util.function.IntConsumer;\n")
+        .append("public class Caller {\n")
+        .append("static void run(Runnable r) { r.run(); }\n")
+        .append("static void accept(IntConsumer c) { c.accept(1); }\n");
+    // Fixed seed, so every fork compiles the same program.
+    Random random = new Random(42);
+    for (int call = 0; call < CALLS; call++) {
+      if (call % CALLS_PER_METHOD == 0) {
+        if (call > 0) {
+          sb.append("}\n");
+        }
+        sb.append("void calls").append(call / CALLS_PER_METHOD)
+            .append("(bench.api.Api").append(nested).append(" api, bench.plain.Plain")
+            .append(nested).append(" plain) {\n");
+      }
+      String receiver = call % 2 == 0 ? "api" : "plain";
+      if (random.nextDouble() < lambdaDensity) {
+        if (random.nextBoolean()) {
+          sb.append("run(() -> ").append(receiver).append(".value(").append(call).append("));\n");
+        } else {
+          sb.append("accept(").append(receiver).append("::value);\n");
+        }
+      } else if (random.nextInt(4) == 0) {
+        sb.append("int v").append(call).append(" = ").append(receiver).append(".value(")
+            .append(call).append(");\n");
+      } else {
+        sb.append(receiver).append(".value(").append(call).append(");\n");
+      }
+    }
+    return sb.append("}\n}\n").toString();
+  }
+
+  private static JavaFileObject source(String path, String code) {
+    return new SimpleJavaFileObject(URI.create("string:///" + path), JavaFileObject.Kind.SOURCE) {
+      @Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return code;
+      }
+    };
+  }
+}
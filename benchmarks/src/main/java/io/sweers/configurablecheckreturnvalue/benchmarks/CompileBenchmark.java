@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares what compiling a corpus generated by {@link CorpusGenerator} costs with plain javac,
+ * with Error Prone running no checks, with the upstream {@code CheckReturnValue} check and with
+ * {@code ConfigurableCheckReturnValue}.
+ *
+ * <p>Usage: {@code CompileBenchmark --corpus <dir> --error-prone <classpath>
+ * --checker <classpath> [--runs n] [--warmup n] [--jvm-args "<flags>"] [--output <json>]}.
+ * {@code --error-prone} is Error Prone's processor path, {@code --checker} the same plus the
+ * error-prone artifact. {@code --jvm-args} go to every compiler process, e.g. the javac internals
+ * Error Prone needs exported and a fixed {@code -Xmx}.
+ *
+ * <p>Every compilation runs in a fresh JVM through {@link CompileRunner}, so no mode benefits
+ * from another's warm JIT or loaded classes. Rounds go through the modes in turn, and the first
+ * {@code --warmup} rounds are discarded. Wall time excludes JVM startup; see
+ * {@link CompileRunner} for how peak heap is measured. Nothing here needs the network.
+ */
+public final class CompileBenchmark {
+
+  enum Mode {
+    JAVAC("javac", null),
+    ERROR_PRONE("error-prone", null),
+    UPSTREAM("upstream-check-return-value", "CheckReturnValue"),
+    CONFIGURABLE("configurable-check-return-value", "ConfigurableCheckReturnValue");
+
+    final String id;
+    /** The one check enabled, or {@code null} for none. */
+    final String check;
+
+    Mode(String id, String check) {
+      this.id = id;
+      this.check = check;
+    }
+  }
+
+  private final Path corpus;
+  private final String errorProneClasspath;
+  private final String checkerClasspath;
+  private final List<String> jvmArgs;
+
+  CompileBenchmark(Path corpus, String errorProneClasspath, String checkerClasspath,
+      List<String> jvmArgs) {
+    this.corpus = corpus;
+    this.errorProneClasspath = errorProneClasspath;
+    this.checkerClasspath = checkerClasspath;
+    this.jvmArgs = jvmArgs;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Path corpus = null;
+    String errorProneClasspath = null;
+    String checkerClasspath = null;
+    Path output = null;
+    int runs = 5;
+    int warmup = 1;
+    List<String> jvmArgs = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--corpus":
+          corpus = Paths.get(args[++i]);
+          break;
+        case "--error-prone":
+          errorProneClasspath = args[++i];
+          break;
+        case "--checker":
+          checkerClasspath = args[++i];
+          break;
+        case "--runs":
+          runs = Integer.parseInt(args[++i]);
+          break;
+        case "--warmup":
+          warmup = Integer.parseInt(args[++i]);
+          break;
+        case "--jvm-args":
+          for (String arg : args[++i].trim().split("\\s+")) {
+            if (!arg.isEmpty()) {
+              jvmArgs.add(arg);
+            }
+          }
+          break;
+        case "--output":
+          output = Paths.get(args[++i]);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+    if (corpus == null || errorProneClasspath == null || checkerClasspath == null) {
+      throw new IllegalArgumentException("Usage: CompileBenchmark --corpus <dir>"
+          + " --error-prone <classpath> --checker <classpath> [--runs n] [--warmup n]"
+          + " [--jvm-args \"<flags>\"] [--output <json>]");
+    }
+    if (!Files.isRegularFile(corpus.resolve(CorpusGenerator.SOURCES_FILE))) {
+      throw new IllegalArgumentException("No generated corpus in " + corpus);
+    }
+
+    CompileBenchmark benchmark =
+        new CompileBenchmark(corpus, errorProneClasspath, checkerClasspath, jvmArgs);
+    List<Result> results = new ArrayList<>();
+    for (Mode mode : Mode.values()) {
+      results.add(new Result(mode));
+    }
+    for (int round = 0; round < warmup + runs; round++) {
+      for (Result result : results) {
+        benchmark.run(result.mode, round >= warmup ? result : null);
+      }
+    }
+
+    Result baseline = results.get(0);
+    for (Result result : results) {
+      System.out.println(result.format(baseline));
+    }
+    if (output != null) {
+      Path parent = output.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+        writer.write(toJson(results, baseline));
+      }
+    }
+  }
+
+  List<String> javacArgs(Mode mode) {
+    Path classes = corpus.resolve("classes").resolve(mode.id);
+    List<String> args = new ArrayList<>(Arrays.asList("-d", classes.toString()));
+    if (mode != Mode.JAVAC) {
+      String plugin = "-Xplugin:ErrorProne -XepDisableAllChecks";
+      if (mode.check != null) {
+        plugin += " -Xep:" + mode.check + ":WARN";
+      }
+      args.addAll(Arrays.asList("-XDcompilePolicy=simple",
+          "-processorpath",
+          mode == Mode.CONFIGURABLE ? checkerClasspath : errorProneClasspath,
+          plugin));
+    }
+    args.add("@" + corpus.resolve(CorpusGenerator.SOURCES_FILE));
+    return args;
+  }
+
+  /** Compiles the corpus once, recording the result into {@code result} if it is non-null. */
+  private void run(Mode mode, Result result) throws IOException, InterruptedException {
+    Files.createDirectories(corpus.resolve("classes").resolve(mode.id));
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(jvmArgs);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(CompileRunner.class.getName());
+    command.addAll(javacArgs(mode));
+
+    Process process = new ProcessBuilder(command)
+        .redirectErrorStream(true)
+        .redirectInput(ProcessBuilder.Redirect.from(new File(nullDevice())))
+        .start();
+    String resultLine = null;
+    List<String> lastLines = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(CompileRunner.RESULT)) {
+          resultLine = line;
+        } else if (lastLines.size() < 20) {
+          lastLines.add(line);
+        }
+      }
+    }
+    int exitCode = process.waitFor();
+    if (exitCode != 0 || resultLine == null) {
+      throw new IllegalStateException(mode.id + " compilation failed with exit code " + exitCode
+          + ":\n" + String.join("\n", lastLines));
+    }
+    if (result != null) {
+      String[] values = resultLine.substring(CompileRunner.RESULT.length()).trim().split(" ");
+      result.wallTime.add(Long.parseLong(values[0]));
+      result.peakHeap.add(Long.parseLong(values[1]));
+    }
+  }
+
+  private static String nullDevice() {
+    return System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null";
+  }
+
+  static String toJson(List<Result> results, Result baseline) {
+    StringBuilder sb = new StringBuilder("[\n");
+    for (int i = 0; i < results.size(); i++) {
+      Result result = results.get(i);
+      sb.append("  {\"mode\": \"").append(result.mode.id).append("\", \"runs\": ")
+          .append(result.wallTime.size())
+          .append(", \"wallTimeMs\": ").append(Stats.millisJson(result.wallTime))
+          .append(", \"peakHeapMb\": ").append(Stats.megabytesJson(result.peakHeap))
+          .append(String.format(Locale.ROOT,
+              ", \"relativeWallTime\": %.3f, \"relativePeakHeap\": %.3f",
+              result.relativeWallTime(baseline), result.relativePeakHeap(baseline)))
+          .append(i == results.size() - 1 ? "}\n" : "},\n");
+    }
+    return sb.append("]\n").toString();
+  }
+
+  /** Measurements of one mode, wall times in nanoseconds and heap in bytes. */
+  static final class Result {
+    final Mode mode;
+    final List<Long> wallTime = new ArrayList<>();
+    final List<Long> peakHeap = new ArrayList<>();
+
+    Result(Mode mode) {
+      this.mode = mode;
+    }
+
+    /** Median wall time relative to the median of {@code baseline}. */
+    double relativeWallTime(Result baseline) {
+      return ratio(Stats.median(wallTime), Stats.median(baseline.wallTime));
+    }
+
+    /** Median peak heap relative to the median of {@code baseline}. */
+    double relativePeakHeap(Result baseline) {
+      return ratio(Stats.median(peakHeap), Stats.median(baseline.peakHeap));
+    }
+
+    private static double ratio(long value, long baseline) {
+      return baseline == 0 ? 0 : (double) value / baseline;
+    }
+
+    String format(Result baseline) {
+      return String.format(Locale.ROOT,
+          "%-31s wall median %8.1f ms (%.2fx), peak heap median %7.1f MB (%.2fx)",
+          mode.id, Stats.millis(Stats.median(wallTime)), relativeWallTime(baseline),
+          Stats.megabytes(Stats.median(peakHeap)), relativePeakHeap(baseline));
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Runs one javac compilation in this JVM and prints its wall time, the peak heap usage of the
+ * JVM and javac's exit code on a line starting with {@link #RESULT}. Started in a fresh process
+ * for every measurement by {@link CompileBenchmark}.
+ *
+ * <p>The peak is the sum of the peaks of all heap memory pools. The pools may peak at different
+ * times, so this is an upper bound of the actual peak, with the same bias for every mode.
+ */
+public final class CompileRunner {
+
+  static final String RESULT = "compile-runner-result:";
+
+  private CompileRunner() {
+  }
+
+  public static void main(String[] args) {
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    if (javac == null) {
+      throw new IllegalStateException("No system Java compiler, run this with a JDK");
+    }
+    long start = System.nanoTime();
+    int exitCode = javac.run(null, null, null, args);
+    long elapsed = System.nanoTime() - start;
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    System.out.println(RESULT + " " + elapsed + " " + peak + " " + exitCode);
+    System.exit(exitCode);
+  }
+}
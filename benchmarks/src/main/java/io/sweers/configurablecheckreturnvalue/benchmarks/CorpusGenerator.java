@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generates a synthetic corpus of Java sources for {@link CompileBenchmark}.
+ *
+ * <p>Usage: {@code CorpusGenerator --output <dir> [--classes n] [--calls m] [--crv-fraction f]
+ * [--lambda-fraction f] [--test-fraction f] [--seed s]}. The corpus has {@code n} classes making
+ * {@code m} calls each into one API class per ten of them. A {@code crv-fraction} of the API
+ * methods is annotated with {@code @CheckReturnValue}, which both the upstream check and this one
+ * recognize by simple name, and every API has a {@code @CanIgnoreReturnValue} setter. A
+ * {@code lambda-fraction} of the calls is made from void lambdas and method references. A
+ * {@code test-fraction} of the classes are JUnit-style tests that expect exceptions, the pattern
+ * both checks exempt. The annotations and the JUnit API are generated too, so the corpus compiles
+ * without any dependencies.
+ *
+ * <p>Sources are written to {@code <dir>/src} and listed in {@code <dir>/sources.txt}, which can
+ * be passed to javac as an {@code @}-file. The same arguments always generate the same corpus.
+ */
+public final class CorpusGenerator {
+
+  static final String SOURCES_FILE = "sources.txt";
+
+  private static final int API_METHODS = 10;
+  private static final int CALLS_PER_METHOD = 10;
+  private static final int FIELDS = 4;
+
+  private final int classes;
+  private final int calls;
+  private final double crvFraction;
+  private final double lambdaFraction;
+  private final double testFraction;
+  private final Random random;
+
+  CorpusGenerator(int classes, int calls, double crvFraction, double lambdaFraction,
+      double testFraction, long seed) {
+    this.classes = classes;
+    this.calls = calls;
+    this.crvFraction = crvFraction;
+    this.lambdaFraction = lambdaFraction;
+    this.testFraction = testFraction;
+    this.random = new Random(seed);
+  }
+
+  public static void main(String[] args) throws IOException {
+    Path output = null;
+    int classes = 1000;
+    int calls = 20;
+    double crvFraction = 0.3;
+    double lambdaFraction = 0.2;
+    double testFraction = 0.1;
+    long seed = 42;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--output":
+          output = Paths.get(args[++i]);
+          break;
+        case "--classes":
+          classes = Integer.parseInt(args[++i]);
+          break;
+        case "--calls":
+          calls = Integer.parseInt(args[++i]);
+          break;
+        case "--crv-fraction":
+          crvFraction = Double.parseDouble(args[++i]);
+          break;
+        case "--lambda-fraction":
+          lambdaFraction = Double.parseDouble(args[++i]);
+          break;
+        case "--test-fraction":
+          testFraction = Double.parseDouble(args[++i]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[++i]);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+    if (output == null) {
+      throw new IllegalArgumentException("Usage: CorpusGenerator --output <dir> [--classes n]"
+          + " [--calls m] [--crv-fraction f] [--lambda-fraction f] [--test-fraction f]"
+          + " [--seed s]");
+    }
+    List<Path> sources = new CorpusGenerator(
+        classes, calls, crvFraction, lambdaFraction, testFraction, seed).generate(output);
+    System.out.println("Generated " + sources.size() + " sources in " + output.resolve("src"));
+  }
+
+  /** Writes the corpus to {@code output}, replacing a previously generated one. */
+  List<Path> generate(Path output) throws IOException {
+    Path src = output.resolve("src");
+    if (Files.exists(src)) {
+      try (Stream<Path> files = Files.walk(src)) {
+        for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(file);
+        }
+      }
+    }
+    List<Path> sources = new ArrayList<>();
+    write(src, "corpus/annotations/CheckReturnValue.java",
+        "package corpus.annotations;\n"
+            + "public @interface CheckReturnValue {}\n", sources);
+    write(src, "corpus/annotations/CanIgnoreReturnValue.java",
+        "package corpus.annotations;\n"
+            + "public @interface CanIgnoreReturnValue {}\n", sources);
+    write(src, "org/junit/Test.java",
+        "package org.junit;\n"
+            + "public @interface Test {}\n", sources);
+    write(src, "org/junit/Assert.java",
+        "package org.junit;\n"
+            + "public class Assert {\n"
+            + "  public static void fail() { throw new AssertionError(); }\n"
+            + "}\n", sources);
+
+    int apis = Math.max(1, classes / 10);
+    for (int i = 0; i < apis; i++) {
+      write(src, "corpus/api/Api" + i + ".java", api(i), sources);
+    }
+    for (int i = 0; i < classes; i++) {
+      boolean test = random.nextDouble() < testFraction;
+      String name = "Class" + i + (test ? "Test" : "");
+      write(src, "corpus/app/" + name + ".java", caller(name, apis, test), sources);
+    }
+
+    StringBuilder list = new StringBuilder();
+    for (Path source : sources) {
+      list.append(source.toAbsolutePath()).append('\n');
+    }
+    Files.write(output.resolve(SOURCES_FILE), list.toString().getBytes(StandardCharsets.UTF_8));
+    return sources;
+  }
+
+  private String api(int index) {
+    String name = "Api" + index;
+    StringBuilder sb = new StringBuilder("package corpus.api;\n")
+        .append("import corpus.annotations.CanIgnoreReturnValue;\n")
+        .append("import corpus.annotations.CheckReturnValue;\n")
+        .append("public class ").append(name).append(" {\n")
+        .append("  public static ").append(name).append(" create() { return new ").append(name)
+        .append("(); }\n")
+        .append("  @CanIgnoreReturnValue public ").append(name)
+        .append(" set(int i) { return this; }\n");
+    for (int i = 0; i < API_METHODS; i++) {
+      sb.append("  ");
+      if (random.nextDouble() < crvFraction) {
+        sb.append("@CheckReturnValue ");
+      }
+      sb.append("public int m").append(i).append("(int i) { return i + ").append(i).append("; }\n");
+    }
+    return sb.append("}\n").toString();
+  }
+
+  private String caller(String name, int apis, boolean test) {
+    StringBuilder sb = new StringBuilder("package corpus.app;\n")
+        .append("import java.util.function.IntConsumer;\n")
+        .append("public class ").append(name).append(" {\n")
+        .append("  static void run(Runnable r) { r.run(); }\n")
+        .append("  static void accept(IntConsumer c) { c.accept(1); }\n");
+    for (int i = 0; i < FIELDS; i++) {
+      String api = "corpus.api.Api" + random.nextInt(apis);
+      sb.append("  private final ").append(api).append(" f").append(i).append(" = ").append(api)
+          .append(".create();\n");
+    }
+    for (int call = 0; call < calls; call++) {
+      if (call % CALLS_PER_METHOD == 0) {
+        if (call > 0) {
+          sb.append("  }\n");
+        }
+        sb.append(test ? "  @org.junit.Test public void test" : "  public void method")
+            .append(call / CALLS_PER_METHOD).append("() {\n");
+      }
+      String receiver = "f" + random.nextInt(FIELDS);
+      String method = "m" + random.nextInt(API_METHODS);
+      String invocation = receiver + "." + method + "(" + call + ")";
+      sb.append("    ");
+      if (random.nextDouble() < lambdaFraction) {
+        if (random.nextBoolean()) {
+          sb.append("run(() -> ").append(invocation).append(");\n");
+        } else {
+          sb.append("accept(").append(receiver).append("::").append(method).append(");\n");
+        }
+      } else if (test && random.nextBoolean()) {
+        sb.append("try { ").append(invocation).append("; org.junit.Assert.fail(); }")
+            .append(" catch (IllegalStateException expected) {}\n");
+      } else {
+        int kind = random.nextInt(10);
+        if (kind < 3) {
+          sb.append("int v").append(call).append(" = ").append(invocation).append(";\n");
+        } else if (kind < 4) {
+          sb.append(receiver).append(".set(").append(call).append(");\n");
+        } else {
+          sb.append(invocation).append(";\n");
+        }
+      }
+    }
+    if (calls > 0) {
+      sb.append("  }\n");
+    }
+    return sb.append("}\n").toString();
+  }
+
+  private static void write(Path src, String path, String code, List<Path> sources)
+      throws IOException {
+    Path file = src.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, code.getBytes(StandardCharsets.UTF_8));
+    sources.add(file);
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures how long a fresh javac process running the check takes to report its first
+ * diagnostic, with and without an AppCDS archive of Error Prone and the checker.
+ *
+ * <p>Usage: {@code StartupBenchmark --classpath <checker> [--archive <jsa>] [--runs n]
+ * [--warmup n] [--jvm-args "<flags>"] [--output <json>] -- <javac args>}. Both modes are run
+ * alternately so that a warming disk cache favours neither. Without an archive the JVM keeps its
+ * defaults, which includes the JDK's own class data sharing on JDK 12 and later. With an archive
+ * sharing is required, so a JVM that can't use it fails the benchmark instead of being timed as
+ * if it had. Times are wall-clock from process start until the first
+ * {@code [ConfigurableCheckReturnValue]} diagnostic and until exit.
+ */
+public final class StartupBenchmark {
+
+  private static final String DIAGNOSTIC = "[ConfigurableCheckReturnValue]";
+
+  private final String classpath;
+  private final List<String> jvmArgs;
+  private final List<String> javacArgs;
+
+  StartupBenchmark(String classpath, List<String> jvmArgs, List<String> javacArgs) {
+    this.classpath = classpath;
+    this.jvmArgs = jvmArgs;
+    this.javacArgs = javacArgs;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    String classpath = null;
+    Path archive = null;
+    Path output = null;
+    int runs = 20;
+    int warmup = 2;
+    List<String> jvmArgs = new ArrayList<>();
+    List<String> javacArgs = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--classpath":
+          classpath = args[++i];
+          break;
+        case "--archive":
+          archive = Paths.get(args[++i]);
+          break;
+        case "--runs":
+          runs = Integer.parseInt(args[++i]);
+          break;
+        case "--warmup":
+          warmup = Integer.parseInt(args[++i]);
+          break;
+        case "--jvm-args":
+          for (String arg : args[++i].trim().split("\\s+")) {
+            if (!arg.isEmpty()) {
+              jvmArgs.add(arg);
+            }
+          }
+          break;
+        case "--output":
+          output = Paths.get(args[++i]);
+          break;
+        case "--":
+          javacArgs.addAll(Arrays.asList(args).subList(i + 1, args.length));
+          i = args.length;
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+    if (classpath == null || javacArgs.isEmpty()) {
+      throw new IllegalArgumentException(
+          "Usage: StartupBenchmark --classpath <checker> [--archive <jsa>] [--runs n]"
+              + " [--warmup n] [--jvm-args \"<flags>\"] [--output <json>] -- <javac args>");
+    }
+    if (archive != null && !Files.isRegularFile(archive)) {
+      System.err.println("No archive at " + archive + ", measuring without AppCDS only");
+      archive = null;
+    }
+
+    StartupBenchmark benchmark = new StartupBenchmark(classpath, jvmArgs, javacArgs);
+    Result without = new Result("default");
+    Result with = archive == null ? null : new Result("appcds");
+    for (int i = 0; i < warmup + runs; i++) {
+      boolean measure = i >= warmup;
+      boolean archiveFirst = i % 2 == 0;
+      if (with != null && archiveFirst) {
+        benchmark.run(archive, measure ? with : null);
+      }
+      benchmark.run(null, measure ? without : null);
+      if (with != null && !archiveFirst) {
+        benchmark.run(archive, measure ? with : null);
+      }
+    }
+
+    List<Result> results = with == null ? Collections.singletonList(without)
+        : Arrays.asList(without, with);
+    for (Result result : results) {
+      System.out.println(result);
+    }
+    if (output != null) {
+      Path parent = output.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+        writer.write(toJson(results));
+      }
+    }
+  }
+
+  /** Runs one javac process, recording its timings into {@code result} if it is non-null. */
+  private void run(Path archive, Result result) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(jvmArgs);
+    if (archive != null) {
+      // Unlike auto, fails when the archive can't be mapped or doesn't match the class path, so a
+      // run silently loading every class from the jars is never recorded as an AppCDS run.
+      command.add("-Xshare:on");
+      if ("10".equals(System.getProperty("java.specification.version"))) {
+        // Only JDK 10 still needs AppCDS unlocked, or it maps just the JDK's classes.
+        command.add("-XX:+UseAppCDS");
+      }
+      command.add("-XX:SharedArchiveFile=" + archive);
+    }
+    command.add("-cp");
+    command.add(classpath);
+    command.add("com.sun.tools.javac.Main");
+    command.addAll(javacArgs);
+
+    long start = System.nanoTime();
+    Process process = new ProcessBuilder(command)
+        .redirectErrorStream(true)
+        .redirectInput(ProcessBuilder.Redirect.from(new File(nullDevice())))
+        .start();
+    long firstDiagnostic = -1;
+    List<String> output = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (firstDiagnostic < 0 && line.contains(DIAGNOSTIC)) {
+          firstDiagnostic = System.nanoTime() - start;
+        }
+        output.add(line);
+      }
+    }
+    int exitCode = process.waitFor();
+    long total = System.nanoTime() - start;
+    if (firstDiagnostic < 0) {
+      throw new IllegalStateException("javac exited with " + exitCode + " without reporting a "
+          + DIAGNOSTIC + " diagnostic: " + command + "\n" + String.join("\n", output));
+    }
+    if (result != null) {
+      result.firstDiagnostic.add(firstDiagnostic);
+      result.total.add(total);
+    }
+  }
+
+  private static String nullDevice() {
+    return System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null";
+  }
+
+  static String toJson(List<Result> results) {
+    StringBuilder sb = new StringBuilder("[\n");
+    for (int i = 0; i < results.size(); i++) {
+      Result result = results.get(i);
+      sb.append("  {\"mode\": \"").append(result.mode).append("\", \"runs\": ")
+          .append(result.total.size())
+          .append(", \"firstDiagnosticMs\": ").append(Stats.millisJson(result.firstDiagnostic))
+          .append(", \"totalMs\": ").append(Stats.millisJson(result.total))
+          .append(i == results.size() - 1 ? "}\n" : "},\n");
+    }
+    return sb.append("]\n").toString();
+  }
+
+  /** Timings of one mode, in nanoseconds. */
+  static final class Result {
+    final String mode;
+    final List<Long> firstDiagnostic = new ArrayList<>();
+    final List<Long> total = new ArrayList<>();
+
+    Result(String mode) {
+      this.mode = mode;
+    }
+
+    @Override public String toString() {
+      return String.format(Locale.ROOT,
+          "%-8s first diagnostic median %.1f ms (min %.1f), total median %.1f ms (min %.1f)",
+          mode, Stats.millis(Stats.median(firstDiagnostic)),
+          Stats.millis(Stats.min(firstDiagnostic)), Stats.millis(Stats.median(total)),
+          Stats.millis(Stats.min(total)));
+    }
+  }
+}
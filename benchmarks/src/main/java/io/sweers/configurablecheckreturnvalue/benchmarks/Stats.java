@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/** Summary statistics of repeated measurements. */
+final class Stats {
+
+  private Stats() {
+  }
+
+  static long min(List<Long> values) {
+    return values.isEmpty() ? 0 : Collections.min(values);
+  }
+
+  static long median(List<Long> values) {
+    if (values.isEmpty()) {
+      return 0;
+    }
+    List<Long> sorted = new ArrayList<>(values);
+    Collections.sort(sorted);
+    int middle = sorted.size() / 2;
+    return sorted.size() % 2 == 1 ? sorted.get(middle)
+        : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+  }
+
+  static long mean(List<Long> values) {
+    long sum = 0;
+    for (long value : values) {
+      sum += value;
+    }
+    return values.isEmpty() ? 0 : sum / values.size();
+  }
+
+  static double millis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+
+  static double megabytes(long bytes) {
+    return bytes / (1024.0 * 1024.0);
+  }
+
+  /** A JSON object with the min, median and mean of {@code nanos}, in milliseconds. */
+  static String millisJson(List<Long> nanos) {
+    return json(millis(min(nanos)), millis(median(nanos)), millis(mean(nanos)));
+  }
+
+  /** A JSON object with the min, median and mean of {@code bytes}, in megabytes. */
+  static String megabytesJson(List<Long> bytes) {
+    return json(megabytes(min(bytes)), megabytes(median(bytes)), megabytes(mean(bytes)));
+  }
+
+  private static String json(double min, double median, double mean) {
+    return String.format(Locale.ROOT, "{\"min\": %.1f, \"median\": %.1f, \"mean\": %.1f}",
+        min, median, mean);
+  }
+}
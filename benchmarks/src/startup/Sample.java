@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package startup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * A small but representative compilation for the class-data-sharing class list and the startup
+ * benchmark: annotated and unannotated calls, lambdas, method references and streams, so the
+ * checker's common paths and the javac classes behind them get loaded.
+ */
+public class Sample {
+
+  @interface CheckReturnValue {}
+
+  @interface CanIgnoreReturnValue {}
+
+  @CheckReturnValue
+  static int checked(int value) {
+    return value + 1;
+  }
+
+  @CanIgnoreReturnValue
+  static int ignorable(int value) {
+    return value;
+  }
+
+  @CheckReturnValue
+  static final class Builder {
+    private final List<String> values = new ArrayList<>();
+
+    Builder add(String value) {
+      values.add(value);
+      return this;
+    }
+
+    @CanIgnoreReturnValue
+    Builder addIgnorable(String value) {
+      return add(value);
+    }
+
+    List<String> build() {
+      return values;
+    }
+  }
+
+  void run(List<String> input) {
+    checked(1);
+    ignorable(2);
+    int used = checked(3);
+    Builder builder = new Builder();
+    builder.add("a");
+    builder.addIgnorable("b");
+    input.forEach(value -> checked(value.length()));
+    input.stream().map(String::trim).collect(Collectors.toList());
+    Optional.of(used).map(Sample::checked).ifPresent(value -> builder.add("" + value));
+    Runnable runnable = () -> checked(4);
+    runnable.run();
+    builder.build();
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.benchmarks;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates the retained size of the checker's own data structures by walking their fields.
+ *
+ * <p>Only objects of the checker and of {@code java.*} classes (collections, arrays, boxes,
+ * strings) are counted and followed. Symbols, trees, types and the context belong to javac or
+ * Error Prone and live exactly as long as the compilation whether the checker refers to them or
+ * not, so a reference to one costs the reference and nothing more. Classes and enum constants are
+ * shared and not counted either, and static fields are ignored.
+ *
+ * <p>Sizes follow the layout of a 64-bit HotSpot with compressed references and class pointers,
+ * the default below 32 GB of heap: 12-byte object headers, 16-byte array headers, 4-byte
+ * references and 8-byte alignment. Field packing is not modeled, so this is an estimate within a
+ * few percent, but one that doesn't depend on the JVM running the test. A heap histogram can't do
+ * this attribution: it counts every {@code HashMap$Node} of the compiler alongside the checker's.
+ */
+final class DeepSize {
+
+  private static final int OBJECT_HEADER = 12;
+  private static final int ARRAY_HEADER = 16;
+  private static final int REFERENCE = 4;
+  private static final int ALIGNMENT = 8;
+
+  private static final Map<Class<?>, Layout> LAYOUTS = new ConcurrentHashMap<>();
+
+  private final Map<Object, Boolean> visited = new IdentityHashMap<>();
+  private final Deque<Object> pending = new ArrayDeque<>();
+
+  private DeepSize() {
+  }
+
+  /** The estimated bytes retained by {@code root}, excluding what the compilation retains. */
+  static long of(Object root) {
+    return new DeepSize().retained(root);
+  }
+
+  /**
+   * The estimated bytes retained by each instance field of {@code root}, in declaration order and
+   * with the root object itself as {@code "<self>"}. Objects reachable from several fields are
+   * attributed to the first one.
+   */
+  static Map<String, Long> byField(Object root) {
+    DeepSize walk = new DeepSize();
+    Map<String, Long> sizes = new LinkedHashMap<>();
+    walk.visited.put(root, true);
+    sizes.put("<self>", shallowSize(root));
+    for (Field field : layout(root.getClass()).references) {
+      sizes.merge(field.getName(), walk.retained(read(field, root)), Long::sum);
+    }
+    return sizes;
+  }
+
+  private long retained(Object root) {
+    long size = 0;
+    push(root);
+    while (!pending.isEmpty()) {
+      Object object = pending.pop();
+      size += shallowSize(object);
+      Class<?> type = object.getClass();
+      if (type.isArray()) {
+        if (!type.getComponentType().isPrimitive()) {
+          for (int i = 0, length = Array.getLength(object); i < length; i++) {
+            push(Array.get(object, i));
+          }
+        }
+      } else {
+        for (Field field : layout(type).references) {
+          push(read(field, object));
+        }
+      }
+    }
+    return size;
+  }
+
+  private void push(Object object) {
+    if (object != null && isOwned(object) && visited.put(object, true) == null) {
+      pending.push(object);
+    }
+  }
+
+  private static boolean isOwned(Object object) {
+    if (object instanceof Class || object instanceof Enum) {
+      return false;
+    }
+    Class<?> type = object.getClass();
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+    String name = type.getName();
+    return type.isPrimitive()
+        || name.startsWith("java.")
+        || name.startsWith("io.sweers.configurablecheckreturnvalue.");
+  }
+
+  private static long shallowSize(Object object) {
+    Class<?> type = object.getClass();
+    if (type.isArray()) {
+      Class<?> component = type.getComponentType();
+      return align(ARRAY_HEADER + (long) Array.getLength(object) * sizeOf(component));
+    }
+    return layout(type).size;
+  }
+
+  private static Object read(Field field, Object object) {
+    try {
+      return field.get(object);
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static Layout layout(Class<?> type) {
+    return LAYOUTS.computeIfAbsent(type, Layout::new);
+  }
+
+  private static int sizeOf(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    } else if (type == int.class || type == float.class) {
+      return 4;
+    } else if (type == short.class || type == char.class) {
+      return 2;
+    } else if (type == byte.class || type == boolean.class) {
+      return 1;
+    }
+    return REFERENCE;
+  }
+
+  private static long align(long size) {
+    return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  /** The estimated instance size of a class and its reference fields, superclasses included. */
+  private static final class Layout {
+
+    final long size;
+    final List<Field> references = new ArrayList<>();
+
+    Layout(Class<?> type) {
+      long fields = 0;
+      for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers())) {
+            continue;
+          }
+          fields += sizeOf(field.getType());
+          if (!field.getType().isPrimitive() && accessible(field)) {
+            references.add(field);
+          }
+        }
+      }
+      size = align(OBJECT_HEADER + fields);
+    }
+
+    /**
+     * Fields of classes in modules that aren't opened to the test are counted but not followed.
+     * The test JVM opens the {@code java.base} packages whose collections the checker uses.
+     */
+    private static boolean accessible(Field field) {
+      try {
+        field.setAccessible(true);
+        return true;
+      } catch (RuntimeException e) {
+        return false;
+      }
+    }
+  }
+}
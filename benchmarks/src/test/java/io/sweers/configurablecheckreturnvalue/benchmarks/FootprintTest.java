@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.errorprone.ErrorProneFlags;
+import com.google.errorprone.VisitorState;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+import com.sun.tools.javac.api.BasicJavacTask;
+import com.sun.tools.javac.api.JavacTool;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import io.sweers.configurablecheckreturnvalue.core.CheckReturnValueConfig;
+import io.sweers.configurablecheckreturnvalue.errorprone.ConfigurableCheckReturnValue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * Memory footprint regression suite for the check.
+ *
+ * <p>A generated corpus is compiled once, in the heap the build caps for this test, and the check
+ * is run over every compilation unit the way Error Prone runs it. What the check itself retains
+ * afterwards, its verdict caches, resolved rule packs and loop context, is estimated with
+ * {@link DeepSize} and must stay within {@code footprint.baseBytes} plus
+ * {@code footprint.bytesPerSymbol} for each distinct method called in the corpus. The budgets and
+ * the corpus size are system properties set by the build's {@code footprintTest} task.
+ */
+@RunWith(JUnit4.class)
+public class FootprintTest {
+
+  private static final String RULE_PACKS = "streams,queues,concurrency,io,futures,allocations,"
+      + "disposables,publishers,netty,closeables";
+
+  @ClassRule public static TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private static JavacTask task;
+  private static List<CompilationUnitTree> units;
+  private static int symbols;
+
+  @BeforeClass public static void compileCorpus() throws IOException {
+    Path corpus = tmpFolder.newFolder("corpus").toPath();
+    List<Path> sources = new CorpusGenerator(
+        Integer.parseInt(property("footprint.classes")), 20, 0.3, 0.2, 0.1, 42).generate(corpus);
+
+    JavacTool tool = JavacTool.create();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    StandardJavaFileManager fileManager = tool.getStandardFileManager(diagnostics, null, null);
+    List<File> files = new ArrayList<>(sources.size());
+    for (Path source : sources) {
+      files.add(source.toFile());
+    }
+    // A diagnostic listener also makes javac record end positions, which fixes need.
+    task = tool.getTask(null, fileManager, diagnostics, Collections.singletonList("-proc:none"),
+        null, fileManager.getJavaFileObjectsFromFiles(files));
+    units = new ArrayList<>();
+    for (CompilationUnitTree unit : task.parse()) {
+      units.add(unit);
+    }
+    task.analyze();
+    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+      if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+        throw new IllegalStateException("Generated corpus does not compile: " + diagnostic);
+      }
+    }
+    symbols = countCalledMethods();
+  }
+
+  @AfterClass public static void releaseCompilation() {
+    task = null;
+    units = null;
+  }
+
+  @Test public void annotationsOnly() {
+    assertWithinBudget(ImmutableMap.of(
+        CheckReturnValueConfig.CUSTOM_ANNOTATIONS, "corpus.annotations.CheckReturnValue"));
+  }
+
+  @Test public void allRulePacksAndLoopAware() {
+    assertWithinBudget(ImmutableMap.of(
+        CheckReturnValueConfig.CUSTOM_ANNOTATIONS, "corpus.annotations.CheckReturnValue",
+        CheckReturnValueConfig.RULE_PACKS, RULE_PACKS,
+        "LoopAware", "true"));
+  }
+
+  private static void assertWithinBudget(Map<String, String> flags) {
+    ConfigurableCheckReturnValue checker =
+        new ConfigurableCheckReturnValue(ErrorProneFlags.fromMap(flags));
+    VisitorState state = new VisitorState(((BasicJavacTask) task).getContext());
+    for (CompilationUnitTree unit : units) {
+      scan(checker, state, unit);
+    }
+
+    long retained = DeepSize.of(checker);
+    long budget = Long.parseLong(property("footprint.baseBytes"))
+        + Long.parseLong(property("footprint.bytesPerSymbol")) * symbols;
+    assertWithMessage("Bytes retained by the check for %s methods called in %s units, by field: %s",
+        symbols, units.size(), DeepSize.byField(checker))
+        .that(retained)
+        .isAtMost(budget);
+  }
+
+  /** Calls the check's matchers on every tree they apply to, in Error Prone's order. */
+  private static void scan(ConfigurableCheckReturnValue checker, VisitorState state,
+      CompilationUnitTree unit) {
+    new TreePathScanner<Void, Void>() {
+      @Override public Void visitCompilationUnit(CompilationUnitTree tree, Void unused) {
+        checker.matchCompilationUnit(tree, state.withPath(getCurrentPath()));
+        return super.visitCompilationUnit(tree, null);
+      }
+
+      @Override public Void visitClass(ClassTree tree, Void unused) {
+        checker.matchClass(tree, state.withPath(getCurrentPath()));
+        return super.visitClass(tree, null);
+      }
+
+      @Override public Void visitMethod(MethodTree tree, Void unused) {
+        checker.matchMethod(tree, state.withPath(getCurrentPath()));
+        return super.visitMethod(tree, null);
+      }
+
+      @Override public Void visitMethodInvocation(MethodInvocationTree tree, Void unused) {
+        checker.matchMethodInvocation(tree, state.withPath(getCurrentPath()));
+        return super.visitMethodInvocation(tree, null);
+      }
+
+      @Override public Void visitMemberReference(MemberReferenceTree tree, Void unused) {
+        checker.matchMemberReference(tree, state.withPath(getCurrentPath()));
+        return super.visitMemberReference(tree, null);
+      }
+    }.scan(unit, null);
+  }
+
+  /** The number of distinct methods invoked or referenced, what the check's caches are keyed by. */
+  private static int countCalledMethods() {
+    Trees trees = Trees.instance(task);
+    Set<MethodSymbol> methods = new HashSet<>();
+    for (CompilationUnitTree unit : units) {
+      new TreePathScanner<Void, Void>() {
+        @Override public Void visitMethodInvocation(MethodInvocationTree tree, Void unused) {
+          add(trees.getElement(getCurrentPath()));
+          return super.visitMethodInvocation(tree, null);
+        }
+
+        @Override public Void visitMemberReference(MemberReferenceTree tree, Void unused) {
+          add(trees.getElement(getCurrentPath()));
+          return super.visitMemberReference(tree, null);
+        }
+
+        private void add(Element element) {
+          if (element instanceof MethodSymbol) {
+            methods.add((MethodSymbol) element);
+          }
+        }
+      }.scan(unit, null);
+    }
+    return methods.size();
+  }
+
+  private static String property(String name) {
+    String value = System.getProperty(name);
+    if (value == null) {
+      throw new IllegalStateException("Missing system property " + name
+          + ", run ./gradlew :benchmarks:footprintTest, which sets the budgets");
+    }
+    return value;
+  }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.bytecode;
+
+import io.sweers.configurablecheckreturnvalue.core.AnnotationMatcher;
+import io.sweers.configurablecheckreturnvalue.core.CheckReturnValueConfig;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Finds ignored return values in compiled classes and jars, without recompiling them.
+ *
+ * <p>An ignored return value is an {@code invoke*} instruction immediately followed by a
+ * {@code POP} or {@code POP2} of its result. Whether the invoked method must have its result
+ * checked is decided as {@code ConfigurableCheckReturnValue} does: an annotation on the method,
+ * then on its enclosing classes, then on its package ({@code package-info}), where
+ * {@code CanIgnoreReturnValue} exempts. Only annotations with class or runtime retention are
+ * visible in bytecode, and only methods declared in one of the scanned inputs can be resolved.
+ *
+ * <p>Inputs (jars or class directories) are read in parallel on a fork-join pool, jars through a
+ * memory mapping. Each input is indexed and scanned in a single pass; calls are resolved against
+ * the merged index afterwards, where earlier inputs win for duplicate classes as on a classpath.
+ *
+ * <p>{@code ./gradlew :bytecode:installDist} builds a distribution with a start script, or put
+ * the bytecode, core and asm jars on the class path:
+ *
+ * <pre>{@code
+ * bytecode/build/install/bytecode/bin/bytecode [--custom-annotations a,b]
+ *     [--exclude-annotations c] <jar or dir>...
+ * java -cp bytecode.jar:core.jar:asm.jar \
+ *     io.sweers.configurablecheckreturnvalue.bytecode.BytecodeScanner <jar or dir>...
+ * }</pre>
+ */
+public final class BytecodeScanner {
+
+  private static final String PACKAGE_INFO = "package-info";
+
+  /** The same defaults as {@code ConfigurableCheckReturnValue}. */
+  public static final Set<String> DEFAULT_ANNOTATIONS = CheckReturnValueConfig.DEFAULT_ANNOTATIONS;
+
+  private final AnnotationMatcher matcher;
+  private final int parallelism;
+
+  public BytecodeScanner(Set<String> annotations) {
+    this(annotations, Runtime.getRuntime().availableProcessors());
+  }
+
+  public BytecodeScanner(Set<String> annotations, int parallelism) {
+    this.matcher = new AnnotationMatcher(annotations);
+    this.parallelism = parallelism;
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, List<String>> options = new HashMap<>();
+    List<Path> inputs = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--custom-annotations") && i + 1 < args.length) {
+        options.put(CheckReturnValueConfig.CUSTOM_ANNOTATIONS, Arrays.asList(args[++i].split(",")));
+      } else if (args[i].equals("--exclude-annotations") && i + 1 < args.length) {
+        options.put(CheckReturnValueConfig.EXCLUDE_ANNOTATIONS,
+            Arrays.asList(args[++i].split(",")));
+      } else {
+        inputs.add(Paths.get(args[i]));
+      }
+    }
+    if (inputs.isEmpty()) {
+      System.err.println("Usage: BytecodeScanner [--custom-annotations <a,b>]"
+          + " [--exclude-annotations <a,b>] <jar or class directory>...");
+      System.exit(1);
+    }
+    Set<String> checked = CheckReturnValueConfig.fromOptions(options::get).annotations();
+
+    List<Finding> findings = new BytecodeScanner(checked).scan(inputs);
+    for (Finding finding : findings) {
+      System.out.println(finding);
+    }
+    System.exit(findings.isEmpty() ? 0 : 2);
+  }
+
+  /** Scans {@code inputs} and returns the ignored return values found, sorted by location. */
+  public List<Finding> scan(List<Path> inputs) throws IOException {
+    List<Result> results = new ArrayList<>(inputs.size());
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      List<ForkJoinTask<Result>> tasks = new ArrayList<>(inputs.size());
+      for (Path input : inputs) {
+        tasks.add(pool.submit(() -> scanInput(input)));
+      }
+      for (ForkJoinTask<Result> task : tasks) {
+        results.add(task.join());
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      pool.shutdown();
+    }
+
+    // Merged in input order, so the result doesn't depend on which task finished first.
+    Map<String, ClassInfo> index = new HashMap<>();
+    for (Result result : results) {
+      for (ClassInfo info : result.classes) {
+        index.putIfAbsent(info.name, info);
+      }
+    }
+    Resolver resolver = new Resolver(index);
+    List<Finding> findings = new ArrayList<>();
+    for (Result result : results) {
+      for (Finding call : result.calls) {
+        if (resolver.mustCheck(call.ownerName, call.methodName + call.methodDescriptor)) {
+          findings.add(call);
+        }
+      }
+    }
+    Collections.sort(findings);
+    return findings;
+  }
+
+  private Result scanInput(Path input) {
+    Result result = new Result();
+    try {
+      if (Files.isDirectory(input)) {
+        try (Stream<Path> files = Files.walk(input)) {
+          for (Path file : files.filter(f -> f.toString().endsWith(".class"))
+              .sorted()
+              .collect(Collectors.toList())) {
+            scanClass(Files.readAllBytes(file), result);
+          }
+        }
+      } else if (input.toString().endsWith(".class")) {
+        scanClass(Files.readAllBytes(input), result);
+      } else {
+        MappedJar.forEachClass(input, (name, contents) -> scanClass(contents, result));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read " + input, e);
+    }
+    return result;
+  }
+
+  private void scanClass(byte[] contents, Result result) {
+    new ClassReader(contents).accept(new IndexingVisitor(result), ClassReader.SKIP_FRAMES);
+  }
+
+  /** Maps an annotation descriptor to a verdict contribution: 1 check, 2 can ignore, 0 neither. */
+  private int annotationKind(String descriptor) {
+    String name = Type.getType(descriptor).getClassName().replace('$', '.');
+    if (AnnotationMatcher.isCanIgnoreReturnValue(name)) {
+      return 2;
+    }
+    return matcher.matches(name) ? 1 : 0;
+  }
+
+  private static Boolean verdict(int kinds) {
+    if ((kinds & 2) != 0) {
+      return Boolean.FALSE;
+    }
+    return (kinds & 1) != 0 ? Boolean.TRUE : null;
+  }
+
+  /** The classes and candidate calls of one input. */
+  private static final class Result {
+    final List<ClassInfo> classes = new ArrayList<>();
+    final List<Finding> calls = new ArrayList<>();
+  }
+
+  private final class IndexingVisitor extends ClassVisitor {
+
+    private final Result result;
+    private ClassInfo info;
+    private String sourceFile;
+    private int kinds;
+
+    IndexingVisitor(Result result) {
+      super(Opcodes.ASM7);
+      this.result = result;
+    }
+
+    @Override public void visit(int version, int access, String name, String signature,
+        String superName, String[] interfaces) {
+      info = new ClassInfo(name);
+      info.superName = superName;
+      info.interfaces = interfaces;
+    }
+
+    @Override public void visitSource(String source, String debug) {
+      sourceFile = source;
+    }
+
+    @Override public void visitOuterClass(String owner, String name, String descriptor) {
+      // Local and anonymous classes.
+      info.outerName = owner;
+    }
+
+    @Override public void visitInnerClass(String name, String outerName, String innerName,
+        int access) {
+      if (name.equals(info.name) && outerName != null) {
+        info.outerName = outerName;
+      }
+    }
+
+    @Override public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+      kinds |= annotationKind(descriptor);
+      return null;
+    }
+
+    @Override public MethodVisitor visitMethod(int access, String name, String descriptor,
+        String signature, String[] exceptions) {
+      return new CallVisitor(name, descriptor);
+    }
+
+    @Override public void visitEnd() {
+      info.verdict = verdict(kinds);
+      result.classes.add(info);
+    }
+
+    private final class CallVisitor extends MethodVisitor {
+
+      private final String name;
+      private final String descriptor;
+      private int kinds;
+      private int line;
+      /** The call made by the last instruction, if it has a result. Otherwise the owner is null. */
+      private String pendingOwner;
+      private String pendingName;
+      private String pendingDescriptor;
+      private int pendingSize;
+
+      CallVisitor(String name, String descriptor) {
+        super(Opcodes.ASM7);
+        this.name = name;
+        this.descriptor = descriptor;
+      }
+
+      @Override public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        kinds |= annotationKind(descriptor);
+        return null;
+      }
+
+      @Override public void visitLineNumber(int line, Label start) {
+        this.line = line;
+      }
+
+      @Override public void visitMethodInsn(int opcode, String owner, String name,
+          String descriptor, boolean isInterface) {
+        int size = Type.getReturnType(descriptor).getSize();
+        if (size == 0 || name.equals("<init>")) {
+          pendingOwner = null;
+          return;
+        }
+        pendingOwner = owner;
+        pendingName = name;
+        pendingDescriptor = descriptor;
+        pendingSize = size;
+      }
+
+      @Override public void visitInsn(int opcode) {
+        if (pendingOwner != null && (opcode == Opcodes.POP && pendingSize == 1
+            || opcode == Opcodes.POP2 && pendingSize == 2)) {
+          result.calls.add(new Finding(info.name, sourceFile, name, line, pendingOwner,
+              pendingName, pendingDescriptor));
+        }
+        pendingOwner = null;
+      }
+
+      // Every other instruction ends a pending call. Labels, line numbers and frames don't.
+
+      @Override public void visitIntInsn(int opcode, int operand) {
+        pendingOwner = null;
+      }
+
+      @Override public void visitVarInsn(int opcode, int var) {
+        pendingOwner = null;
+      }
+
+      @Override public void visitTypeInsn(int opcode, String type) {
+        pendingOwner = null;
+      }
+
+      @Override public void visitFieldInsn(int opcode, String owner, String name,
+          String descriptor) {
+        pendingOwner = null;
+      }
+
+      @Override public void visitInvokeDynamicInsn(String name, String descriptor,
+          Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+        pendingOwner = null;
+      }
+
+      @Override public void visitJumpInsn(int opcode, Label label) {
+        pendingOwner = null;
+      }
+
+      @Override public void visitLdcInsn(Object value) {
+        pendingOwner = null;
+      }
+
+      @Override public void visitIincInsn(int var, int increment) {
+        pendingOwner = null;
+      }
+
+      @Override public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        pendingOwner = null;
+      }
+
+      @Override public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        pendingOwner = null;
+      }
+
+      @Override public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+        pendingOwner = null;
+      }
+
+      @Override public void visitEnd() {
+        info.methods.put(name + descriptor, verdict(kinds));
+      }
+    }
+  }
+
+  /** Resolves invoked methods to their declarations and computes their verdicts, memoized. */
+  private static final class Resolver {
+
+    private final Map<String, ClassInfo> index;
+    private final Map<String, Boolean> verdicts = new HashMap<>();
+
+    Resolver(Map<String, ClassInfo> index) {
+      this.index = index;
+    }
+
+    boolean mustCheck(String owner, String method) {
+      String key = owner + '.' + method;
+      Boolean verdict = verdicts.get(key);
+      if (verdict == null) {
+        verdict = computeVerdict(owner, method);
+        verdicts.put(key, verdict);
+      }
+      return verdict;
+    }
+
+    private boolean computeVerdict(String owner, String method) {
+      ClassInfo declaring = findDeclaring(owner, method);
+      if (declaring == null) {
+        return false;
+      }
+      Boolean verdict = declaring.methods.get(method);
+      if (verdict != null) {
+        return verdict;
+      }
+      for (ClassInfo c = declaring; c != null; c = c.outerName == null ? null
+          : index.get(c.outerName)) {
+        if (c.verdict != null) {
+          return c.verdict;
+        }
+      }
+      String packageName = declaring.packageName();
+      ClassInfo packageInfo = index.get(
+          packageName.isEmpty() ? PACKAGE_INFO : packageName + "/" + PACKAGE_INFO);
+      return packageInfo != null && Boolean.TRUE.equals(packageInfo.verdict);
+    }
+
+    /** Superclasses first, then interfaces, like javac's method lookup. */
+    private ClassInfo findDeclaring(String owner, String method) {
+      Set<String> seen = new HashSet<>();
+      Deque<String> queue = new ArrayDeque<>();
+      for (String name = owner; name != null; ) {
+        ClassInfo info = index.get(name);
+        if (info == null) {
+          break;
+        }
+        if (info.methods.containsKey(method)) {
+          return info;
+        }
+        if (info.interfaces != null) {
+          queue.addAll(Arrays.asList(info.interfaces));
+        }
+        name = info.superName;
+      }
+      while (!queue.isEmpty()) {
+        String name = queue.removeFirst();
+        ClassInfo info = index.get(name);
+        if (info == null || !seen.add(name)) {
+          continue;
+        }
+        if (info.methods.containsKey(method)) {
+          return info;
+        }
+        if (info.interfaces != null) {
+          queue.addAll(Arrays.asList(info.interfaces));
+        }
+      }
+      return null;
+    }
+  }
+}
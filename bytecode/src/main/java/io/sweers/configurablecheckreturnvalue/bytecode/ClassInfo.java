@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.bytecode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the scanner remembers about a class: its place in the type hierarchy and which
+ * annotations it and its methods carry.
+ *
+ * <p>Verdicts are {@code TRUE} for a check-return-value annotation, {@code FALSE} for
+ * {@code CanIgnoreReturnValue} (which wins if both are present) and {@code null} for neither.
+ */
+final class ClassInfo {
+
+  final String name;
+  String superName;
+  String[] interfaces;
+  /** The class this one is nested in, from {@code InnerClasses} or {@code EnclosingMethod}. */
+  String outerName;
+  Boolean verdict;
+  /** Verdicts of all declared methods, keyed by name and descriptor. */
+  final Map<String, Boolean> methods = new HashMap<>();
+
+  ClassInfo(String name) {
+    this.name = name;
+  }
+
+  /** The internal name of this class's package, empty for the default package. */
+  String packageName() {
+    int slash = name.lastIndexOf('/');
+    return slash == -1 ? "" : name.substring(0, slash);
+  }
+}
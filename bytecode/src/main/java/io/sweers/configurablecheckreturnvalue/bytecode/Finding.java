@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.bytecode;
+
+import java.util.Objects;
+
+/** An ignored return value found in a class file. */
+public final class Finding implements Comparable<Finding> {
+
+  /** Internal name of the class containing the call, e.g. {@code com/example/Foo}. */
+  public final String className;
+  /** The {@code SourceFile} attribute of that class, or {@code null} if it was compiled without. */
+  public final String sourceFile;
+  /** Name of the method containing the call. */
+  public final String callerName;
+  /** Source line of the call, or 0 if the class has no line numbers. */
+  public final int line;
+  /** Internal name of the type the method was invoked on. */
+  public final String ownerName;
+  /** Name of the invoked method. */
+  public final String methodName;
+  /** Descriptor of the invoked method. */
+  public final String methodDescriptor;
+
+  Finding(String className, String sourceFile, String callerName, int line, String ownerName,
+      String methodName, String methodDescriptor) {
+    this.className = className;
+    this.sourceFile = sourceFile;
+    this.callerName = callerName;
+    this.line = line;
+    this.ownerName = ownerName;
+    this.methodName = methodName;
+    this.methodDescriptor = methodDescriptor;
+  }
+
+  /** The source path of the call as javac would report it, e.g. {@code com/example/Foo.java}. */
+  public String sourcePath() {
+    String file = sourceFile != null ? sourceFile : className + ".class";
+    int slash = className.lastIndexOf('/');
+    return slash == -1 || sourceFile == null ? file : className.substring(0, slash + 1) + file;
+  }
+
+  @Override public int compareTo(Finding other) {
+    int result = className.compareTo(other.className);
+    if (result == 0) {
+      result = Integer.compare(line, other.line);
+    }
+    if (result == 0) {
+      result = callerName.compareTo(other.callerName);
+    }
+    if (result == 0) {
+      result = (ownerName + methodName + methodDescriptor)
+          .compareTo(other.ownerName + other.methodName + other.methodDescriptor);
+    }
+    return result;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Finding)) {
+      return false;
+    }
+    Finding finding = (Finding) o;
+    return line == finding.line
+        && className.equals(finding.className)
+        && Objects.equals(sourceFile, finding.sourceFile)
+        && callerName.equals(finding.callerName)
+        && ownerName.equals(finding.ownerName)
+        && methodName.equals(finding.methodName)
+        && methodDescriptor.equals(finding.methodDescriptor);
+  }
+
+  @Override public int hashCode() {
+    return Objects.hash(className, sourceFile, callerName, line, ownerName, methodName,
+        methodDescriptor);
+  }
+
+  @Override public String toString() {
+    String owner = ownerName.substring(ownerName.lastIndexOf('/') + 1).replace('$', '.');
+    return sourcePath() + ":" + line + ": Ignored return value of `" + owner + "." + methodName
+        + "` in " + className.replace('/', '.') + "." + callerName;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.bytecode;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the class files of a jar through a memory-mapped view of the archive.
+ *
+ * <p>The central directory is walked in place and each entry is inflated straight from the
+ * mapping, so the archive is never copied onto the heap as a whole and no {@code ZipFile} native
+ * state or per-entry streams are created. ZIP64 archives and archives of 2GB or more are not
+ * supported.
+ */
+final class MappedJar {
+
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int CENTRAL_SIGNATURE = 0x02014b50;
+  private static final int LOCAL_SIGNATURE = 0x04034b50;
+  private static final int END_SIZE = 22;
+  private static final int MAX_COMMENT = 0xFFFF;
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+
+  /** Receives the name and contents of each class file. */
+  interface ClassConsumer {
+    void accept(String name, byte[] contents);
+  }
+
+  private MappedJar() {
+  }
+
+  /** Calls {@code consumer} with every class file in {@code jar}, skipping {@code META-INF/}. */
+  static void forEachClass(Path jar, ClassConsumer consumer) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+      if (channel.size() >= Integer.MAX_VALUE) {
+        throw new IOException("Archives of 2GB or more are not supported: " + jar);
+      }
+      // The mapping stays valid after the channel is closed.
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    int end = findEnd(buffer, jar);
+    int entries = buffer.getShort(end + 10) & 0xFFFF;
+    long directoryOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+    if (entries == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+      throw new IOException("ZIP64 archives are not supported: " + jar);
+    }
+
+    Inflater inflater = new Inflater(true);
+    try {
+      int position = (int) directoryOffset;
+      for (int i = 0; i < entries; i++) {
+        if (buffer.getInt(position) != CENTRAL_SIGNATURE) {
+          throw new IOException("Corrupt central directory in " + jar);
+        }
+        int method = buffer.getShort(position + 10) & 0xFFFF;
+        int compressedSize = buffer.getInt(position + 20);
+        int size = buffer.getInt(position + 24);
+        int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+        int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+        int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+        int localOffset = buffer.getInt(position + 42);
+        String name = string(buffer, position + 46, nameLength);
+        position += 46 + nameLength + extraLength + commentLength;
+
+        if (!name.endsWith(".class") || name.startsWith("META-INF/")) {
+          continue;
+        }
+        if (buffer.getInt(localOffset) != LOCAL_SIGNATURE) {
+          throw new IOException("Corrupt entry " + name + " in " + jar);
+        }
+        int data = localOffset + 30
+            + (buffer.getShort(localOffset + 26) & 0xFFFF)
+            + (buffer.getShort(localOffset + 28) & 0xFFFF);
+        byte[] compressed = new byte[compressedSize];
+        position(buffer, data).get(compressed);
+        if (method == STORED) {
+          consumer.accept(name, compressed);
+        } else if (method == DEFLATED) {
+          consumer.accept(name, inflate(inflater, compressed, size, name, jar));
+        } else {
+          throw new IOException("Unsupported compression method " + method + " for " + name
+              + " in " + jar);
+        }
+      }
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static int findEnd(MappedByteBuffer buffer, Path jar) throws IOException {
+    int limit = Math.max(0, buffer.limit() - END_SIZE - MAX_COMMENT);
+    for (int position = buffer.limit() - END_SIZE; position >= limit; position--) {
+      if (buffer.getInt(position) == END_SIGNATURE) {
+        return position;
+      }
+    }
+    throw new IOException("Not a zip archive: " + jar);
+  }
+
+  private static byte[] inflate(Inflater inflater, byte[] compressed, int size, String name,
+      Path jar) throws IOException {
+    inflater.reset();
+    inflater.setInput(compressed);
+    byte[] contents = new byte[size];
+    try {
+      int read = 0;
+      while (read < size && !inflater.finished()) {
+        int n = inflater.inflate(contents, read, size - read);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        read += n;
+      }
+      if (read != size) {
+        throw new IOException("Truncated entry " + name + " in " + jar);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt entry " + name + " in " + jar, e);
+    }
+    return contents;
+  }
+
+  /** Java 8 has no absolute bulk get, and Java 9+ overrides {@code position} covariantly. */
+  private static MappedByteBuffer position(MappedByteBuffer buffer, int position) {
+    ((Buffer) buffer).position(position);
+    return buffer;
+  }
+
+  private static String string(MappedByteBuffer buffer, int position, int length) {
+    byte[] bytes = new byte[length];
+    position(buffer, position).get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.bytecode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class BytecodeScannerTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test public void methodAnnotation() throws IOException {
+    Path classes = compile(
+        source("lib/CheckReturnValue.java",
+            "package lib;",
+            "import java.lang.annotation.*;",
+            "@Retention(RetentionPolicy.CLASS)",
+            "public @interface CheckReturnValue {}"),
+        source("lib/Lib.java",
+            "package lib;",
+            "public class Lib {",
+            "  @CheckReturnValue public static int checked() { return 1; }",
+            "  @CheckReturnValue public static long checkedWide() { return 1; }",
+            "  public static int unchecked() { return 1; }",
+            "  @CheckReturnValue public static void voidMethod() {}",
+            "}"),
+        source("app/App.java",
+            "package app;",
+            "import lib.Lib;",
+            "public class App {",
+            "  int m() {",
+            "    Lib.checked();",
+            "    Lib.checkedWide();",
+            "    Lib.unchecked();",
+            "    Lib.voidMethod();",
+            "    int kept = Lib.checked();",
+            "    return Lib.checked() + kept;",
+            "  }",
+            "}"));
+
+    List<Finding> findings = scan(classes);
+    assertThat(describe(findings)).containsExactly(
+        "app/App.java:5: Ignored return value of `Lib.checked` in app.App.m",
+        "app/App.java:6: Ignored return value of `Lib.checkedWide` in app.App.m").inOrder();
+  }
+
+  @Test public void classAndPackageDefaults() throws IOException {
+    Path classes = compile(
+        source("lib/CheckReturnValue.java",
+            "package lib;",
+            "public @interface CheckReturnValue {}"),
+        source("lib/CanIgnoreReturnValue.java",
+            "package lib;",
+            "public @interface CanIgnoreReturnValue {}"),
+        source("checked/package-info.java",
+            "@lib.CheckReturnValue",
+            "package checked;"),
+        source("checked/PackageChecked.java",
+            "package checked;",
+            "public class PackageChecked {",
+            "  public int value() { return 1; }",
+            "  @lib.CanIgnoreReturnValue public int ignorable() { return 1; }",
+            "}"),
+        source("lib/ClassChecked.java",
+            "package lib;",
+            "@CheckReturnValue",
+            "public class ClassChecked {",
+            "  public int value() { return 1; }",
+            "  public static class Nested {",
+            "    public int value() { return 1; }",
+            "  }",
+            "  @CanIgnoreReturnValue",
+            "  public static class Builder {",
+            "    public Builder set() { return this; }",
+            "  }",
+            "}"),
+        source("lib/Sub.java",
+            "package lib;",
+            "public class Sub extends ClassChecked {}"),
+        source("app/App.java",
+            "package app;",
+            "import checked.PackageChecked;",
+            "import lib.ClassChecked;",
+            "import lib.Sub;",
+            "public class App {",
+            "  void m(PackageChecked p, ClassChecked c, ClassChecked.Nested n,",
+            "      ClassChecked.Builder b, Sub s) {",
+            "    p.value();",
+            "    p.ignorable();",
+            "    c.value();",
+            "    n.value();",
+            "    b.set();",
+            "    s.value();",
+            "  }",
+            "}"));
+
+    assertThat(describe(scan(classes))).containsExactly(
+        "app/App.java:8: Ignored return value of `PackageChecked.value` in app.App.m",
+        "app/App.java:10: Ignored return value of `ClassChecked.value` in app.App.m",
+        "app/App.java:11: Ignored return value of `ClassChecked.Nested.value` in app.App.m",
+        "app/App.java:13: Ignored return value of `Sub.value` in app.App.m").inOrder();
+  }
+
+  @Test public void jarsAndDirectories() throws IOException {
+    Path lib = compile(
+        source("lib/Lib.java",
+            "package lib;",
+            "public class Lib {",
+            "  @javax.annotation.CheckReturnValue public static int checked() { return 1; }",
+            "}"),
+        source("javax/annotation/CheckReturnValue.java",
+            "package javax.annotation;",
+            "public @interface CheckReturnValue {}"));
+    Path app = compile(lib,
+        source("app/App.java",
+            "package app;",
+            "public class App {",
+            "  void m() {",
+            "    lib.Lib.checked();",
+            "  }",
+            "}"));
+    Path deflated = jar(lib, "lib.jar", ZipEntry.DEFLATED);
+    Path stored = jar(app, "app.jar", ZipEntry.STORED);
+
+    List<String> expected = Collections.singletonList(
+        "app/App.java:4: Ignored return value of `Lib.checked` in app.App.m");
+    assertThat(describe(scan(deflated, stored))).isEqualTo(expected);
+    assertThat(describe(scan(stored, lib))).isEqualTo(expected);
+  }
+
+  @Test public void customAnnotations() throws IOException {
+    Path classes = compile(
+        source("lib/MustUse.java",
+            "package lib;",
+            "public @interface MustUse {}"),
+        source("lib/Lib.java",
+            "package lib;",
+            "public class Lib {",
+            "  @MustUse public static int checked() { return 1; }",
+            "}"),
+        source("app/App.java",
+            "package app;",
+            "public class App {",
+            "  void m() {",
+            "    lib.Lib.checked();",
+            "  }",
+            "}"));
+
+    assertThat(scan(classes)).isEmpty();
+    assertThat(describe(new BytecodeScanner(Collections.singleton("lib.MustUse"))
+        .scan(Collections.singletonList(classes)))).containsExactly(
+        "app/App.java:4: Ignored return value of `Lib.checked` in app.App.m");
+  }
+
+  private List<Finding> scan(Path... inputs) throws IOException {
+    return new BytecodeScanner(BytecodeScanner.DEFAULT_ANNOTATIONS).scan(Arrays.asList(inputs));
+  }
+
+  private static List<String> describe(List<Finding> findings) {
+    return findings.stream().map(Finding::toString).collect(Collectors.toList());
+  }
+
+  private static String[] source(String path, String... lines) {
+    String[] source = new String[lines.length + 1];
+    source[0] = path;
+    System.arraycopy(lines, 0, source, 1, lines.length);
+    return source;
+  }
+
+  private Path compile(String[]... sources) throws IOException {
+    return compile(null, sources);
+  }
+
+  /** Compiles {@code sources} (path followed by lines) and returns the output directory. */
+  private Path compile(Path classpath, String[]... sources) throws IOException {
+    Path sourceDir = tmpFolder.newFolder().toPath();
+    Path outputDir = tmpFolder.newFolder().toPath();
+    List<String> args = new ArrayList<>(Arrays.asList("-d", outputDir.toString()));
+    if (classpath != null) {
+      args.add("-cp");
+      args.add(classpath.toString());
+    }
+    for (String[] source : sources) {
+      Path file = sourceDir.resolve(source[0]);
+      Files.createDirectories(file.getParent());
+      Files.write(file, Arrays.asList(source).subList(1, source.length),
+          StandardCharsets.UTF_8);
+      args.add(file.toString());
+    }
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertThat(compiler.run(null, null, null, args.toArray(new String[0]))).isEqualTo(0);
+    return outputDir;
+  }
+
+  private Path jar(Path classes, String name, int method) throws IOException {
+    File jar = new File(tmpFolder.getRoot(), name);
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()));
+         Stream<Path> files = Files.walk(classes)) {
+      for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+        byte[] contents = Files.readAllBytes(file);
+        ZipEntry entry = new ZipEntry(classes.relativize(file).toString().replace('\\', '/'));
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+          CRC32 crc = new CRC32();
+          crc.update(contents);
+          entry.setSize(contents.length);
+          entry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(contents);
+        out.closeEntry();
+      }
+    }
+    return jar.toPath();
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.cli;
+
+import com.sun.tools.javac.api.JavacTaskImpl;
+import com.sun.tools.javac.api.JavacTool;
+import io.sweers.configurablecheckreturnvalue.errorprone.ConfigurableCheckReturnValuePlugin;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Runs {@code ConfigurableCheckReturnValue} over source trees as a standalone step, without
+ * hooking it into each module's compilation.
+ *
+ * <p>The source files under the roots are sorted and, with {@code --shard i/n}, cut into {@code n}
+ * contiguous shards of which only the {@code i}-th (1-based) is analyzed, so CI agents can split
+ * the work and concatenate their reports. A shard is split again into one contiguous chunk per
+ * thread, and every chunk is attributed by its own {@code JavacTask} running the javac plugin.
+ * The classpath is listed once into a {@link ClasspathIndex} shared by all tasks; the source roots
+ * are each task's source path, so files of other chunks resolve from source. A task only attributes
+ * its own chunk: a file it reads from the source path is parsed and its declarations entered, which
+ * costs a parse per chunk that uses it, but its method bodies are left to the chunk it belongs to.
+ * Findings are merged and sorted by location, so the report does not depend on the thread count.
+ *
+ * <p>{@code ./gradlew :cli:installDist} builds a distribution with a start script, or put the
+ * cli, error-prone and core jars on the class path:
+ *
+ * <pre>{@code
+ * cli/build/install/cli/bin/cli [--classpath a.jar:b] [--custom-annotations a,b]
+ *     [--exclude-annotations c] [--rule-packs streams,io] [--shard 1/4] [--threads 8]
+ *     <source root>...
+ * java -cp cli.jar:error-prone.jar:core.jar io.sweers.configurablecheckreturnvalue.cli.Analyzer
+ *     [--classpath a.jar:b] ... <source root>...
+ * }</pre>
+ */
+public final class Analyzer {
+
+  private static final String PREFIX = "[ConfigurableCheckReturnValue] ";
+
+  private final List<Path> sourceRoots;
+  private final List<Path> classpath;
+  private final List<String> options;
+  private final int parallelism;
+
+  /**
+   * @param options plugin options in its {@code key=value} form, e.g.
+   *     {@code CustomAnnotations=a.b.CheckResult,CheckReturnValue}.
+   */
+  public Analyzer(List<Path> sourceRoots, List<Path> classpath, List<String> options,
+      int parallelism) {
+    this.sourceRoots = sourceRoots;
+    this.classpath = classpath;
+    this.options = options;
+    this.parallelism = parallelism;
+  }
+
+  public static void main(String[] args) throws IOException {
+    List<Path> roots = new ArrayList<>();
+    List<Path> classpath = new ArrayList<>();
+    List<String> options = new ArrayList<>();
+    int shard = 1;
+    int shards = 1;
+    int threads = Runtime.getRuntime().availableProcessors();
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      boolean hasValue = i + 1 < args.length;
+      if ((arg.equals("--classpath") || arg.equals("-cp")) && hasValue) {
+        for (String entry : args[++i].split(File.pathSeparator)) {
+          if (!entry.isEmpty()) {
+            classpath.add(Paths.get(entry));
+          }
+        }
+      } else if (arg.equals("--custom-annotations") && hasValue) {
+        options.add("CustomAnnotations=" + args[++i]);
+      } else if (arg.equals("--exclude-annotations") && hasValue) {
+        options.add("ExcludeAnnotations=" + args[++i]);
+      } else if (arg.equals("--rule-packs") && hasValue) {
+        options.add("RulePacks=" + args[++i]);
+      } else if (arg.equals("--shard") && hasValue) {
+        String[] parts = args[++i].split("/");
+        shard = parts.length == 2 ? parseInt(parts[0]) : -1;
+        shards = parts.length == 2 ? parseInt(parts[1]) : -1;
+      } else if (arg.equals("--threads") && hasValue) {
+        threads = parseInt(args[++i]);
+      } else {
+        roots.add(Paths.get(arg));
+      }
+    }
+    if (roots.isEmpty() || shards < 1 || shard < 1 || shard > shards || threads < 1) {
+      System.err.println("Usage: Analyzer [--classpath <path>] [--custom-annotations <a,b>]"
+          + " [--exclude-annotations <a,b>] [--rule-packs <a,b>] [--shard <i/n>]"
+          + " [--threads <n>] <source root>...");
+      System.exit(1);
+    }
+
+    Analyzer analyzer = new Analyzer(roots, classpath, options, threads);
+    List<Finding> findings;
+    try {
+      findings = analyzer.analyze(shard(sourceFiles(roots), shard, shards));
+    } catch (CompilationException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+      return;
+    }
+    for (Finding finding : findings) {
+      System.out.println(finding);
+    }
+    System.exit(findings.isEmpty() ? 0 : 2);
+  }
+
+  private static int parseInt(String value) {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /** The {@code .java} files under {@code roots}, in a stable order. */
+  public static List<Path> sourceFiles(List<Path> roots) throws IOException {
+    List<Path> files = new ArrayList<>();
+    for (Path root : roots) {
+      try (Stream<Path> walk = Files.walk(root)) {
+        files.addAll(walk.filter(f -> f.toString().endsWith(".java") && Files.isRegularFile(f))
+            .collect(Collectors.toList()));
+      }
+    }
+    files.sort((a, b) -> displayPath(a).compareTo(displayPath(b)));
+    return files;
+  }
+
+  /** The {@code index}-th (1-based) of {@code count} contiguous, near-equal parts of a list. */
+  public static <T> List<T> shard(List<T> items, int index, int count) {
+    if (count < 1 || index < 1 || index > count) {
+      throw new IllegalArgumentException("Invalid shard " + index + "/" + count);
+    }
+    int from = (int) ((long) items.size() * (index - 1) / count);
+    int to = (int) ((long) items.size() * index / count);
+    return items.subList(from, to);
+  }
+
+  /**
+   * Analyzes {@code files}, which must be under the source roots, and returns the findings sorted
+   * by location.
+   *
+   * @throws CompilationException if the files do not compile, since their results would be
+   *     incomplete.
+   */
+  public List<Finding> analyze(List<Path> files) throws IOException {
+    if (files.isEmpty()) {
+      return Collections.emptyList();
+    }
+    int chunks = Math.min(parallelism, files.size());
+    List<Chunk> results = new ArrayList<>(chunks);
+    try (ClasspathIndex index = ClasspathIndex.build(classpath)) {
+      ForkJoinPool pool = new ForkJoinPool(chunks);
+      try {
+        List<ForkJoinTask<Chunk>> tasks = new ArrayList<>(chunks);
+        for (int i = 1; i <= chunks; i++) {
+          List<Path> chunk = shard(files, i, chunks);
+          tasks.add(pool.submit(() -> analyzeChunk(chunk, index)));
+        }
+        for (ForkJoinTask<Chunk> task : tasks) {
+          results.add(task.join());
+        }
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      } finally {
+        pool.shutdown();
+      }
+    }
+
+    List<Finding> findings = new ArrayList<>();
+    List<String> errors = new ArrayList<>();
+    for (Chunk result : results) {
+      findings.addAll(result.findings);
+      errors.addAll(result.errors);
+    }
+    if (!errors.isEmpty()) {
+      throw new CompilationException(errors);
+    }
+    Collections.sort(findings);
+    return findings;
+  }
+
+  private Chunk analyzeChunk(List<Path> files, ClasspathIndex index) {
+    Chunk result = new Chunk();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    JavacTool tool = JavacTool.create();
+    try (StandardJavaFileManager fileManager =
+        tool.getStandardFileManager(diagnostics, Locale.ROOT, StandardCharsets.UTF_8)) {
+      fileManager.setLocation(StandardLocation.CLASS_PATH, Collections.emptyList());
+      fileManager.setLocation(StandardLocation.SOURCE_PATH,
+          sourceRoots.stream().map(Path::toFile).collect(Collectors.toList()));
+      Map<URI, String> paths = new HashMap<>();
+      List<File> sources = new ArrayList<>(files.size());
+      for (Path file : files) {
+        Path absolute = file.toAbsolutePath().normalize();
+        paths.put(absolute.toUri(), displayPath(file));
+        sources.add(absolute.toFile());
+      }
+
+      JavacTaskImpl task = (JavacTaskImpl) tool.getTask(null,
+          new IndexedFileManager(fileManager, index), diagnostics,
+          Arrays.asList("-proc:none", "-implicit:none", "-nowarn"), null,
+          fileManager.getJavaFileObjectsFromFiles(sources));
+      new ConfigurableCheckReturnValuePlugin().init(task, options.toArray(new String[0]));
+      // analyze() would also attribute every class read from the source path; with the chunk's own
+      // classes, those are left in javac's queue once their declarations are entered.
+      List<TypeElement> classes = new ArrayList<>();
+      for (Element element : task.enter()) {
+        if (element instanceof TypeElement) {
+          classes.add((TypeElement) element);
+        }
+      }
+      task.analyze(classes);
+
+      for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+        if (diagnostic.getKind() != Diagnostic.Kind.ERROR) {
+          continue;
+        }
+        String message = diagnostic.getMessage(Locale.ROOT);
+        String path = diagnostic.getSource() != null
+            ? paths.get(diagnostic.getSource().toUri())
+            : null;
+        if (message.startsWith(PREFIX) && path != null) {
+          result.findings.add(new Finding(path, diagnostic.getLineNumber(),
+              diagnostic.getColumnNumber(), message.substring(PREFIX.length())));
+        } else if (!message.startsWith(PREFIX)) {
+          result.errors.add(diagnostic.toString());
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return result;
+  }
+
+  private static String displayPath(Path file) {
+    return file.toString().replace(File.separatorChar, '/');
+  }
+
+  /** The findings and compilation errors of one chunk. */
+  private static final class Chunk {
+    final List<Finding> findings = new ArrayList<>();
+    final List<String> errors = new ArrayList<>();
+  }
+
+  /** The analyzed sources did not compile. */
+  public static final class CompilationException extends RuntimeException {
+
+    CompilationException(List<String> errors) {
+      super(String.join("\n", errors));
+    }
+  }
+}
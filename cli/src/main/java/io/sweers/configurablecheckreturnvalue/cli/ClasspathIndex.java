@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.cli;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * The class files of a classpath, listed once and grouped by package.
+ *
+ * <p>Every {@code JavacTask} of an analysis shares one index, so the jars' central directories are
+ * read once instead of once per task. The index is immutable after {@link #build} and jar entries
+ * are read through {@link ZipFile}, which allows concurrent reads, so tasks can use it from any
+ * thread.
+ */
+final class ClasspathIndex implements Closeable {
+
+  private final Map<String, List<JavaFileObject>> packages;
+  private final List<ZipFile> jars;
+
+  private ClasspathIndex(Map<String, List<JavaFileObject>> packages, List<ZipFile> jars) {
+    this.packages = packages;
+    this.jars = jars;
+  }
+
+  /** Indexes the jars and class directories of {@code classpath}, earlier entries first. */
+  static ClasspathIndex build(List<Path> classpath) throws IOException {
+    Map<String, List<JavaFileObject>> packages = new HashMap<>();
+    List<ZipFile> jars = new ArrayList<>();
+    for (Path entry : classpath) {
+      if (Files.isDirectory(entry)) {
+        try (Stream<Path> files = Files.walk(entry)) {
+          for (Path file : files.filter(f -> f.toString().endsWith(".class"))
+              .collect(Collectors.toList())) {
+            String name = entry.relativize(file).toString().replace(File.separatorChar, '/');
+            add(packages, new ClassFile(binaryName(name), file.toUri(), null, null));
+          }
+        }
+      } else if (Files.isRegularFile(entry)) {
+        ZipFile jar = new ZipFile(entry.toFile());
+        jars.add(jar);
+        URI jarUri = entry.toUri();
+        Enumeration<? extends ZipEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+          ZipEntry zipEntry = entries.nextElement();
+          String name = zipEntry.getName();
+          if (name.endsWith(".class") && !name.startsWith("META-INF/")) {
+            add(packages, new ClassFile(binaryName(name),
+                URI.create("jar:" + jarUri + "!/" + name), jar, name));
+          }
+        }
+      }
+      // Missing entries are ignored, like javac does.
+    }
+    return new ClasspathIndex(packages, jars);
+  }
+
+  private static void add(Map<String, List<JavaFileObject>> packages, ClassFile file) {
+    packages.computeIfAbsent(file.packageName(), p -> new ArrayList<>()).add(file);
+  }
+
+  private static String binaryName(String entryName) {
+    return entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+  }
+
+  /** The class files in {@code packageName} and, if {@code recurse}, its subpackages. */
+  List<JavaFileObject> list(String packageName, boolean recurse) {
+    if (!recurse) {
+      return packages.getOrDefault(packageName, Collections.emptyList());
+    }
+    List<JavaFileObject> files = new ArrayList<>();
+    String prefix = packageName.isEmpty() ? "" : packageName + ".";
+    for (Map.Entry<String, List<JavaFileObject>> entry : packages.entrySet()) {
+      if (entry.getKey().equals(packageName) || entry.getKey().startsWith(prefix)) {
+        files.addAll(entry.getValue());
+      }
+    }
+    return files;
+  }
+
+  /** The binary name of {@code file} if it came from this index, else {@code null}. */
+  static String binaryName(JavaFileObject file) {
+    return file instanceof ClassFile ? ((ClassFile) file).binaryName : null;
+  }
+
+  @Override public void close() throws IOException {
+    for (ZipFile jar : jars) {
+      jar.close();
+    }
+  }
+
+  private static final class ClassFile extends SimpleJavaFileObject {
+
+    final String binaryName;
+    private final URI uri;
+    private final ZipFile jar;
+    private final String entryName;
+
+    ClassFile(String binaryName, URI uri, ZipFile jar, String entryName) {
+      // jar: URIs are opaque, which SimpleJavaFileObject rejects, so it only sees the entry name.
+      super(URI.create(binaryName.replace('.', '/') + ".class"), Kind.CLASS);
+      this.binaryName = binaryName;
+      this.uri = uri;
+      this.jar = jar;
+      this.entryName = entryName;
+    }
+
+    @Override public URI toUri() {
+      return uri;
+    }
+
+    String packageName() {
+      int dot = binaryName.lastIndexOf('.');
+      return dot == -1 ? "" : binaryName.substring(0, dot);
+    }
+
+    @Override public String getName() {
+      return uri.toString();
+    }
+
+    @Override public InputStream openInputStream() throws IOException {
+      if (jar == null) {
+        return Files.newInputStream(Paths.get(uri));
+      }
+      return jar.getInputStream(jar.getEntry(entryName));
+    }
+
+    @Override public boolean isNameCompatible(String simpleName, Kind kind) {
+      return kind == Kind.CLASS
+          && binaryName.substring(binaryName.lastIndexOf('.') + 1).equals(simpleName);
+    }
+
+    @Override public NestingKind getNestingKind() {
+      return null;
+    }
+
+    @Override public Modifier getAccessLevel() {
+      return null;
+    }
+  }
+}
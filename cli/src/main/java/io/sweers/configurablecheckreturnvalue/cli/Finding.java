@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.cli;
+
+import java.util.Objects;
+
+/** An ignored return value reported by the analyzer. */
+public final class Finding implements Comparable<Finding> {
+
+  /** The source file, as found under its source root. */
+  public final String path;
+  /** 1-based line of the call. */
+  public final long line;
+  /** 1-based column of the call. */
+  public final long column;
+  /** The check's message, without the check name prefix. */
+  public final String message;
+
+  Finding(String path, long line, long column, String message) {
+    this.path = path;
+    this.line = line;
+    this.column = column;
+    this.message = message;
+  }
+
+  @Override public int compareTo(Finding other) {
+    int result = path.compareTo(other.path);
+    if (result == 0) {
+      result = Long.compare(line, other.line);
+    }
+    if (result == 0) {
+      result = Long.compare(column, other.column);
+    }
+    if (result == 0) {
+      result = message.compareTo(other.message);
+    }
+    return result;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Finding)) {
+      return false;
+    }
+    Finding finding = (Finding) o;
+    return line == finding.line
+        && column == finding.column
+        && path.equals(finding.path)
+        && message.equals(finding.message);
+  }
+
+  @Override public int hashCode() {
+    return Objects.hash(path, line, column, message);
+  }
+
+  @Override public String toString() {
+    return path + ":" + line + ":" + column + ": " + message;
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.cli;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Serves the class path of one {@code JavacTask} from a shared {@link ClasspathIndex}, everything
+ * else from the task's own file manager.
+ */
+final class IndexedFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+  private final ClasspathIndex index;
+
+  IndexedFileManager(StandardJavaFileManager fileManager, ClasspathIndex index) {
+    super(fileManager);
+    this.index = index;
+  }
+
+  @Override public Iterable<JavaFileObject> list(Location location, String packageName,
+      Set<Kind> kinds, boolean recurse) throws IOException {
+    if (location != StandardLocation.CLASS_PATH) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+    if (!kinds.contains(Kind.CLASS)) {
+      return Collections.emptyList();
+    }
+    return index.list(packageName, recurse);
+  }
+
+  @Override public String inferBinaryName(Location location, JavaFileObject file) {
+    String binaryName = ClasspathIndex.binaryName(file);
+    return binaryName != null ? binaryName : super.inferBinaryName(location, file);
+  }
+
+  @Override public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof JavaFileObject && ClasspathIndex.binaryName((JavaFileObject) a) != null
+        || b instanceof JavaFileObject && ClasspathIndex.binaryName((JavaFileObject) b) != null) {
+      return a.equals(b);
+    }
+    return super.isSameFile(a, b);
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class AnalyzerTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private Path lib;
+  private Path sources;
+
+  @Before public void setUp() throws IOException {
+    lib = jar(compile(
+        source("lib/CheckReturnValue.java",
+            "package lib;",
+            "public @interface CheckReturnValue {}"),
+        source("lib/Lib.java",
+            "package lib;",
+            "public class Lib {",
+            "  @CheckReturnValue public static int checked() { return 1; }",
+            "  public static int unchecked() { return 1; }",
+            "}")));
+    sources = tmpFolder.newFolder("src").toPath();
+    for (int i = 0; i < 7; i++) {
+      write(sources, "app/App" + i + ".java",
+          "package app;",
+          "public class App" + i + " {",
+          "  void m() {",
+          "    lib.Lib.checked();",
+          "    lib.Lib.unchecked();",
+          "    new other.Other().own();",
+          "  }",
+          "}");
+    }
+    write(sources, "other/Other.java",
+        "package other;",
+        "public class Other {",
+        "  @lib.CheckReturnValue public int own() { return app.App0.class.hashCode(); }",
+        "}");
+  }
+
+  @Test public void findings() throws IOException {
+    List<String> findings = describe(analyze(4, 1, 1));
+    assertThat(findings).hasSize(14);
+    assertThat(findings.subList(0, 2)).containsExactly(
+        "app/App0.java:4:20: Ignored return value of method that is annotated with"
+            + " @CheckReturnValue or specified alternatives",
+        "app/App0.java:6:26: Ignored return value of method that is annotated with"
+            + " @CheckReturnValue or specified alternatives").inOrder();
+  }
+
+  @Test public void sameReportForAnyThreadCount() throws IOException {
+    List<String> expected = describe(analyze(1, 1, 1));
+    assertThat(describe(analyze(3, 1, 1))).containsExactlyElementsIn(expected).inOrder();
+    assertThat(describe(analyze(16, 1, 1))).containsExactlyElementsIn(expected).inOrder();
+  }
+
+  @Test public void shardsConcatenateToFullReport() throws IOException {
+    List<String> expected = describe(analyze(2, 1, 1));
+    List<String> sharded = new ArrayList<>();
+    for (int shard = 1; shard <= 3; shard++) {
+      sharded.addAll(describe(analyze(2, shard, 3)));
+    }
+    assertThat(sharded).containsExactlyElementsIn(expected).inOrder();
+  }
+
+  @Test public void customAnnotations() throws IOException {
+    Analyzer analyzer = new Analyzer(Collections.singletonList(sources),
+        Collections.singletonList(lib),
+        Collections.singletonList("CustomAnnotations=some.Other"), 2);
+    assertThat(analyzer.analyze(Analyzer.sourceFiles(Collections.singletonList(sources))))
+        .isEmpty();
+  }
+
+  /** Error Prone is not on this module's runtime class path, so the plugin must not need it. */
+  @Test public void voidMethod() throws IOException {
+    write(sources, "app/VoidMethod.java",
+        "package app;",
+        "public class VoidMethod {",
+        "  @lib.CheckReturnValue void g() {}",
+        "}");
+    assertThat(describe(analyze(2, 1, 1))).contains(
+        "app/VoidMethod.java:3:30: @CheckReturnValue may not be applied to void-returning methods");
+  }
+
+  @Test public void otherChunksAreOnlyEntered() throws IOException {
+    write(sources, "other/Other.java",
+        "package other;",
+        "public class Other {",
+        "  @lib.CheckReturnValue public int own() { Missing missing = null; return 1; }",
+        "}");
+    // The first shard only reads Other for its declarations, the second one attributes it.
+    assertThat(describe(analyze(1, 1, 2))).hasSize(8);
+    try {
+      analyze(1, 2, 2);
+      fail();
+    } catch (Analyzer.CompilationException expected) {
+      assertThat(expected).hasMessageThat().contains("Missing");
+    }
+  }
+
+  @Test public void shard() {
+    List<Integer> items = Arrays.asList(1, 2, 3, 4, 5, 6, 7);
+    assertThat(Analyzer.shard(items, 1, 3)).containsExactly(1, 2).inOrder();
+    assertThat(Analyzer.shard(items, 2, 3)).containsExactly(3, 4).inOrder();
+    assertThat(Analyzer.shard(items, 3, 3)).containsExactly(5, 6, 7).inOrder();
+    assertThat(Analyzer.shard(items.subList(0, 1), 1, 2)).isEmpty();
+    try {
+      Analyzer.shard(items, 4, 3);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void compilationErrors() throws IOException {
+    write(sources, "broken/Broken.java",
+        "package broken;",
+        "public class Broken { Missing missing; }");
+    try {
+      analyze(2, 1, 1);
+      fail();
+    } catch (Analyzer.CompilationException expected) {
+      assertThat(expected).hasMessageThat().contains("Missing");
+    }
+  }
+
+  private List<Finding> analyze(int threads, int shard, int shards) throws IOException {
+    List<Path> roots = Collections.singletonList(sources);
+    Analyzer analyzer =
+        new Analyzer(roots, Collections.singletonList(lib), Collections.emptyList(), threads);
+    return analyzer.analyze(Analyzer.shard(Analyzer.sourceFiles(roots), shard, shards));
+  }
+
+  /** Findings with paths relative to the source root. */
+  private List<String> describe(List<Finding> findings) {
+    String root = sources.toString().replace(File.separatorChar, '/') + "/";
+    return findings.stream()
+        .map(finding -> finding.toString().substring(root.length()))
+        .collect(Collectors.toList());
+  }
+
+  private static String[] source(String path, String... lines) {
+    String[] source = new String[lines.length + 1];
+    source[0] = path;
+    System.arraycopy(lines, 0, source, 1, lines.length);
+    return source;
+  }
+
+  private static void write(Path root, String path, String... lines) throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+  }
+
+  /** Compiles {@code sources} (path followed by lines) and returns the output directory. */
+  private Path compile(String[]... sources) throws IOException {
+    Path sourceDir = tmpFolder.newFolder().toPath();
+    Path outputDir = tmpFolder.newFolder().toPath();
+    List<String> args = new ArrayList<>(Arrays.asList("-d", outputDir.toString()));
+    for (String[] source : sources) {
+      write(sourceDir, source[0], Arrays.copyOfRange(source, 1, source.length));
+      args.add(sourceDir.resolve(source[0]).toString());
+    }
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertThat(compiler.run(null, null, null, args.toArray(new String[0]))).isEqualTo(0);
+    return outputDir;
+  }
+
+  private Path jar(Path classes) throws IOException {
+    File jar = new File(tmpFolder.getRoot(), "lib.jar");
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()));
+         Stream<Path> files = Files.walk(classes)) {
+      for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+        out.putNextEntry(
+            new ZipEntry(classes.relativize(file).toString().replace('\\', '/')));
+        out.write(Files.readAllBytes(file));
+        out.closeEntry();
+      }
+    }
+    return jar.toPath();
+  }
+}
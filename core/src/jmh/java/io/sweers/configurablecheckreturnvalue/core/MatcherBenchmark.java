@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The precompiled matchers against the linear scans they replaced, over a typical mix of
+ * annotation names (mostly unrelated, some configured) and signature lookups.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class MatcherBenchmark {
+
+  /** Number of configured annotations, half qualified and half simple names. */
+  @Param({"2", "8", "32"})
+  public int annotationCount;
+
+  private List<String> annotations;
+  private AnnotationMatcher annotationMatcher;
+  private SignatureMatcher signatureMatcher;
+  private String[] annotationNames;
+  private String[][] methods;
+
+  @Setup public void setUp() {
+    annotations = new ArrayList<>(annotationCount);
+    for (int i = 0; i < annotationCount; i++) {
+      annotations.add(i % 2 == 0 ? "com.example.p" + i + ".CheckResult" + i : "MustUse" + i);
+    }
+    annotationMatcher = new AnnotationMatcher(annotations);
+    annotationNames = new String[] {
+        "javax.annotation.Nullable",
+        "java.lang.Override",
+        "com.example.p0.CheckResult0",
+        "org.jetbrains.annotations.NotNull",
+        "com.example.other.MustUse1",
+        "java.lang.Deprecated",
+        "com.example.p0.NotConfigured",
+        "androidx.annotation.MainThread"
+    };
+
+    List<String> signatures = new ArrayList<>();
+    for (int owner = 0; owner < 64; owner++) {
+      for (int method = 0; method < 8; method++) {
+        signatures.add("com.example.Owner" + owner + "#method" + method);
+      }
+    }
+    signatureMatcher = new SignatureMatcher(signatures);
+    methods = new String[][] {
+        {"com.example.Owner3", "method5"},
+        {"com.example.Owner60", "other"},
+        {"com.example.NotListed", "method1"},
+        {"com.example.Owner17", "method0"}
+    };
+  }
+
+  @Benchmark public void annotationMatcher(Blackhole blackhole) {
+    for (String name : annotationNames) {
+      blackhole.consume(annotationMatcher.matches(name));
+    }
+  }
+
+  /** The previous approach: compare each annotation with every configured name. */
+  @Benchmark public void annotationLinearScan(Blackhole blackhole) {
+    for (String name : annotationNames) {
+      boolean match = false;
+      String simpleName = name.substring(name.lastIndexOf('.') + 1);
+      for (String annotation : annotations) {
+        if (annotation.contains(".") ? annotation.equals(name) : annotation.equals(simpleName)) {
+          match = true;
+          break;
+        }
+      }
+      blackhole.consume(match);
+    }
+  }
+
+  @Benchmark public void signatureMatcher(Blackhole blackhole) {
+    for (String[] method : methods) {
+      blackhole.consume(signatureMatcher.matches(method[0], method[1], ""));
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.core;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Matches annotation names against a configured set, where entries with a dot are qualified names
+ * and entries without one match any annotation with that simple name.
+ *
+ * <p>The set is split into two hash maps up front, so matching an annotation costs at most two
+ * lookups however many annotations are configured, instead of a comparison with each of them.
+ * Instances are immutable and safe to share between threads.
+ */
+public final class AnnotationMatcher {
+
+  private final Map<String, String> qualifiedNames = new HashMap<>();
+  private final Map<String, String> simpleNames = new HashMap<>();
+
+  public AnnotationMatcher(Collection<String> annotations) {
+    for (String annotation : annotations) {
+      // The first entry wins, as a linear scan in configuration order would.
+      (annotation.contains(".") ? qualifiedNames : simpleNames)
+          .putIfAbsent(annotation, annotation);
+    }
+  }
+
+  /**
+   * Returns the configured entry matching the annotation type {@code qualifiedName} (its canonical
+   * name, e.g. {@code a.Outer.Inner}), or {@code null}. A qualified entry wins over a simple one.
+   */
+  public String match(String qualifiedName) {
+    String match = qualifiedNames.get(qualifiedName);
+    return match != null ? match : simpleNames.get(simpleName(qualifiedName));
+  }
+
+  /** Whether the annotation type {@code qualifiedName} is configured. */
+  public boolean matches(String qualifiedName) {
+    return match(qualifiedName) != null;
+  }
+
+  /**
+   * The verdict of a set of annotations on one element: {@code FALSE} if any is a
+   * {@code CanIgnoreReturnValue}, else {@code TRUE} if any is configured, else {@code null}.
+   */
+  public Boolean verdict(Iterable<String> qualifiedNames) {
+    boolean check = false;
+    for (String qualifiedName : qualifiedNames) {
+      if (isCanIgnoreReturnValue(qualifiedName)) {
+        return Boolean.FALSE;
+      }
+      check |= matches(qualifiedName);
+    }
+    return check ? Boolean.TRUE : null;
+  }
+
+  /** Whether {@code qualifiedName} is any annotation named {@code CanIgnoreReturnValue}. */
+  public static boolean isCanIgnoreReturnValue(String qualifiedName) {
+    return simpleName(qualifiedName).equals(CheckReturnValueConfig.CAN_IGNORE_RETURN_VALUE);
+  }
+
+  static String simpleName(String qualifiedName) {
+    return qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
+  }
+}
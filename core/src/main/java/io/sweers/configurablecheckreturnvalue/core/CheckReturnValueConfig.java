@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The configuration shared by every front end: which annotations mark a method whose return value
+ * must be checked, and which rule packs are enabled.
+ *
+ * <p>Error Prone and the javac plugin read it from their options ({@link #fromOptions}), lint from
+ * its properties files ({@link #fromProperties}); both resolve to the same defaults and the same
+ * {@link AnnotationMatcher}.
+ */
+public final class CheckReturnValueConfig {
+
+  /** Simple name of the annotations that exempt a method, class or package. */
+  public static final String CAN_IGNORE_RETURN_VALUE = "CanIgnoreReturnValue";
+
+  /** Used when no custom annotations are configured. */
+  public static final Set<String> DEFAULT_ANNOTATIONS = Collections.unmodifiableSet(
+      new LinkedHashSet<>(Arrays.asList(
+          "CheckReturnValue",
+          "androidx.annotation.CheckResult",
+          "com.support.annotation.CheckResult",
+          "edu.umd.cs.findbugs.annotations.CheckReturnValue",
+          "javax.annotation.CheckReturnValue",
+          "io.reactivex.annotations.CheckReturnValue",
+          "com.google.errorprone.annotations.CheckReturnValue")));
+
+  public static final String CUSTOM_ANNOTATIONS = "CustomAnnotations";
+  public static final String EXCLUDE_ANNOTATIONS = "ExcludeAnnotations";
+  public static final String RULE_PACKS = "RulePacks";
+
+  /** Prefix of the property keys, e.g. {@code configurableCheckReturnValue.customAnnotations}. */
+  public static final String PROPERTY_PREFIX = "configurableCheckReturnValue.";
+  /** Separator of list values in properties files. */
+  public static final String PROPERTY_LIST_SEPARATOR = ":";
+
+  /** List-valued options, keyed as the Error Prone flags are. */
+  public interface Options {
+    /** Returns the list set for {@code key}, or {@code null} if it is not set. */
+    List<String> getList(String key);
+  }
+
+  private final Set<String> annotations;
+  private final List<String> rulePacks;
+  private final AnnotationMatcher matcher;
+
+  private CheckReturnValueConfig(Set<String> annotations, List<String> rulePacks) {
+    this.annotations = Collections.unmodifiableSet(annotations);
+    this.rulePacks = Collections.unmodifiableList(rulePacks);
+    this.matcher = new AnnotationMatcher(annotations);
+  }
+
+  /**
+   * Reads {@link #CUSTOM_ANNOTATIONS}, which replaces the defaults, {@link #EXCLUDE_ANNOTATIONS},
+   * which is removed from them, and {@link #RULE_PACKS}.
+   */
+  public static CheckReturnValueConfig fromOptions(Options options) {
+    List<String> custom = options.getList(CUSTOM_ANNOTATIONS);
+    List<String> excluded = options.getList(EXCLUDE_ANNOTATIONS);
+    List<String> packs = options.getList(RULE_PACKS);
+    Set<String> annotations = new LinkedHashSet<>(custom != null ? custom : DEFAULT_ANNOTATIONS);
+    if (excluded != null) {
+      annotations.removeAll(excluded);
+    }
+    return new CheckReturnValueConfig(annotations,
+        packs != null ? new ArrayList<>(packs) : Collections.emptyList());
+  }
+
+  /**
+   * Reads the same options from {@code properties}, where keys are {@link #propertyKey property
+   * keys} and lists are {@link #PROPERTY_LIST_SEPARATOR}-separated.
+   */
+  public static CheckReturnValueConfig fromProperties(Properties properties) {
+    return fromOptions(key -> splitList(properties.getProperty(propertyKey(key)),
+        PROPERTY_LIST_SEPARATOR));
+  }
+
+  /**
+   * The properties file key of an option, e.g. {@code CustomAnnotations} is read from
+   * {@code configurableCheckReturnValue.customAnnotations}.
+   */
+  public static String propertyKey(String option) {
+    return PROPERTY_PREFIX + Character.toLowerCase(option.charAt(0)) + option.substring(1);
+  }
+
+  /** Splits {@code value} on {@code separator}, trimming and dropping blank entries. */
+  public static List<String> splitList(String value, String separator) {
+    if (value == null) {
+      return null;
+    }
+    List<String> list = new ArrayList<>();
+    int start = 0;
+    while (start <= value.length()) {
+      int end = value.indexOf(separator, start);
+      if (end == -1) {
+        end = value.length();
+      }
+      String entry = value.substring(start, end).trim();
+      if (!entry.isEmpty()) {
+        list.add(entry);
+      }
+      start = end + separator.length();
+    }
+    return list;
+  }
+
+  /**
+   * The effective annotations, in configuration order. Simple names are matched by Error Prone
+   * and the bytecode scanner only, lint drops them since it matches qualified names.
+   */
+  public Set<String> annotations() {
+    return annotations;
+  }
+
+  /** The enabled rule packs, in configuration order. */
+  public List<String> rulePacks() {
+    return rulePacks;
+  }
+
+  /** A matcher for {@link #annotations()}, built once. */
+  public AnnotationMatcher matcher() {
+    return matcher;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of method signatures of the form {@code owner#name}, {@code owner#name(param, ...)}
+ * with erased, fully qualified parameter types, or {@code owner#*} for every method of the owner.
+ *
+ * <p>Signatures are parsed once and grouped by owner and then by name, so looking up the
+ * candidates for a method is two hash lookups. Instances are immutable and safe to share between
+ * threads.
+ */
+public final class SignatureMatcher {
+
+  private static final String ANY = "*";
+
+  /** A parsed signature. */
+  public static final class Signature {
+    public final String owner;
+    public final String name;
+    /** Comma separated erased parameter types without spaces, or {@code null} for any. */
+    public final String parameters;
+
+    Signature(String owner, String name, String parameters) {
+      this.owner = owner;
+      this.name = name;
+      this.parameters = parameters;
+    }
+
+    /**
+     * Whether a method with the given erased parameter types, comma separated without spaces, has
+     * this signature's parameters.
+     */
+    public boolean matchesParameters(String erasedParameters) {
+      return parameters == null || parameters.equals(erasedParameters);
+    }
+
+    @Override public String toString() {
+      return owner + "#" + name + (parameters == null ? "" : "(" + parameters + ")");
+    }
+  }
+
+  private final Map<String, Map<String, List<Signature>>> index = new LinkedHashMap<>();
+
+  public SignatureMatcher(Iterable<String> signatures) {
+    for (String signature : signatures) {
+      Signature parsed = parse(signature);
+      index.computeIfAbsent(parsed.owner, owner -> new HashMap<>())
+          .computeIfAbsent(parsed.name, name -> new ArrayList<>(1))
+          .add(parsed);
+    }
+  }
+
+  /** Parses one signature, throwing {@link IllegalArgumentException} if it is malformed. */
+  public static Signature parse(String signature) {
+    int hash = signature.indexOf('#');
+    int paren = signature.indexOf('(', hash);
+    if (hash <= 0 || hash == signature.length() - 1 || paren == hash + 1
+        || (paren != -1 && !signature.endsWith(")"))) {
+      throw new IllegalArgumentException("Malformed signature '" + signature
+          + "', expected owner#name, owner#name(params) or owner#*");
+    }
+    String owner = signature.substring(0, hash);
+    String name = signature.substring(hash + 1, paren == -1 ? signature.length() : paren);
+    String parameters = paren == -1
+        ? null
+        : signature.substring(paren + 1, signature.length() - 1).replace(" ", "");
+    return new Signature(owner, name, parameters);
+  }
+
+  /** The owners with at least one signature, in the order they were first listed. */
+  public Set<String> owners() {
+    return Collections.unmodifiableSet(index.keySet());
+  }
+
+  /**
+   * The signatures that may match a method {@code name} declared in {@code owner}: those naming it
+   * and the owner's wildcards. Parameters still have to be checked with
+   * {@link Signature#matchesParameters}.
+   */
+  public List<Signature> candidates(String owner, String name) {
+    Map<String, List<Signature>> byName = index.get(owner);
+    if (byName == null) {
+      return Collections.emptyList();
+    }
+    List<Signature> named = byName.get(name);
+    List<Signature> any = byName.get(ANY);
+    if (any == null) {
+      return named != null ? named : Collections.emptyList();
+    }
+    if (named == null) {
+      return any;
+    }
+    List<Signature> both = new ArrayList<>(named);
+    both.addAll(any);
+    return both;
+  }
+
+  /** Whether the method {@code owner#name(erasedParameters)} is listed. */
+  public boolean matches(String owner, String name, String erasedParameters) {
+    for (Signature signature : candidates(owner, name)) {
+      if (signature.matchesParameters(erasedParameters)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
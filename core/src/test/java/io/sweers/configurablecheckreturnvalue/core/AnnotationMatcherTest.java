@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class AnnotationMatcherTest {
+
+  private final AnnotationMatcher matcher = new AnnotationMatcher(
+      Arrays.asList("CheckReturnValue", "a.CheckResult", "b.Outer.MustUse"));
+
+  @Test public void qualifiedNames() {
+    assertThat(matcher.match("a.CheckResult")).isEqualTo("a.CheckResult");
+    assertThat(matcher.match("b.CheckResult")).isNull();
+    assertThat(matcher.match("b.Outer.MustUse")).isEqualTo("b.Outer.MustUse");
+    assertThat(matcher.match("b.MustUse")).isNull();
+  }
+
+  @Test public void simpleNames() {
+    assertThat(matcher.match("javax.annotation.CheckReturnValue")).isEqualTo("CheckReturnValue");
+    assertThat(matcher.match("a.Outer.CheckReturnValue")).isEqualTo("CheckReturnValue");
+    assertThat(matcher.match("CheckReturnValue")).isEqualTo("CheckReturnValue");
+    assertThat(matcher.matches("a.CheckReturnValues")).isFalse();
+  }
+
+  @Test public void qualifiedWinsOverSimple() {
+    AnnotationMatcher both = new AnnotationMatcher(Arrays.asList("CheckResult", "a.CheckResult"));
+    assertThat(both.match("a.CheckResult")).isEqualTo("a.CheckResult");
+    assertThat(both.match("b.CheckResult")).isEqualTo("CheckResult");
+  }
+
+  @Test public void canIgnoreReturnValue() {
+    assertThat(AnnotationMatcher.isCanIgnoreReturnValue(
+        "com.google.errorprone.annotations.CanIgnoreReturnValue")).isTrue();
+    assertThat(AnnotationMatcher.isCanIgnoreReturnValue("CanIgnoreReturnValue")).isTrue();
+    assertThat(AnnotationMatcher.isCanIgnoreReturnValue("a.MaybeCanIgnoreReturnValue")).isFalse();
+  }
+
+  @Test public void verdict() {
+    assertThat(matcher.verdict(Collections.emptyList())).isNull();
+    assertThat(matcher.verdict(Arrays.asList("x.Nullable", "a.CheckResult"))).isTrue();
+    assertThat(matcher.verdict(Arrays.asList("a.CheckResult", "x.CanIgnoreReturnValue")))
+        .isFalse();
+    assertThat(matcher.verdict(Collections.singletonList("x.Nullable"))).isNull();
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class CheckReturnValueConfigTest {
+
+  @Test public void defaults() {
+    CheckReturnValueConfig config = CheckReturnValueConfig.fromOptions(key -> null);
+    assertThat(config.annotations())
+        .containsExactlyElementsIn(CheckReturnValueConfig.DEFAULT_ANNOTATIONS)
+        .inOrder();
+    assertThat(config.annotations()).doesNotContain("CanIgnoreReturnValue");
+    assertThat(config.rulePacks()).isEmpty();
+  }
+
+  @Test public void customAndExcluded() {
+    Map<String, List<String>> options = new HashMap<>();
+    options.put("CustomAnnotations", Arrays.asList("a.CheckResult", "MustUse", "b.Excluded"));
+    options.put("ExcludeAnnotations", Collections.singletonList("b.Excluded"));
+    options.put("RulePacks", Arrays.asList("streams", "io"));
+    CheckReturnValueConfig config = CheckReturnValueConfig.fromOptions(options::get);
+    assertThat(config.annotations()).containsExactly("a.CheckResult", "MustUse").inOrder();
+    assertThat(config.rulePacks()).containsExactly("streams", "io").inOrder();
+    assertThat(config.matcher().matches("x.MustUse")).isTrue();
+    assertThat(config.matcher().matches("b.Excluded")).isFalse();
+  }
+
+  @Test public void excludedFromDefaults() {
+    CheckReturnValueConfig config = CheckReturnValueConfig.fromOptions(
+        key -> key.equals("ExcludeAnnotations")
+            ? Collections.singletonList("javax.annotation.CheckReturnValue")
+            : null);
+    assertThat(config.annotations()).doesNotContain("javax.annotation.CheckReturnValue");
+    assertThat(config.annotations()).hasSize(CheckReturnValueConfig.DEFAULT_ANNOTATIONS.size() - 1);
+  }
+
+  @Test public void fromProperties() {
+    Properties properties = new Properties();
+    properties.setProperty("configurableCheckReturnValue.customAnnotations",
+        " a.CheckResult : : MustUse:");
+    properties.setProperty("configurableCheckReturnValue.excludeAnnotations", "MustUse");
+    CheckReturnValueConfig config = CheckReturnValueConfig.fromProperties(properties);
+    assertThat(config.annotations()).containsExactly("a.CheckResult");
+  }
+
+  @Test public void propertyKey() {
+    assertThat(CheckReturnValueConfig.propertyKey("CustomAnnotations"))
+        .isEqualTo("configurableCheckReturnValue.customAnnotations");
+  }
+
+  @Test public void splitList() {
+    assertThat(CheckReturnValueConfig.splitList(null, ":")).isNull();
+    assertThat(CheckReturnValueConfig.splitList("", ":")).isEmpty();
+    assertThat(CheckReturnValueConfig.splitList("a: b ::c", ":"))
+        .containsExactly("a", "b", "c")
+        .inOrder();
+  }
+}
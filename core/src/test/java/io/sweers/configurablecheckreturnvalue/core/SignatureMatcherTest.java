@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.core;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class SignatureMatcherTest {
+
+  private final SignatureMatcher matcher = new SignatureMatcher(Arrays.asList(
+      "java.lang.String#trim",
+      "java.text.MessageFormat#format(java.lang.String, java.lang.Object[])",
+      "java.util.Optional#*",
+      "java.util.Optional#map"));
+
+  @Test public void parse() {
+    SignatureMatcher.Signature signature =
+        SignatureMatcher.parse("java.text.MessageFormat#format(java.lang.String, int)");
+    assertThat(signature.owner).isEqualTo("java.text.MessageFormat");
+    assertThat(signature.name).isEqualTo("format");
+    assertThat(signature.parameters).isEqualTo("java.lang.String,int");
+    assertThat(SignatureMatcher.parse("a.B#c").parameters).isNull();
+    assertThat(SignatureMatcher.parse("a.B#c()").parameters).isEmpty();
+  }
+
+  @Test public void malformed() {
+    for (String signature : Arrays.asList("a.B", "#c", "a.B#", "a.B#(int)", "a.B#c(int")) {
+      try {
+        SignatureMatcher.parse(signature);
+        fail(signature);
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  @Test public void owners() {
+    assertThat(matcher.owners())
+        .containsExactly("java.lang.String", "java.text.MessageFormat", "java.util.Optional")
+        .inOrder();
+  }
+
+  @Test public void matches() {
+    assertThat(matcher.matches("java.lang.String", "trim", "")).isTrue();
+    assertThat(matcher.matches("java.lang.String", "strip", "")).isFalse();
+    assertThat(matcher.matches("java.lang.Object", "trim", "")).isFalse();
+    assertThat(matcher.matches("java.text.MessageFormat", "format",
+        "java.lang.String,java.lang.Object[]")).isTrue();
+    assertThat(matcher.matches("java.text.MessageFormat", "format", "java.lang.Object"))
+        .isFalse();
+    assertThat(matcher.matches("java.util.Optional", "orElse", "java.lang.Object")).isTrue();
+  }
+
+  @Test public void candidates() {
+    assertThat(matcher.candidates("java.util.Optional", "map").stream()
+        .map(Object::toString)
+        .collect(Collectors.toList()))
+        .containsExactly("java.util.Optional#map", "java.util.Optional#*")
+        .inOrder();
+    assertThat(matcher.candidates("java.lang.String", "strip")).isEmpty();
+  }
+}
@@ -24,7 +24,6 @@ import static com.google.errorprone.matchers.Matchers.isLastStatementInBlock;
 import static com.google.errorprone.matchers.Matchers.kindIs;
 import static com.google.errorprone.matchers.Matchers.methodSelect;
 import static com.google.errorprone.matchers.Matchers.nextStatement;
-import static com.google.errorprone.matchers.Matchers.not;
 import static com.google.errorprone.matchers.Matchers.parentNode;
 import static com.google.errorprone.matchers.Matchers.previousStatement;
 import static com.google.errorprone.matchers.Matchers.toType;
@@ -72,40 +71,107 @@ import javax.lang.model.type.TypeKind;
 public abstract class AbstractReturnValueIgnored extends BugChecker
     implements MethodInvocationTreeMatcher, MemberReferenceTreeMatcher {
 
+  /**
+   * Why {@link #matchMethodInvocation} or {@link #matchMemberReference} did not report a tree, in
+   * the order the conditions are checked.
+   */
+  protected enum Rejection {
+    /** A constructor reference. */
+    CONSTRUCTOR_REFERENCE,
+    /** The result is used, i.e. the call isn't a statement or the body of a void lambda. */
+    RESULT_USED,
+    /** A {@code super(...)} constructor call. */
+    SUPER_CALL,
+    /** The method returns {@code void} or {@code Void}. */
+    VOID_RETURN,
+    /** A method reference used as one of the {@code CLASSES_CONSIDERED_THROWING}. */
+    THROWING_FUNCTIONAL_INTERFACE,
+    /** The {@link #specializedMatcher()} didn't match. */
+    NOT_MATCHED,
+    /** A call in a test that expects it to throw, see {@link #isExpectedExceptionTest}. */
+    EXPECTED_EXCEPTION
+  }
+
   @Override
   public Description matchMethodInvocation(
       MethodInvocationTree methodInvocationTree, VisitorState state) {
-    if (allOf(
-        parentNode(
-            anyOf(
-                AbstractReturnValueIgnored::isVoidReturningLambdaExpression,
-                Matchers.kindIs(Kind.EXPRESSION_STATEMENT))),
-        not(methodSelect(toType(IdentifierTree.class, identifierHasName("super")))),
-        not((t, s) -> ASTHelpers.isVoidType(ASTHelpers.getType(t), s)),
-        specializedMatcher(),
-        not(AbstractReturnValueIgnored::expectedExceptionTest))
-        .matches(methodInvocationTree, state)) {
-      return describe(methodInvocationTree, state);
+    Rejection rejection = rejection(methodInvocationTree, state);
+    if (rejection != null) {
+      onRejected(methodInvocationTree, rejection, state);
+      return Description.NO_MATCH;
+    }
+    return describe(methodInvocationTree, state);
+  }
+
+  private Rejection rejection(MethodInvocationTree tree, VisitorState state) {
+    if (!parentNode(
+        anyOf(
+            AbstractReturnValueIgnored::isVoidReturningLambdaExpression,
+            Matchers.kindIs(Kind.EXPRESSION_STATEMENT)))
+        .matches(tree, state)) {
+      return Rejection.RESULT_USED;
     }
-    return Description.NO_MATCH;
+    if (methodSelect(toType(IdentifierTree.class, identifierHasName("super")))
+        .matches(tree, state)) {
+      return Rejection.SUPER_CALL;
+    }
+    if (ASTHelpers.isVoidType(ASTHelpers.getType(tree), state)) {
+      return Rejection.VOID_RETURN;
+    }
+    if (!specializedMatcher().matches(tree, state)) {
+      return Rejection.NOT_MATCHED;
+    }
+    if (isExpectedExceptionTest(tree, state)) {
+      return Rejection.EXPECTED_EXCEPTION;
+    }
+    return null;
   }
 
   @Override
   public Description matchMemberReference(MemberReferenceTree tree, VisitorState state) {
-    if (allOf(
-        (t, s) -> t.getMode() == ReferenceMode.INVOKE,
-        AbstractReturnValueIgnored::isVoidReturningMethodReferenceExpression,
-        // Skip cases where the method we're referencing really does return void. We're only
-        // looking for cases where the referenced method does not return void, but it's being
-        // used on a void-returning functional interface.
-        not((t, s) -> ASTHelpers.isVoidType(ASTHelpers.getSymbol(tree).getReturnType(), s)),
-        not((t, s) -> isThrowingFunctionalInterface(s, ((JCMemberReference) t).type)),
-        specializedMatcher())
-        .matches(tree, state)) {
-      return describeMatch(tree);
+    Rejection rejection = rejection(tree, state);
+    if (rejection != null) {
+      onRejected(tree, rejection, state);
+      return Description.NO_MATCH;
+    }
+    return onMatch(tree, describeMatch(tree), state);
+  }
+
+  private Rejection rejection(MemberReferenceTree tree, VisitorState state) {
+    if (tree.getMode() != ReferenceMode.INVOKE) {
+      return Rejection.CONSTRUCTOR_REFERENCE;
+    }
+    if (!isVoidReturningMethodReferenceExpression(tree, state)) {
+      return Rejection.RESULT_USED;
+    }
+    // Skip cases where the method we're referencing really does return void. We're only
+    // looking for cases where the referenced method does not return void, but it's being
+    // used on a void-returning functional interface.
+    if (ASTHelpers.isVoidType(ASTHelpers.getSymbol(tree).getReturnType(), state)) {
+      return Rejection.VOID_RETURN;
+    }
+    if (isThrowingFunctionalInterface(state, ((JCMemberReference) tree).type)) {
+      return Rejection.THROWING_FUNCTIONAL_INTERFACE;
     }
+    if (!specializedMatcher().matches(tree, state)) {
+      return Rejection.NOT_MATCHED;
+    }
+    return null;
+  }
+
+  /**
+   * Called with every invocation and member reference that is not reported, and why. The default
+   * implementation does nothing.
+   */
+  protected void onRejected(Tree tree, Rejection rejection, VisitorState state) {
+  }
 
-    return Description.NO_MATCH;
+  /**
+   * Whether {@code tree} is exempt because the enclosing test expects it to throw. Delegates to
+   * {@link #expectedExceptionTest}; subclasses may override it to observe the evaluation.
+   */
+  protected boolean isExpectedExceptionTest(Tree tree, VisitorState state) {
+    return expectedExceptionTest(tree, state);
   }
 
   private static boolean isVoidReturningMethodReferenceExpression(
@@ -225,7 +291,16 @@ public abstract class AbstractReturnValueIgnored extends BugChecker
       Tree parent = state.getPath().getParentPath().getLeaf();
       fix = SuggestedFix.delete(parent);
     }
-    return describeMatch(methodInvocationTree, fix);
+    return onMatch(methodInvocationTree, describeMatch(methodInvocationTree, fix), state);
+  }
+
+  /**
+   * Called with every finding produced by {@link #describe} and {@link #matchMemberReference}
+   * before it is returned to Error Prone. Subclasses may record the finding or return a modified
+   * description. The default implementation returns {@code description} unchanged.
+   */
+  protected Description onMatch(Tree tree, Description description, VisitorState state) {
+    return description;
   }
 
   /** Allow return values to be ignored in tests that expect an exception to be thrown. */
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.google.auto.service.AutoService;
+import com.google.errorprone.BugPattern;
+import com.google.errorprone.ErrorProneFlags;
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.bugpatterns.BugChecker;
+import com.google.errorprone.fixes.SuggestedFix;
+import com.google.errorprone.matchers.Description;
+import com.google.errorprone.matchers.Matcher;
+import com.google.errorprone.util.ASTHelpers;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.VariableTree;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import java.util.Optional;
+
+import static com.google.errorprone.BugPattern.SeverityLevel.WARNING;
+
+/**
+ * Flags ignored non-void results inside JMH {@code @Benchmark} methods. A result that is never
+ * used lets the JIT eliminate the work that produced it as dead code, so the benchmark silently
+ * measures nothing. Methods whose nearest annotation, on the method, an enclosing class or the
+ * package, is {@code @CanIgnoreReturnValue} are exempt, as decided by {@link ReturnValuePolicy}
+ * with the same {@code CustomAnnotations} and {@code ExcludeAnnotations} flags as
+ * {@link ConfigurableCheckReturnValue}.
+ *
+ * <p>The check is registered as a service, so Error Prone runs it wherever the artifact is on the
+ * processor path. It only warns by default; {@code -Xep:BenchmarkReturnValueIgnored:ERROR} makes
+ * it fail the build and {@code -Xep:BenchmarkReturnValueIgnored:OFF} turns it off.
+ */
+@AutoService(BugChecker.class)
+@BugPattern(
+    name = "BenchmarkReturnValueIgnored",
+    summary = "Ignored return value in a JMH @Benchmark method, the JIT may eliminate it as dead"
+        + " code",
+    severity = WARNING
+)
+public class BenchmarkReturnValueIgnored extends AbstractReturnValueIgnored {
+
+  private static final String BENCHMARK = "org.openjdk.jmh.annotations.Benchmark";
+  private static final String BLACKHOLE = "org.openjdk.jmh.infra.Blackhole";
+  private static final String MESSAGE = "Ignored return value of `%s` in a @Benchmark method, the"
+      + " JIT may eliminate it as dead code. Return the value or pass it to Blackhole.consume().";
+
+  private final ReturnValuePolicy policy;
+
+  @SuppressWarnings("unused") // Default constructor used for SPI
+  public BenchmarkReturnValueIgnored() {
+    this(ErrorProneFlags.empty());
+  }
+
+  @SuppressWarnings("WeakerAccess") // Public for ErrorProne
+  public BenchmarkReturnValueIgnored(ErrorProneFlags flags) {
+    policy = ReturnValuePolicy.fromOptions(key -> flags.getList(key).orElse(null));
+  }
+
+  private final Matcher<ExpressionTree> MATCHER = (tree, state) -> {
+    Symbol sym = ASTHelpers.getSymbol(tree);
+    if (!(sym instanceof MethodSymbol) || canIgnore((MethodSymbol) sym)) {
+      return false;
+    }
+    MethodTree method = ASTHelpers.findEnclosingNode(state.getPath(), MethodTree.class);
+    return method != null
+        && ASTHelpers.hasAnnotation(ASTHelpers.getSymbol(method), BENCHMARK, state);
+  };
+
+  @Override public Matcher<? super ExpressionTree> specializedMatcher() {
+    return MATCHER;
+  }
+
+  /**
+   * Suggests passing the value to the benchmark's {@code Blackhole} parameter if it has one.
+   * Otherwise there is no safe mechanical fix, so only the message is reported.
+   */
+  @Override
+  public Description describe(MethodInvocationTree methodInvocationTree, VisitorState state) {
+    String name = ASTHelpers.getSymbol(methodInvocationTree).getSimpleName().toString();
+    Description.Builder builder =
+        buildDescription(methodInvocationTree).setMessage(String.format(MESSAGE, name));
+    MethodTree method = ASTHelpers.findEnclosingNode(state.getPath(), MethodTree.class);
+    if (method != null) {
+      for (VariableTree parameter : method.getParameters()) {
+        if (ASTHelpers.isSameType(ASTHelpers.getType(parameter),
+            state.getTypeFromString(BLACKHOLE), state)) {
+          builder.addFix(SuggestedFix.builder()
+              .prefixWith(methodInvocationTree, parameter.getName() + ".consume(")
+              .postfixWith(methodInvocationTree, ")")
+              .build());
+          break;
+        }
+      }
+    }
+    return onMatch(methodInvocationTree, builder.build(), state);
+  }
+
+  private boolean canIgnore(MethodSymbol method) {
+    Optional<Boolean> verdict = policy.annotationVerdict(method);
+    return verdict.isPresent() && !verdict.get();
+  }
+}
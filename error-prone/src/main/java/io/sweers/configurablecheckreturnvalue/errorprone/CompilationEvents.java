@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.api.MultiTaskListener;
+import com.sun.tools.javac.util.Context;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-compilation hook for work that has to happen after a compilation unit has been analyzed or
+ * after javac is done entirely, such as flushing or closing report files.
+ *
+ * <p>Error Prone has no lifecycle callbacks for checkers, so this registers a plain javac
+ * {@link TaskListener} once per {@link Context}. Callbacks run on the compiler thread.
+ */
+final class CompilationEvents implements TaskListener {
+
+  private static final Context.Key<CompilationEvents> KEY = new Context.Key<>();
+
+  private final List<Runnable> unitFinishedCallbacks = new ArrayList<>();
+  private final List<Runnable> compilationFinishedCallbacks = new ArrayList<>();
+
+  private CompilationEvents() {
+  }
+
+  static CompilationEvents instance(Context context) {
+    CompilationEvents events = context.get(KEY);
+    if (events == null) {
+      events = new CompilationEvents();
+      context.put(KEY, events);
+      MultiTaskListener.instance(context).add(events);
+    }
+    return events;
+  }
+
+  /** Runs {@code callback} every time a compilation unit finishes analysis. */
+  void onUnitFinished(Runnable callback) {
+    unitFinishedCallbacks.add(callback);
+  }
+
+  /** Runs {@code callback} once, when javac finishes the whole compilation. */
+  void onCompilationFinished(Runnable callback) {
+    compilationFinishedCallbacks.add(callback);
+  }
+
+  @Override public void started(TaskEvent e) {
+  }
+
+  @Override public void finished(TaskEvent e) {
+    switch (e.getKind()) {
+      case ANALYZE:
+        unitFinishedCallbacks.forEach(Runnable::run);
+        break;
+      case COMPILATION:
+        compilationFinishedCallbacks.forEach(Runnable::run);
+        compilationFinishedCallbacks.clear();
+        unitFinishedCallbacks.clear();
+        break;
+      default:
+        break;
+    }
+  }
+}
@@ -16,64 +16,89 @@
 
 package io.sweers.configurablecheckreturnvalue.errorprone;
 
-import com.google.common.collect.ImmutableSet;
+import com.google.auto.service.AutoService;
 import com.google.errorprone.BugPattern;
+import com.google.errorprone.BugPattern.SeverityLevel;
 import com.google.errorprone.ErrorProneFlags;
+import com.google.errorprone.ErrorProneOptions;
 import com.google.errorprone.VisitorState;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.google.errorprone.bugpatterns.BugChecker;
 import com.google.errorprone.bugpatterns.BugChecker.ClassTreeMatcher;
+import com.google.errorprone.bugpatterns.BugChecker.CompilationUnitTreeMatcher;
 import com.google.errorprone.bugpatterns.BugChecker.MethodTreeMatcher;
+import com.google.errorprone.fixes.Fix;
 import com.google.errorprone.matchers.Description;
 import com.google.errorprone.matchers.Matcher;
 import com.google.errorprone.util.ASTHelpers;
 import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.LineMap;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MethodInvocationTree;
 import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
 import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.code.Symbol.ClassSymbol;
 import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.util.Context;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Optional;
-import javax.lang.model.element.AnnotationMirror;
-import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
-import javax.lang.model.element.TypeElement;
 
-import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.errorprone.BugPattern.SeverityLevel.ERROR;
-import static com.google.errorprone.util.ASTHelpers.enclosingClass;
-import static com.google.errorprone.util.ASTHelpers.enclosingPackage;
-import static com.google.errorprone.util.ASTHelpers.hasDirectAnnotationWithSimpleName;
+import static com.google.errorprone.BugPattern.SeverityLevel.WARNING;
+import static io.sweers.configurablecheckreturnvalue.errorprone.ReturnValuePolicy.BOTH_ERROR;
+import static io.sweers.configurablecheckreturnvalue.errorprone.ReturnValuePolicy.VOID_ERROR;
+import static io.sweers.configurablecheckreturnvalue.errorprone.ReturnValuePolicy.shortName;
 
 /**
  * Configurable version of
  * <a href="https://github.com/google/error-prone/blob/f14fb18bb05c7e9f10794771df692a42b333f18c/core/src/main/java/com/google/errorprone/bugpatterns/CheckReturnValue.java">The
  * error prone version.</a>
  *
+ * <p>The check is registered as a service, so Error Prone runs it wherever the artifact is on the
+ * processor path, as an error unless {@code -Xep:ConfigurableCheckReturnValue} says otherwise.
+ *
  * @author eaftan@google.com (Eddie Aftandilian)
  */
+@AutoService(BugChecker.class)
 @BugPattern(
     name = "ConfigurableCheckReturnValue",
     altNames = {"CheckReturnValue", "ResultOfMethodCallIgnored", "ReturnValueIgnored"},
-    summary = "Ignored return value of method that is annotated with @CheckReturnValue or specified alternatives",
+    summary = ReturnValuePolicy.SUMMARY,
     severity = ERROR
 )
 public class ConfigurableCheckReturnValue extends AbstractReturnValueIgnored
-    implements MethodTreeMatcher, ClassTreeMatcher {
+    implements CompilationUnitTreeMatcher, MethodTreeMatcher, ClassTreeMatcher {
+
+  private static final String LOOP_SUFFIX =
+      " (ignored inside a loop, so the call is wasted on every iteration; loop depth %d)";
+
+  private final ReturnValuePolicy policy;
+  private final Optional<Path> reportFile;
+  private final FindingsReport.Format reportFormat;
+  private final Optional<Path> patchDirectory;
+  private final Path patchRoot;
+  private final boolean loopAware;
+  private final LoopContext loopContext = new LoopContext();
+  private final boolean metricsEnabled;
+  private final Optional<Path> metricsFile;
 
-  private static final String CAN_IGNORE_RETURN_VALUE = "CanIgnoreReturnValue";
+  /** The metrics of the compilation this checker last ran in, see {@link #metrics}. */
+  private Context metricsContext;
+  private Metrics metrics;
 
-  private static final ImmutableSet<String> DEFAULT_ANNOTATIONS = ImmutableSet.of(
-      "CheckReturnValue",
-      "androidx.annotation.CheckResult",
-      "com.support.annotation.CheckResult",
-      "edu.umd.cs.findbugs.annotations.CheckReturnValue",
-      "javax.annotation.CheckReturnValue",
-      "io.reactivex.annotations.CheckReturnValue",
-      "com.google.errorprone.annotations.CheckReturnValue");
-  private static final String BOTH_ERROR =
-      "@CheckReturnValue and @CanIgnoreReturnValue cannot both be applied to the same %s";
+  /** JFR events of the current compilation unit, or {@code null} if JFR isn't recording them. */
+  private JfrEvents.Unit unitEvents;
+  private Context unitEventsContext;
 
-  private ImmutableSet<String> annotationsToCheck;
+  /** The tree {@link #MATCHER} last matched through a rule pack, and that pack. */
+  private Tree packMatchTree;
+  private RulePack packMatch;
 
   @SuppressWarnings("unused") // Default constructor used for SPI
   public ConfigurableCheckReturnValue() {
@@ -82,25 +107,238 @@ public class ConfigurableCheckReturnValue extends AbstractReturnValueIgnored
 
   @SuppressWarnings("WeakerAccess") // Public for ErrorProne
   public ConfigurableCheckReturnValue(ErrorProneFlags flags) {
-    ImmutableSet<String> excludedAnnotations = flags.getList("ExcludeAnnotations")
-        .map(ImmutableSet::copyOf)
-        .orElse(ImmutableSet.of());
-
-    annotationsToCheck = flags.getList("CustomAnnotations")
-        .map(ImmutableSet::copyOf)
-        .orElse(DEFAULT_ANNOTATIONS)
-        .stream()
-        .filter(e -> !excludedAnnotations.contains(e))
-        .collect(toImmutableSet());
-  }
-
-  private Optional<String> checkReturn(Symbol sym) {
-    for (String annotation : annotationsToCheck) {
-      if (hasDirectAnnotationWithName(sym, annotation)) {
-        return Optional.of(annotation);
+    policy = ReturnValuePolicy.fromOptions(key -> flags.getList(key).orElse(null));
+    reportFile = flags.get("ReportFile").map(Paths::get);
+    reportFormat = flags.get("ReportFormat")
+        .map(FindingsReport.Format::parse)
+        .orElse(FindingsReport.Format.SARIF);
+    patchDirectory = flags.get("PatchDirectory").map(Paths::get);
+    patchRoot = Paths.get(flags.get("PatchRoot").orElse(""));
+    loopAware = flags.getBoolean("LoopAware").orElse(false);
+    metricsFile = flags.get("MetricsFile").map(Paths::get);
+    metricsEnabled = metricsFile.isPresent() || flags.getBoolean("Metrics").orElse(false);
+  }
+
+  /** The metrics of the current compilation, or {@code null} if they are disabled. */
+  private Metrics metrics(VisitorState state) {
+    if (!metricsEnabled) {
+      return null;
+    }
+    if (metricsContext != state.context) {
+      metricsContext = state.context;
+      metrics = Metrics.instance(state.context, metricsFile);
+    }
+    return metrics;
+  }
+
+  @Override public Description matchMethodInvocation(MethodInvocationTree tree,
+      VisitorState state) {
+    JfrEvents.Unit events = unitEvents;
+    if (events != null) {
+      events.invocation();
+    }
+    Metrics metrics = metrics(state);
+    if (metrics == null && events == null) {
+      return super.matchMethodInvocation(tree, state);
+    }
+    if (metrics != null) {
+      metrics.increment(Metrics.Metric.INVOCATIONS);
+    }
+    long start = System.nanoTime();
+    try {
+      return super.matchMethodInvocation(tree, state);
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      if (metrics != null) {
+        metrics.add(Metrics.Metric.MATCH_METHOD_INVOCATION_NANOS, elapsed);
+      }
+      if (events != null) {
+        events.addCheckTime(elapsed);
+      }
+    }
+  }
+
+  @Override public Description matchMemberReference(MemberReferenceTree tree, VisitorState state) {
+    Metrics metrics = metrics(state);
+    JfrEvents.Unit events = unitEvents;
+    if (metrics == null && events == null) {
+      return super.matchMemberReference(tree, state);
+    }
+    if (metrics != null) {
+      metrics.increment(Metrics.Metric.MEMBER_REFERENCES);
+    }
+    long start = System.nanoTime();
+    try {
+      return super.matchMemberReference(tree, state);
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      if (metrics != null) {
+        metrics.add(Metrics.Metric.MATCH_MEMBER_REFERENCE_NANOS, elapsed);
+      }
+      if (events != null) {
+        events.addCheckTime(elapsed);
+      }
+    }
+  }
+
+  @Override protected void onRejected(Tree tree, Rejection rejection, VisitorState state) {
+    Metrics metrics = metrics(state);
+    if (metrics != null) {
+      metrics.increment(rejectedMetric(rejection));
+    }
+  }
+
+  private static Metrics.Metric rejectedMetric(Rejection rejection) {
+    switch (rejection) {
+      case CONSTRUCTOR_REFERENCE:
+        return Metrics.Metric.REJECTED_CONSTRUCTOR_REFERENCE;
+      case RESULT_USED:
+        return Metrics.Metric.REJECTED_RESULT_USED;
+      case SUPER_CALL:
+        return Metrics.Metric.REJECTED_SUPER_CALL;
+      case VOID_RETURN:
+        return Metrics.Metric.REJECTED_VOID_RETURN;
+      case THROWING_FUNCTIONAL_INTERFACE:
+        return Metrics.Metric.REJECTED_THROWING_FUNCTIONAL_INTERFACE;
+      case NOT_MATCHED:
+        return Metrics.Metric.REJECTED_NOT_MATCHED;
+      case EXPECTED_EXCEPTION:
+        return Metrics.Metric.REJECTED_EXPECTED_EXCEPTION;
+      default:
+        throw new AssertionError(rejection);
+    }
+  }
+
+  @Override protected boolean isExpectedExceptionTest(Tree tree, VisitorState state) {
+    Metrics metrics = metrics(state);
+    JfrEvents.Unit events = unitEvents;
+    if (metrics == null && events == null) {
+      return super.isExpectedExceptionTest(tree, state);
+    }
+    long start = System.nanoTime();
+    try {
+      return super.isExpectedExceptionTest(tree, state);
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      if (metrics != null) {
+        metrics.increment(Metrics.Metric.EXPECTED_EXCEPTION_EVALUATIONS);
+        metrics.add(Metrics.Metric.EXPECTED_EXCEPTION_TEST_NANOS, elapsed);
+      }
+      if (events != null) {
+        events.addExpectedExceptionTime(elapsed);
+      }
+    }
+  }
+
+  /**
+   * Opens the findings report, if one is configured, so clean compilations still produce one, and
+   * starts the JFR event of the unit if JFR is recording it.
+   */
+  @Override public Description matchCompilationUnit(CompilationUnitTree tree, VisitorState state) {
+    loopContext.reset();
+    commitUnitEvents();
+    unitEvents = JfrEvents.beginUnit(tree.getSourceFile().getName());
+    if (unitEvents != null && unitEventsContext != state.context) {
+      // The listener is registered while Error Prone handles the first unit, so that unit's event
+      // is only committed when the next one starts. Its duration includes whatever javac does in
+      // between, which is why the event records the check's own time separately.
+      unitEventsContext = state.context;
+      CompilationEvents events = CompilationEvents.instance(state.context);
+      events.onUnitFinished(this::commitUnitEvents);
+      events.onCompilationFinished(this::commitUnitEvents);
+    }
+    if (reportFile.isPresent()) {
+      FindingsReport.instance(state.context, reportFile.get(), reportFormat);
+    }
+    return Description.NO_MATCH;
+  }
+
+  private void commitUnitEvents() {
+    if (unitEvents != null) {
+      unitEvents.commit();
+      unitEvents = null;
+    }
+  }
+
+  @Override
+  protected Description onMatch(Tree tree, Description description, VisitorState state) {
+    RulePack pack = tree == packMatchTree ? packMatch : null;
+    int depth = loopAware ? loopContext.depth(tree) : 0;
+    if (pack != null || depth > 0) {
+      String message = pack != null ? pack.message(ASTHelpers.getSymbol(tree)) : message();
+      if (depth > 0) {
+        message += String.format(LOOP_SUFFIX, depth);
       }
+      description = withMessage(tree, description, message);
     }
-    return Optional.empty();
+    if (patchDirectory.isPresent() && !description.fixes.isEmpty()) {
+      PatchWriter.instance(state.context, patchDirectory.get(), patchRoot)
+          .add(description.fixes.get(0), state.getPath().getCompilationUnit(),
+              state.getSourceCode());
+    }
+    return report(FindingsReport.Rule.IGNORED_RETURN_VALUE, tree, description, state);
+  }
+
+  private Description withMessage(Tree tree, Description description, String message) {
+    Description.Builder builder = buildDescription(tree).setMessage(message);
+    for (Fix fix : description.fixes) {
+      builder.addFix(fix);
+    }
+    return builder.build();
+  }
+
+  /** Writes {@code description} to the findings report, if one is configured, and returns it. */
+  private Description report(FindingsReport.Rule rule, Tree tree, Description description,
+      VisitorState state) {
+    if (description == Description.NO_MATCH) {
+      return description;
+    }
+    Metrics metrics = metrics(state);
+    if (metrics != null) {
+      metrics.increment(Metrics.Metric.DIAGNOSTICS);
+    }
+    if (unitEvents != null) {
+      unitEvents.diagnostic();
+    }
+    if (!reportFile.isPresent()) {
+      return description;
+    }
+    CompilationUnitTree unit = state.getPath().getCompilationUnit();
+    LineMap lineMap = unit.getLineMap();
+    long position = ((JCTree) tree).getStartPosition();
+    // Only the first line, the rest is the link to the bug pattern documentation.
+    String message = description.getMessageWithoutCheckName().split("\n", 2)[0];
+    FindingsReport.instance(state.context, reportFile.get(), reportFormat)
+        .write(rule,
+            effectiveSeverity(description, state),
+            message,
+            unit.getSourceFile().toUri().toString(),
+            lineMap.getLineNumber(position),
+            lineMap.getColumnNumber(position));
+    return description;
+  }
+
+  /**
+   * The severity javac reports {@code description} with. That is the {@code @BugPattern} default
+   * unless {@code -Xep:ConfigurableCheckReturnValue:<level>} overrides it, and errors are demoted
+   * by {@code -XepAllErrorsAsWarnings}.
+   */
+  private SeverityLevel effectiveSeverity(Description description, VisitorState state) {
+    SeverityLevel severity = description.severity;
+    ErrorProneOptions options = state.errorProneOptions();
+    if (options == null) {
+      return severity;
+    }
+    ErrorProneOptions.Severity override = options.getSeverityMap().get(canonicalName());
+    if (override == ErrorProneOptions.Severity.WARN) {
+      severity = WARNING;
+    } else if (override == ErrorProneOptions.Severity.ERROR) {
+      severity = ERROR;
+    }
+    if (severity == ERROR && options.isDropErrorsToWarnings()) {
+      severity = WARNING;
+    }
+    return severity;
   }
 
   /**
@@ -108,21 +346,10 @@ public class ConfigurableCheckReturnValue extends AbstractReturnValueIgnored
    * Does *not* consider annotation inheritance.
    *
    * @param sym the symbol to check for the presence of the annotation
-   * @param name TODO
+   * @param name the simple or fully qualified name of the annotation
    */
   public static boolean hasDirectAnnotationWithName(Symbol sym, String name) {
-    boolean isSimple = !name.contains(".");
-    for (AnnotationMirror annotation : sym.getAnnotationMirrors()) {
-      Element element = annotation.getAnnotationType()
-          .asElement();
-      if (isSimple && element.getSimpleName().contentEquals(name)) {
-        return true;
-      } else if (element instanceof TypeElement && ((TypeElement) element).getQualifiedName()
-          .contentEquals(name)) {
-        return true;
-      }
-    }
-    return false;
+    return ReturnValuePolicy.hasDirectAnnotationWithName(sym, name);
   }
 
   /**
@@ -132,23 +359,29 @@ public class ConfigurableCheckReturnValue extends AbstractReturnValueIgnored
    *
    * <p>The annotations should not be applied to void-returning methods. Doing so makes no sense,
    * because there is no return value to check.
+   *
+   * <p>With {@code LoopAware} enabled, this is also where the loop context of the method body is
+   * computed, once per method.
    */
   @Override public Description matchMethod(MethodTree tree, VisitorState state) {
+    if (loopAware) {
+      loopContext.scan(tree, state);
+    }
     MethodSymbol method = ASTHelpers.getSymbol(tree);
 
-    Optional<String> checkReturn = checkReturn(method);
-    boolean canIgnore = hasDirectAnnotationWithSimpleName(method, CAN_IGNORE_RETURN_VALUE);
+    Optional<String> checkReturn = policy.checkReturn(method);
+    boolean canIgnore = ReturnValuePolicy.canIgnore(method);
 
     if (checkReturn.isPresent() && canIgnore) {
-      return buildDescription(tree).setMessage(String.format(BOTH_ERROR, "method"))
-          .build();
+      return report(FindingsReport.Rule.CONFLICTING_ANNOTATIONS, tree,
+          buildDescription(tree).setMessage(String.format(BOTH_ERROR, "method")).build(), state);
     }
 
     String annotationToValidate;
     if (checkReturn.isPresent()) {
       annotationToValidate = checkReturn.get();
     } else if (canIgnore) {
-      annotationToValidate = CAN_IGNORE_RETURN_VALUE;
+      annotationToValidate = ReturnValuePolicy.CAN_IGNORE_RETURN_VALUE;
     } else {
       return Description.NO_MATCH;
     }
@@ -159,89 +392,82 @@ public class ConfigurableCheckReturnValue extends AbstractReturnValueIgnored
     if (!ASTHelpers.isVoidType(method.getReturnType(), state)) {
       return Description.NO_MATCH;
     }
-    String message =
-        String.format("@%s may not be applied to void-returning methods", shortName(annotationToValidate));
-    return buildDescription(tree).setMessage(message)
-        .build();
-  }
-
-  private static String shortName(String name) {
-    if (name.contains(".")) {
-      return name.substring(name.lastIndexOf(".") + 1);
-    } else {
-      return name;
-    }
+    String message = String.format(VOID_ERROR, shortName(annotationToValidate));
+    return report(FindingsReport.Rule.VOID_RETURNING_METHOD, tree,
+        buildDescription(tree).setMessage(message).build(), state);
   }
 
   /**
    * Validate that at most one of {@code CheckReturnValue} and {@code CanIgnoreReturnValue} are
    * applied to a class (or interface or enum).
+   *
+   * <p>With {@code LoopAware} enabled, this is also where the loop context of the class's
+   * initializer blocks and field initializers is computed.
    */
   @Override public Description matchClass(ClassTree tree, VisitorState state) {
-    if (checkReturn(ASTHelpers.getSymbol(tree)).isPresent() && hasDirectAnnotationWithSimpleName(
-        ASTHelpers.getSymbol(tree),
-        CAN_IGNORE_RETURN_VALUE)) {
-      return buildDescription(tree).setMessage(String.format(BOTH_ERROR, "class"))
-          .build();
+    if (loopAware) {
+      loopContext.scanInitializers(tree, state);
+    }
+    ClassSymbol clazz = ASTHelpers.getSymbol(tree);
+    if (policy.checkReturn(clazz).isPresent() && ReturnValuePolicy.canIgnore(clazz)) {
+      return report(FindingsReport.Rule.CONFLICTING_ANNOTATIONS, tree,
+          buildDescription(tree).setMessage(String.format(BOTH_ERROR, "class")).build(), state);
     }
     return Description.NO_MATCH;
   }
 
   /**
    * Return a matcher for method invocations in which the method being called has the
-   * {@code @CheckReturnValue} annotation.
+   * {@code @CheckReturnValue} annotation, or is covered by one of the enabled {@link RulePack}s.
    */
   @Override public Matcher<ExpressionTree> specializedMatcher() {
     return MATCHER;
   }
 
-  private Optional<Boolean> shouldCheckReturnValue(Symbol sym, VisitorState state) {
-    if (hasDirectAnnotationWithSimpleName(sym, CAN_IGNORE_RETURN_VALUE)) {
-      return Optional.of(false);
-    }
-    if (checkReturn(sym).isPresent()) {
-      return Optional.of(true);
+  private final Matcher<ExpressionTree> MATCHER = (Matcher<ExpressionTree>) (tree, state) -> {
+    Metrics metrics = metrics(state);
+    JfrEvents.Unit events = unitEvents;
+    if (metrics == null && events == null) {
+      return matches(tree, state, null);
     }
-    return Optional.empty();
-  }
-
-  private Optional<Boolean> checkEnclosingClasses(MethodSymbol method, VisitorState state) {
-    Symbol enclosingClass = enclosingClass(method);
-    while (enclosingClass instanceof ClassSymbol) {
-      Optional<Boolean> result = shouldCheckReturnValue(enclosingClass, state);
-      if (result.isPresent()) {
-        return result;
+    long start = System.nanoTime();
+    try {
+      return events == null
+          ? matches(tree, state, metrics)
+          : events.lookup(() -> describeLookup(tree), () -> matches(tree, state, metrics));
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      if (metrics != null) {
+        metrics.add(Metrics.Metric.SPECIALIZED_MATCHER_NANOS, elapsed);
+      }
+      if (events != null) {
+        events.addMatcherTime(elapsed);
       }
-      enclosingClass = enclosingClass.owner;
     }
-    return Optional.empty();
-  }
+  };
 
-  private Optional<Boolean> checkPackage(MethodSymbol method, VisitorState state) {
-    return shouldCheckReturnValue(enclosingPackage(method), state);
+  private static String describeLookup(ExpressionTree tree) {
+    Symbol sym = ASTHelpers.getSymbol(tree);
+    return sym == null ? tree.toString() : sym.owner + "#" + sym;
   }
 
-  private final Matcher<ExpressionTree> MATCHER = (Matcher<ExpressionTree>) (tree, state) -> {
+  private boolean matches(ExpressionTree tree, VisitorState state, Metrics metrics) {
     Symbol sym = ASTHelpers.getSymbol(tree);
     if (!(sym instanceof MethodSymbol)) {
       return false;
     }
     MethodSymbol method = (MethodSymbol) sym;
-    Optional<Boolean> result = shouldCheckReturnValue(method, state);
+    Optional<Boolean> result = policy.annotationVerdict(method, metrics);
     if (result.isPresent()) {
       return result.get();
     }
 
-    result = checkEnclosingClasses(method, state);
-    if (result.isPresent()) {
-      return result.get();
+    RulePack pack = policy.matchingPack(method, state.context);
+    if (pack != null) {
+      packMatchTree = tree;
+      packMatch = pack;
+      return true;
     }
-
-    result = checkPackage(method, state);
-    if (result.isPresent()) {
-      return result.get();
-    }
-
     return false;
-  };
+  }
 }
\ No newline at end of file
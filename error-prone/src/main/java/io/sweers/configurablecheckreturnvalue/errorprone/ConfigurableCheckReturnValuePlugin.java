@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.sun.source.tree.AnnotationTree;
+import com.sun.source.tree.BlockTree;
+import com.sun.source.tree.CaseTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionStatementTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MemberReferenceTree.ReferenceMode;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.ModifiersTree;
+import com.sun.source.tree.StatementTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.Plugin;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+import com.sun.tools.javac.api.BasicJavacTask;
+import com.sun.tools.javac.code.Attribute;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.model.JavacElements;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.JCTree.JCFieldAccess;
+import com.sun.tools.javac.tree.TreeInfo;
+import com.sun.tools.javac.util.Context;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.tools.Diagnostic;
+
+/**
+ * Runs {@link ConfigurableCheckReturnValue} as a plain javac plugin, without Error Prone:
+ *
+ * <pre>{@code
+ * javac -processorpath error-prone.jar \
+ *     '-Xplugin:ConfigurableCheckReturnValue CustomAnnotations=a.b.CheckResult RulePacks=streams'
+ * }</pre>
+ *
+ * <p>Options are {@code key=value} pairs with comma-separated values and the same keys as the Error
+ * Prone flags: {@code CustomAnnotations}, {@code ExcludeAnnotations}, {@code RulePacks} and the
+ * options of the enabled packs. Verdicts come from the same {@link ReturnValuePolicy}, and ignored
+ * results, the exemptions for tests and the validation of the annotations match the Error Prone
+ * check. The plugin reports errors but doesn't suggest fixes, and findings reports, patches and
+ * loop-aware messages need the Error Prone check.
+ *
+ * <p>Each class is scanned once, right after javac has analyzed it, with a single tree scanner.
+ * Nothing here loads Error Prone classes.
+ */
+public final class ConfigurableCheckReturnValuePlugin implements Plugin {
+
+  static final String NAME = "ConfigurableCheckReturnValue";
+
+  /** The check's name and alternative names, as accepted by {@code @SuppressWarnings}. */
+  private static final List<String> SUPPRESSION_NAMES = Arrays.asList(
+      NAME, "CheckReturnValue", "ResultOfMethodCallIgnored", "ReturnValueIgnored");
+
+  /** Functional interfaces used for "a block of code that's going to fail" in tests. */
+  private static final List<String> THROWING_TYPES = Arrays.asList(
+      "org.junit.function.ThrowingRunnable",
+      "org.junit.jupiter.api.function.Executable",
+      "org.assertj.core.api.ThrowableAssert.ThrowingCallable",
+      "com.google.truth.ExpectFailure.AssertionCallback",
+      "com.google.truth.ExpectFailure.DelegatedAssertionCallback",
+      "com.google.truth.ExpectFailure.StandardSubjectBuilderCallback",
+      "com.google.truth.ExpectFailure.SimpleSubjectBuilderCallback");
+
+  @Override public String getName() {
+    return NAME;
+  }
+
+  @Override public void init(JavacTask task, String... args) {
+    Map<String, List<String>> options = parseOptions(args);
+    ReturnValuePolicy policy = ReturnValuePolicy.fromOptions(options::get);
+    Context context = ((BasicJavacTask) task).getContext();
+    Trees trees = Trees.instance(task);
+    task.addTaskListener(new TaskListener() {
+      @Override public void started(TaskEvent e) {
+      }
+
+      @Override public void finished(TaskEvent e) {
+        if (e.getKind() != TaskEvent.Kind.ANALYZE || e.getTypeElement() == null) {
+          return;
+        }
+        // ANALYZE is reported per top-level class, so scan just that class.
+        TreePath path = trees.getPath(e.getTypeElement());
+        if (path != null) {
+          new Scanner(policy, context, trees, e.getCompilationUnit()).scan(path, null);
+        }
+      }
+    });
+  }
+
+  static Map<String, List<String>> parseOptions(String... args) {
+    Map<String, List<String>> options = new HashMap<>();
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (equals <= 0) {
+        throw new IllegalArgumentException(
+            "Expected a key=value option for -Xplugin:" + NAME + " but got '" + arg + "'");
+      }
+      String value = arg.substring(equals + 1);
+      options.put(arg.substring(0, equals),
+          value.isEmpty() ? Collections.emptyList() : Arrays.asList(value.split(",")));
+    }
+    return options;
+  }
+
+  private static final class Scanner extends TreePathScanner<Void, Void> {
+
+    private final ReturnValuePolicy policy;
+    private final Context context;
+    private final Trees trees;
+    private final Types types;
+    private final JavacElements elements;
+    private final CompilationUnitTree unit;
+
+    Scanner(ReturnValuePolicy policy, Context context, Trees trees, CompilationUnitTree unit) {
+      this.policy = policy;
+      this.context = context;
+      this.trees = trees;
+      this.types = Types.instance(context);
+      this.elements = JavacElements.instance(context);
+      this.unit = unit;
+    }
+
+    @Override public Void visitClass(ClassTree tree, Void unused) {
+      if (isSuppressed(tree.getModifiers())) {
+        return null;
+      }
+      ClassSymbol clazz = (ClassSymbol) TreeInfo.symbolFor((JCTree) tree);
+      if (clazz != null && policy.checkReturn(clazz).isPresent()
+          && ReturnValuePolicy.canIgnore(clazz)) {
+        report(tree, String.format(ReturnValuePolicy.BOTH_ERROR, "class"));
+      }
+      return super.visitClass(tree, unused);
+    }
+
+    @Override public Void visitMethod(MethodTree tree, Void unused) {
+      if (isSuppressed(tree.getModifiers())) {
+        return null;
+      }
+      MethodSymbol method = (MethodSymbol) TreeInfo.symbolFor((JCTree) tree);
+      if (method != null) {
+        validate(tree, method);
+      }
+      return super.visitMethod(tree, unused);
+    }
+
+    @Override public Void visitVariable(VariableTree tree, Void unused) {
+      if (isSuppressed(tree.getModifiers())) {
+        return null;
+      }
+      return super.visitVariable(tree, unused);
+    }
+
+    @Override public Void visitMethodInvocation(MethodInvocationTree tree, Void unused) {
+      Symbol sym = TreeInfo.symbol((JCTree) tree.getMethodSelect());
+      if (sym instanceof MethodSymbol
+          && isIgnored(getCurrentPath())
+          && !isSuper(tree.getMethodSelect())
+          && !isVoid(((JCTree) tree).type)
+          && !isExpectedExceptionTest(tree)) {
+        check(tree, (MethodSymbol) sym);
+      }
+      return super.visitMethodInvocation(tree, unused);
+    }
+
+    @Override public Void visitMemberReference(MemberReferenceTree tree, Void unused) {
+      Symbol sym = ((JCTree.JCMemberReference) tree).sym;
+      Type type = ((JCTree) tree).type;
+      if (tree.getMode() == ReferenceMode.INVOKE
+          && sym instanceof MethodSymbol
+          && returnsExactlyVoid(type)
+          && !isVoid(((MethodSymbol) sym).getReturnType())
+          && !isThrowingType(type)) {
+        check(tree, (MethodSymbol) sym);
+      }
+      return super.visitMemberReference(tree, unused);
+    }
+
+    private void check(Tree tree, MethodSymbol method) {
+      Optional<Boolean> verdict = policy.annotationVerdict(method);
+      if (verdict.isPresent()) {
+        if (verdict.get()) {
+          report(tree, ReturnValuePolicy.SUMMARY);
+        }
+        return;
+      }
+      RulePack pack = policy.matchingPack(method, context);
+      if (pack != null) {
+        report(tree, pack.message(method));
+      }
+    }
+
+    /** The annotation validation of {@code ConfigurableCheckReturnValue.matchMethod}. */
+    private void validate(MethodTree tree, MethodSymbol method) {
+      Optional<String> checkReturn = policy.checkReturn(method);
+      boolean canIgnore = ReturnValuePolicy.canIgnore(method);
+      if (checkReturn.isPresent() && canIgnore) {
+        report(tree, String.format(ReturnValuePolicy.BOTH_ERROR, "method"));
+        return;
+      }
+      if ((checkReturn.isPresent() || canIgnore)
+          && method.getKind() == ElementKind.METHOD
+          && isVoid(method.getReturnType())) {
+        String annotation = checkReturn.orElse(ReturnValuePolicy.CAN_IGNORE_RETURN_VALUE);
+        report(tree, String.format(ReturnValuePolicy.VOID_ERROR,
+            ReturnValuePolicy.shortName(annotation)));
+      }
+    }
+
+    private void report(Tree tree, String message) {
+      trees.printMessage(Diagnostic.Kind.ERROR, "[" + NAME + "] " + message, tree, unit);
+    }
+
+    /** An expression statement, or the body of a lambda whose result is discarded. */
+    private boolean isIgnored(TreePath path) {
+      Tree parent = path.getParentPath().getLeaf();
+      return parent.getKind() == Tree.Kind.EXPRESSION_STATEMENT
+          || (parent.getKind() == Tree.Kind.LAMBDA_EXPRESSION
+          && returnsExactlyVoid(((JCTree) parent).type));
+    }
+
+    /** Not {@code isVoidType}-like: only a {@code void} descriptor silently drops the result. */
+    private boolean returnsExactlyVoid(Type functionalInterface) {
+      return functionalInterface != null
+          && types.findDescriptorType(functionalInterface).getReturnType().getKind()
+          == TypeKind.VOID;
+    }
+
+    private boolean isVoid(Type type) {
+      if (type == null) {
+        return false;
+      }
+      if (type.getKind() == TypeKind.VOID) {
+        return true;
+      }
+      TypeElement javaLangVoid = elements.getTypeElement("java.lang.Void");
+      return javaLangVoid != null && types.isSameType(type, ((ClassSymbol) javaLangVoid).type);
+    }
+
+    private static boolean isSuper(ExpressionTree methodSelect) {
+      return methodSelect instanceof IdentifierTree
+          && ((IdentifierTree) methodSelect).getName().contentEquals("super");
+    }
+
+    private boolean isSuppressed(ModifiersTree modifiers) {
+      for (AnnotationTree annotation : modifiers.getAnnotations()) {
+        Symbol type = TreeInfo.symbol((JCTree) annotation.getAnnotationType());
+        if (type == null || !type.getQualifiedName().contentEquals("java.lang.SuppressWarnings")) {
+          continue;
+        }
+        Attribute.Compound compound = ((JCTree.JCAnnotation) annotation).attribute;
+        if (compound == null) {
+          continue;
+        }
+        for (Object value : compound.getElementValues().values()) {
+          List<Attribute> names = value instanceof Attribute.Array
+              ? Arrays.asList(((Attribute.Array) value).values)
+              : Collections.singletonList((Attribute) value);
+          for (Attribute name : names) {
+            if (SUPPRESSION_NAMES.contains(name.getValue())) {
+              return true;
+            }
+          }
+        }
+      }
+      return false;
+    }
+
+    // The exemptions of AbstractReturnValueIgnored.expectedExceptionTest.
+
+    private boolean isExpectedExceptionTest(MethodInvocationTree tree) {
+      if (isMockitoInvocation(tree)) {
+        return true;
+      }
+      TreePath path = getCurrentPath();
+      StatementTree statement = null;
+      List<? extends StatementTree> statements = null;
+      boolean inTry = false;
+      boolean inThrowingBlock = false;
+      boolean sawLambdaOrClass = false;
+      for (TreePath p = path; p != null; p = p.getParentPath()) {
+        Tree leaf = p.getLeaf();
+        if (statement == null && leaf instanceof StatementTree) {
+          statement = (StatementTree) leaf;
+        }
+        if (statements == null && (leaf instanceof BlockTree || leaf instanceof CaseTree)) {
+          statements = leaf instanceof BlockTree
+              ? ((BlockTree) leaf).getStatements()
+              : ((CaseTree) leaf).getStatements();
+        }
+        if (leaf.getKind() == Tree.Kind.TRY) {
+          inTry = true;
+        }
+        if (!sawLambdaOrClass && (leaf.getKind() == Tree.Kind.LAMBDA_EXPRESSION
+            || leaf instanceof ClassTree)) {
+          sawLambdaOrClass = true;
+          inThrowingBlock = isThrowingType(typeOf(leaf));
+        }
+      }
+      if (statement == null || statements == null) {
+        return false;
+      }
+      int index = statements.indexOf(statement);
+      boolean last = index != -1 && index == statements.size() - 1;
+
+      // expectedException.expect(Foo.class); me();
+      if (last && index > 0 && isCall(statements.get(index - 1), this::isExpectedExceptionCall)) {
+        return true;
+      }
+      // try { me(); fail(); } catch (Throwable t) {}
+      if (inTry && index != -1 && index + 1 < statements.size()
+          && isCall(statements.get(index + 1), this::isFailCall)) {
+        return true;
+      }
+      // assertThrows(Throwable.class, () => { me(); })
+      boolean inLambda = path.getParentPath().getLeaf().getKind() == Tree.Kind.LAMBDA_EXPRESSION;
+      return (last || inLambda) && inThrowingBlock;
+    }
+
+    private static Type typeOf(Tree tree) {
+      if (tree instanceof JCTree.JCClassDecl) {
+        Symbol sym = ((JCTree.JCClassDecl) tree).sym;
+        return sym != null ? sym.type : null;
+      }
+      return ((JCTree) tree).type;
+    }
+
+    private boolean isMockitoInvocation(MethodInvocationTree tree) {
+      if (!(tree.getMethodSelect() instanceof JCFieldAccess)) {
+        return false;
+      }
+      ExpressionTree receiver = ((JCFieldAccess) tree.getMethodSelect()).getExpression();
+      if (!(receiver instanceof MethodInvocationTree)) {
+        return false;
+      }
+      MethodInvocationTree call = (MethodInvocationTree) receiver;
+      Symbol sym = TreeInfo.symbol((JCTree) call.getMethodSelect());
+      if (!(sym instanceof MethodSymbol)) {
+        return false;
+      }
+      return isStatic(sym, "org.mockito.Mockito", "verify")
+          || isInstance(call, sym, "org.mockito.stubbing.Stubber", "when")
+          || isInstance(call, sym, "org.mockito.InOrder", "verify");
+    }
+
+    private boolean isExpectedExceptionCall(MethodInvocationTree call, Symbol sym) {
+      Type receiver = receiverType(call, sym);
+      return !sym.isStatic() && receiver != null
+          && receiver.tsym.getQualifiedName().contentEquals("org.junit.rules.ExpectedException");
+    }
+
+    private boolean isFailCall(MethodInvocationTree call, Symbol sym) {
+      return isInstance(call, sym, "com.google.common.truth.AbstractVerb", "fail")
+          || isInstance(call, sym, "com.google.common.truth.StandardSubjectBuilder", "fail")
+          || isStatic(sym, "org.junit.Assert", "fail")
+          || isStatic(sym, "junit.framework.Assert", "fail")
+          || isStatic(sym, "junit.framework.TestCase", "fail");
+    }
+
+    private interface CallMatcher {
+      boolean matches(MethodInvocationTree call, Symbol sym);
+    }
+
+    private static boolean isCall(StatementTree statement, CallMatcher matcher) {
+      if (!(statement instanceof ExpressionStatementTree)) {
+        return false;
+      }
+      ExpressionTree expression = ((ExpressionStatementTree) statement).getExpression();
+      if (!(expression instanceof MethodInvocationTree)) {
+        return false;
+      }
+      MethodInvocationTree call = (MethodInvocationTree) expression;
+      Symbol sym = TreeInfo.symbol((JCTree) call.getMethodSelect());
+      return sym instanceof MethodSymbol && matcher.matches(call, sym);
+    }
+
+    private static boolean isStatic(Symbol sym, String owner, String name) {
+      return sym.isStatic()
+          && sym.name.contentEquals(name)
+          && sym.owner.getQualifiedName().contentEquals(owner);
+    }
+
+    private boolean isInstance(MethodInvocationTree call, Symbol sym, String owner,
+        String name) {
+      if (sym.isStatic() || !sym.name.contentEquals(name)) {
+        return false;
+      }
+      Type receiver = receiverType(call, sym);
+      TypeElement ownerElement = elements.getTypeElement(owner);
+      return receiver != null && ownerElement != null
+          && types.isSubtype(
+              types.erasure(receiver), types.erasure(((ClassSymbol) ownerElement).type));
+    }
+
+    private static Type receiverType(MethodInvocationTree call, Symbol sym) {
+      if (call.getMethodSelect() instanceof JCFieldAccess) {
+        return ((JCFieldAccess) call.getMethodSelect()).getExpression().type;
+      }
+      return sym.owner.type;
+    }
+
+    private boolean isThrowingType(Type type) {
+      if (type == null) {
+        return false;
+      }
+      for (String name : THROWING_TYPES) {
+        TypeElement element = elements.getTypeElement(name);
+        if (element != null
+            && types.isSubtype(types.erasure(type), types.erasure(((ClassSymbol) element).type))) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.google.errorprone.BugPattern.SeverityLevel;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Log;
+import com.sun.tools.javac.util.Options;
+import com.sun.tools.javac.util.Position;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Streams findings to a SARIF or JSON-lines file as they are produced. Nothing is buffered beyond
+ * the underlying {@link BufferedWriter}, which is flushed after every analyzed compilation unit and
+ * closed when javac finishes.
+ *
+ * <p>If the configured path is a directory, every javac task gets its own uniquely named file in
+ * it, so parallel compilations never write to the same file. A plain file belongs to the javac task
+ * that wrote it, identified by its output directory, which is recorded in the report, and is locked
+ * while that task writes it. A task that finds the file locked or owned by another output directory
+ * warns once and writes its findings to a file of its own next to it instead of replacing them.
+ */
+final class FindingsReport implements Closeable {
+
+  private static final Context.Key<FindingsReport> KEY = new Context.Key<>();
+
+  private static final String SARIF_SCHEMA =
+      "https://schemastore.azurewebsites.net/schemas/json/sarif-2.1.0.json";
+
+  /** Matches the quoted output directory recorded in a report, see {@link #owner(Path)}. */
+  private static final Pattern OUTPUT_DIRECTORY =
+      Pattern.compile("\"outputDirectory\": ?(\"(?:[^\"\\\\]|\\\\.)*\")");
+  /** The SARIF header or first JSON line holding the output directory is within these bytes. */
+  private static final int OWNER_BYTES = 16 * 1024;
+
+  enum Format {
+    SARIF(".sarif"),
+    JSONL(".jsonl");
+
+    final String extension;
+
+    Format(String extension) {
+      this.extension = extension;
+    }
+
+    static Format parse(String value) {
+      switch (value.toLowerCase(Locale.US)) {
+        case "sarif":
+          return SARIF;
+        case "json":
+        case "jsonl":
+          return JSONL;
+        default:
+          throw new IllegalArgumentException("Unknown report format: " + value);
+      }
+    }
+  }
+
+  /** Stable rule IDs for everything {@link ConfigurableCheckReturnValue} reports. */
+  enum Rule {
+    IGNORED_RETURN_VALUE("ConfigurableCheckReturnValue",
+        "Ignored return value of method that is annotated with @CheckReturnValue or specified"
+            + " alternatives"),
+    CONFLICTING_ANNOTATIONS("ConfigurableCheckReturnValue/ConflictingAnnotations",
+        "@CheckReturnValue and @CanIgnoreReturnValue cannot both be applied to the same element"),
+    VOID_RETURNING_METHOD("ConfigurableCheckReturnValue/VoidReturningMethod",
+        "@CheckReturnValue and @CanIgnoreReturnValue may not be applied to void-returning"
+            + " methods");
+
+    final String id;
+    final String description;
+
+    Rule(String id, String description) {
+      this.id = id;
+      this.description = description;
+    }
+  }
+
+  private final Format format;
+  private final Writer writer;
+  /** The quoted output directory of the compilation writing this report. */
+  private final String outputDirectory;
+  private boolean firstResult = true;
+  private boolean closed;
+
+  private FindingsReport(Format format, Writer writer, String outputDirectory)
+      throws IOException {
+    this.format = format;
+    this.writer = writer;
+    this.outputDirectory = outputDirectory;
+    if (format == Format.SARIF) {
+      writeSarifHeader();
+      // Makes the owner visible to a concurrent task opening the same file.
+      writer.flush();
+    }
+  }
+
+  /**
+   * Returns the report for the compilation owning {@code context}, opening it on first use. The
+   * report is closed automatically when the compilation finishes.
+   */
+  static FindingsReport instance(Context context, Path path, Format format) {
+    FindingsReport report = context.get(KEY);
+    if (report == null) {
+      String outputDirectory = Options.instance(context).get("-d");
+      Log log = Log.instance(context);
+      report = open(path, format, outputDirectory == null ? "" : outputDirectory,
+          warning -> log.rawWarning(Position.NOPOS, warning));
+      context.put(KEY, report);
+      CompilationEvents events = CompilationEvents.instance(context);
+      events.onUnitFinished(report::flush);
+      events.onCompilationFinished(report::close);
+    }
+    return report;
+  }
+
+  /**
+   * Opens a report for the compilation into {@code outputDirectory}. If {@code path} is a plain
+   * file that another task is writing, or that holds the findings of a compilation into another
+   * directory, e.g. a stale report from before {@code -d} moved, the report goes to a file named
+   * after the output directory next to it instead, and {@code warnings} is told where.
+   */
+  static FindingsReport open(Path path, Format format, String outputDirectory,
+      Consumer<String> warnings) {
+    String owner = Json.quote(outputDirectory);
+    try {
+      if (Files.isDirectory(path)) {
+        Path target = Files.createTempFile(path, "crv-", format.extension);
+        return new FindingsReport(
+            format, Files.newBufferedWriter(target, StandardCharsets.UTF_8), owner);
+      }
+      Path parent = path.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+
+      String conflict;
+      FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE);
+      try {
+        if (tryLock(channel) == null) {
+          conflict = "is being written by another javac task";
+        } else {
+          String previousOwner = owner(channel);
+          if (previousOwner == null || previousOwner.equals(owner)) {
+            channel.truncate(0);
+            // Closing the writer closes the channel, which releases the lock.
+            FindingsReport report = new FindingsReport(format,
+                new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.name())),
+                owner);
+            channel = null;
+            return report;
+          }
+          conflict = "holds the findings of the compilation into " + previousOwner;
+        }
+      } finally {
+        if (channel != null) {
+          channel.close();
+        }
+      }
+
+      Path fallback = fallback(path, format, outputDirectory);
+      warnings.accept("ReportFile " + path + " " + conflict + ", the findings of the compilation"
+          + " into " + owner + " are written to " + fallback + " instead. Give each javac task its"
+          + " own report file, or set ReportFile to a directory.");
+      return new FindingsReport(
+          format, Files.newBufferedWriter(fallback, StandardCharsets.UTF_8), owner);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not open findings report at " + path, e);
+    }
+  }
+
+  /** Locks {@code channel}, or returns {@code null} if another task holds the lock. */
+  static FileLock tryLock(FileChannel channel) throws IOException {
+    try {
+      return channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // Held by another task in this JVM, e.g. a Gradle daemon compiling in parallel.
+      return null;
+    }
+  }
+
+  /** The quoted output directory recorded in the file open in {@code channel}, or null. */
+  static String owner(FileChannel channel) throws IOException {
+    ByteBuffer head = ByteBuffer.allocate(OWNER_BYTES);
+    while (head.hasRemaining() && channel.read(head, head.position()) > 0) {
+      // Reads until the buffer is full or the file ends.
+    }
+    Matcher matcher = OUTPUT_DIRECTORY.matcher(
+        new String(head.array(), 0, head.position(), StandardCharsets.UTF_8));
+    return matcher.find() ? matcher.group(1) : null;
+  }
+
+  /**
+   * A file next to {@code path} for the compilation into {@code outputDirectory}, the same one on
+   * every build so fallback reports don't pile up.
+   */
+  static Path fallback(Path path, Format format, String outputDirectory) {
+    return fallback(path, format.extension, outputDirectory);
+  }
+
+  /** As {@link #fallback(Path, Format, String)}, with {@code extension} if the path has none. */
+  static Path fallback(Path path, String defaultExtension, String outputDirectory) {
+    String name = path.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    String stem = dot > 0 ? name.substring(0, dot) : name;
+    String extension = dot > 0 ? name.substring(dot) : defaultExtension;
+    return path.resolveSibling(
+        String.format(Locale.ROOT, "%s-%08x%s", stem, outputDirectory.hashCode(), extension));
+  }
+
+  void write(Rule rule, SeverityLevel severity, String message, String uri, long line,
+      long column) {
+    try {
+      if (format == Format.SARIF) {
+        if (!firstResult) {
+          writer.write(",");
+        }
+        writer.write("\n        {\"ruleId\":");
+        writer.write(Json.quote(rule.id));
+        writer.write(",\"level\":");
+        writer.write(Json.quote(sarifLevel(severity)));
+        writer.write(",\"message\":{\"text\":");
+        writer.write(Json.quote(message));
+        writer.write("},\"locations\":[{\"physicalLocation\":{\"artifactLocation\":{\"uri\":");
+        writer.write(Json.quote(uri));
+        writer.write("},\"region\":{\"startLine\":");
+        writer.write(Long.toString(line));
+        writer.write(",\"startColumn\":");
+        writer.write(Long.toString(column));
+        writer.write("}}}]}");
+      } else {
+        writer.write("{\"ruleId\":");
+        writer.write(Json.quote(rule.id));
+        writer.write(",\"severity\":");
+        writer.write(Json.quote(severity.name()));
+        writer.write(",\"message\":");
+        writer.write(Json.quote(message));
+        writer.write(",\"uri\":");
+        writer.write(Json.quote(uri));
+        writer.write(",\"line\":");
+        writer.write(Long.toString(line));
+        writer.write(",\"column\":");
+        writer.write(Long.toString(column));
+        writer.write(",\"outputDirectory\":");
+        writer.write(outputDirectory);
+        writer.write("}\n");
+      }
+      firstResult = false;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  void flush() {
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (format == Format.SARIF) {
+        writer.write("\n      ]\n    }\n  ]\n}\n");
+      }
+      writer.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void writeSarifHeader() throws IOException {
+    writer.write("{\n  \"$schema\": " + Json.quote(SARIF_SCHEMA) + ",\n");
+    writer.write("  \"version\": \"2.1.0\",\n");
+    writer.write("  \"runs\": [\n    {\n");
+    writer.write("      \"tool\": {\"driver\": {\"name\": \"ConfigurableCheckReturnValue\", ");
+    writer.write("\"rules\": [");
+    Rule[] rules = Rule.values();
+    for (int i = 0; i < rules.length; i++) {
+      if (i > 0) {
+        writer.write(", ");
+      }
+      writer.write("{\"id\": " + Json.quote(rules[i].id) + ", \"shortDescription\": {\"text\": "
+          + Json.quote(rules[i].description) + "}}");
+    }
+    writer.write("]}},\n");
+    writer.write("      \"properties\": {\"outputDirectory\": " + outputDirectory + "},\n");
+    writer.write("      \"results\": [");
+  }
+
+  private static String sarifLevel(SeverityLevel severity) {
+    switch (severity) {
+      case ERROR:
+        return "error";
+      case WARNING:
+        return "warning";
+      default:
+        return "note";
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Entry point for the check's JFR events, which show which compilation units are expensive and
+ * which lookups are slow. See {@link JfrRecorder} for the events themselves.
+ *
+ * <p>Nothing here references {@code jdk.jfr}, so this class loads on runtimes without JFR, e.g.
+ * OpenJDK 8 before 8u262 or a runtime image without the {@code jdk.jfr} module. There
+ * {@link #beginUnit} always returns {@code null} and {@link JfrRecorder} is never loaded.
+ */
+final class JfrEvents {
+
+  private static final boolean AVAILABLE = isAvailable();
+
+  private JfrEvents() {
+  }
+
+  /** Collects the cost of one compilation unit, committed as one event. */
+  interface Unit {
+
+    void invocation();
+
+    void diagnostic();
+
+    /** Adds time spent matching an invocation or member reference, matchers included. */
+    void addCheckTime(long nanos);
+
+    void addMatcherTime(long nanos);
+
+    void addExpectedExceptionTime(long nanos);
+
+    /**
+     * Runs {@code lookup}, recording it as an event if it is slow. {@code method} names the looked
+     * up method and is only called for slow lookups.
+     */
+    boolean lookup(Supplier<String> method, BooleanSupplier lookup);
+
+    /** Commits the event; further calls do nothing. */
+    void commit();
+  }
+
+  /**
+   * Starts collecting the cost of the compilation unit at {@code path}. Returns {@code null},
+   * which callers check before doing any timing, unless JFR is available and recording the
+   * compilation unit event.
+   */
+  static Unit beginUnit(String path) {
+    return AVAILABLE ? JfrRecorder.beginUnit(path) : null;
+  }
+
+  private static boolean isAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event", false, JfrEvents.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+}
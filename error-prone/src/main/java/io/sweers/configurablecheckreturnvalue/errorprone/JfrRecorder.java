@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * The JFR side of {@link JfrEvents}, only loaded when {@code jdk.jfr} is available.
+ *
+ * <p>{@value #UNIT_EVENT} is committed once per compilation unit. Its duration spans from when
+ * Error Prone starts on the unit until the unit is analyzed, covering every check that runs. For
+ * the first unit of a compilation it spans until the next unit starts instead, since the listener
+ * that observes the end of a unit can only be registered while that unit is being scanned. The
+ * cost of this check alone is the event's check time. {@value #SLOW_LOOKUP_EVENT} is committed for every
+ * specialized matcher lookup that takes longer than its threshold, 1 ms unless the recording's
+ * settings say otherwise.
+ */
+final class JfrRecorder implements JfrEvents.Unit {
+
+  static final String UNIT_EVENT = "io.sweers.configurablecheckreturnvalue.CompilationUnit";
+  static final String SLOW_LOOKUP_EVENT = "io.sweers.configurablecheckreturnvalue.SlowLookup";
+
+  @Name(UNIT_EVENT)
+  @Label("Compilation Unit")
+  @Category({"Java Compiler", "ConfigurableCheckReturnValue"})
+  @Description("The cost of ConfigurableCheckReturnValue in one compilation unit")
+  @StackTrace(false)
+  static final class UnitEvent extends Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Invocations")
+    long invocations;
+
+    @Label("Diagnostics")
+    long diagnostics;
+
+    @Label("Check Time")
+    @Description("Time spent matching invocations and member references, the check's cost")
+    @Timespan(Timespan.NANOSECONDS)
+    long checkTime;
+
+    @Label("Specialized Matcher Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long matcherTime;
+
+    @Label("Expected Exception Test Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long expectedExceptionTime;
+  }
+
+  @Name(SLOW_LOOKUP_EVENT)
+  @Label("Slow Lookup")
+  @Category({"Java Compiler", "ConfigurableCheckReturnValue"})
+  @Description("A specialized matcher lookup that exceeded the threshold")
+  @Threshold("1 ms")
+  static final class SlowLookupEvent extends Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Method")
+    String method;
+
+    @Label("Matched")
+    boolean matched;
+  }
+
+  private final UnitEvent event;
+  private final boolean slowLookups;
+  private boolean committed;
+
+  private JfrRecorder(UnitEvent event, boolean slowLookups) {
+    this.event = event;
+    this.slowLookups = slowLookups;
+  }
+
+  static JfrRecorder beginUnit(String path) {
+    UnitEvent event = new UnitEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.path = path;
+    event.begin();
+    return new JfrRecorder(event,
+        EventType.getEventType(SlowLookupEvent.class).isEnabled());
+  }
+
+  @Override public void invocation() {
+    event.invocations++;
+  }
+
+  @Override public void diagnostic() {
+    event.diagnostics++;
+  }
+
+  @Override public void addCheckTime(long nanos) {
+    event.checkTime += nanos;
+  }
+
+  @Override public void addMatcherTime(long nanos) {
+    event.matcherTime += nanos;
+  }
+
+  @Override public void addExpectedExceptionTime(long nanos) {
+    event.expectedExceptionTime += nanos;
+  }
+
+  @Override public boolean lookup(Supplier<String> method, BooleanSupplier lookup) {
+    if (!slowLookups) {
+      return lookup.getAsBoolean();
+    }
+    SlowLookupEvent lookupEvent = new SlowLookupEvent();
+    lookupEvent.begin();
+    boolean matched = lookup.getAsBoolean();
+    lookupEvent.end();
+    if (lookupEvent.shouldCommit()) {
+      lookupEvent.path = event.path;
+      lookupEvent.method = method.get();
+      lookupEvent.matched = matched;
+      lookupEvent.commit();
+    }
+    return matched;
+  }
+
+  @Override public void commit() {
+    if (committed) {
+      return;
+    }
+    committed = true;
+    event.end();
+    event.commit();
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.util.ASTHelpers;
+import com.sun.source.tree.BlockTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.DoWhileLoopTree;
+import com.sun.source.tree.EnhancedForLoopTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.ForLoopTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.tree.WhileLoopTree;
+import com.sun.source.util.TreeScanner;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.util.Context;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loop nesting depth of the invocations and method references in a compilation unit.
+ *
+ * <p>Each method body is scanned once, from {@code matchMethod}, and the initializer blocks and
+ * field initializers of each class once, from {@code matchClass}. The depth of every call inside a
+ * loop is remembered by tree identity. Looking up a finding's depth is then a map lookup instead of
+ * a walk up {@link VisitorState#getPath()}. Loop conditions and updates count as part of the loop,
+ * as do lambdas and method references passed to an instance method of an iteration API such as
+ * {@code Iterable.forEach} or {@code Stream.map}. Of {@code Map}, only {@code forEach} and
+ * {@code replaceAll} iterate; {@code computeIfAbsent}, {@code merge} and the like call their
+ * function at most once.
+ */
+final class LoopContext {
+
+  private static final String[] ITERATION_TYPES = {
+      "java.lang.Iterable",
+      "java.util.Iterator",
+      "java.util.Spliterator",
+      "java.util.stream.BaseStream"
+  };
+  private static final String MAP_TYPE = "java.util.Map";
+  private static final Set<String> MAP_ITERATION_METHODS =
+      new HashSet<>(Arrays.asList("forEach", "replaceAll"));
+
+  private final Map<Tree, Integer> depths = new IdentityHashMap<>();
+  private final Map<Symbol, Boolean> iterationOwners = new HashMap<>();
+  private final Map<Symbol, Boolean> mapOwners = new HashMap<>();
+  private final List<Type> iterationTypes = new ArrayList<>();
+  private Type mapType;
+  private Context context;
+
+  /** Forgets everything recorded for the previous compilation unit. */
+  void reset() {
+    depths.clear();
+  }
+
+  /** Returns the loop nesting depth recorded for {@code tree}, or 0 if it is not in a loop. */
+  int depth(Tree tree) {
+    Integer depth = depths.get(tree);
+    return depth == null ? 0 : depth;
+  }
+
+  /** Records the loop depth of every call in {@code method}, excluding nested class bodies. */
+  void scan(MethodTree method, VisitorState state) {
+    if (method.getBody() == null) {
+      return;
+    }
+    init(state);
+    new DepthScanner(state.getTypes()).scan(method.getBody(), 0);
+  }
+
+  /**
+   * Records the loop depth of every call in the initializer blocks and field initializers of
+   * {@code clazz}, which no {@code matchMethod} call covers.
+   */
+  void scanInitializers(ClassTree clazz, VisitorState state) {
+    DepthScanner scanner = null;
+    for (Tree member : clazz.getMembers()) {
+      Tree initializer;
+      if (member instanceof BlockTree) {
+        initializer = member;
+      } else if (member instanceof VariableTree) {
+        initializer = ((VariableTree) member).getInitializer();
+      } else {
+        continue;
+      }
+      if (initializer != null) {
+        if (scanner == null) {
+          init(state);
+          scanner = new DepthScanner(state.getTypes());
+        }
+        scanner.scan(initializer, 0);
+      }
+    }
+  }
+
+  private void init(VisitorState state) {
+    if (context == state.context) {
+      return;
+    }
+    context = state.context;
+    iterationOwners.clear();
+    mapOwners.clear();
+    iterationTypes.clear();
+    for (String name : ITERATION_TYPES) {
+      Type type = state.getTypeFromString(name);
+      if (type != null) {
+        iterationTypes.add(state.getTypes().erasure(type));
+      }
+    }
+    Type type = state.getTypeFromString(MAP_TYPE);
+    mapType = type == null ? null : state.getTypes().erasure(type);
+  }
+
+  private boolean isIterationCall(MethodInvocationTree tree, Types types) {
+    Symbol sym = ASTHelpers.getSymbol(tree);
+    if (!(sym instanceof MethodSymbol) || sym.isStatic()) {
+      return false;
+    }
+    boolean iteration = iterationOwners.computeIfAbsent(sym.owner, owner -> {
+      Type ownerType = types.erasure(owner.type);
+      for (Type iterationType : iterationTypes) {
+        if (types.isSubtype(ownerType, iterationType)) {
+          return true;
+        }
+      }
+      return false;
+    });
+    if (iteration || mapType == null || !MAP_ITERATION_METHODS.contains(sym.name.toString())) {
+      return iteration;
+    }
+    return mapOwners.computeIfAbsent(sym.owner,
+        owner -> types.isSubtype(types.erasure(owner.type), mapType));
+  }
+
+  private final class DepthScanner extends TreeScanner<Void, Integer> {
+
+    private final Types types;
+
+    DepthScanner(Types types) {
+      this.types = types;
+    }
+
+    @Override public Void visitClass(ClassTree tree, Integer depth) {
+      // Nested class methods get their own matchMethod call.
+      return null;
+    }
+
+    @Override public Void visitForLoop(ForLoopTree tree, Integer depth) {
+      scan(tree.getInitializer(), depth);
+      scan(tree.getCondition(), depth + 1);
+      scan(tree.getUpdate(), depth + 1);
+      scan(tree.getStatement(), depth + 1);
+      return null;
+    }
+
+    @Override public Void visitEnhancedForLoop(EnhancedForLoopTree tree, Integer depth) {
+      scan(tree.getVariable(), depth);
+      scan(tree.getExpression(), depth);
+      scan(tree.getStatement(), depth + 1);
+      return null;
+    }
+
+    @Override public Void visitWhileLoop(WhileLoopTree tree, Integer depth) {
+      scan(tree.getCondition(), depth + 1);
+      scan(tree.getStatement(), depth + 1);
+      return null;
+    }
+
+    @Override public Void visitDoWhileLoop(DoWhileLoopTree tree, Integer depth) {
+      scan(tree.getStatement(), depth + 1);
+      scan(tree.getCondition(), depth + 1);
+      return null;
+    }
+
+    @Override public Void visitMethodInvocation(MethodInvocationTree tree, Integer depth) {
+      record(tree, depth);
+      scan(tree.getTypeArguments(), depth);
+      scan(tree.getMethodSelect(), depth);
+      boolean iteration = isIterationCall(tree, types);
+      for (ExpressionTree argument : tree.getArguments()) {
+        boolean perElement = iteration
+            && (argument.getKind() == Tree.Kind.LAMBDA_EXPRESSION
+            || argument.getKind() == Tree.Kind.MEMBER_REFERENCE);
+        scan(argument, perElement ? depth + 1 : depth);
+      }
+      return null;
+    }
+
+    @Override public Void visitMemberReference(MemberReferenceTree tree, Integer depth) {
+      record(tree, depth);
+      return super.visitMemberReference(tree, depth);
+    }
+
+    private void record(Tree tree, int depth) {
+      if (depth > 0) {
+        depths.put(tree, depth);
+      }
+    }
+  }
+}
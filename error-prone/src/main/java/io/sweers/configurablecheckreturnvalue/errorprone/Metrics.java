@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Log;
+import com.sun.tools.javac.util.Options;
+import com.sun.tools.javac.util.Position;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Counters and cumulative timers of what {@link ConfigurableCheckReturnValue} does, enabled with
+ * {@code -XepOpt:Metrics=true} or {@code -XepOpt:MetricsFile=<path>}.
+ *
+ * <p>Each compilation counts into plain fields of its own instance, since a compilation only runs
+ * on one thread. After every compilation unit the increments are added to process-wide
+ * {@link LongAdder}s, which parallel compilations in a Gradle daemon update without contention and
+ * which are exposed over JMX as {@value #OBJECT_NAME}. With {@code MetricsFile}, the metrics of
+ * the compilation alone are written as JSON when it finishes. As with {@code ReportFile}, a
+ * directory gets one uniquely named file per javac task, and a plain file belongs to the task that
+ * wrote it, identified by the output directory recorded in it. Another task warns and writes its
+ * metrics to a file of its own next to it instead of replacing them, see {@link FindingsReport}.
+ */
+final class Metrics {
+
+  static final String OBJECT_NAME = "io.sweers.configurablecheckreturnvalue:type=Metrics";
+
+  private static final Context.Key<Metrics> KEY = new Context.Key<>();
+
+  /** A metric, named {@code group.key} in the JSON dump and over JMX, or just {@code key}. */
+  enum Metric {
+    INVOCATIONS(null, "invocations"),
+    MEMBER_REFERENCES(null, "memberReferences"),
+    REJECTED_CONSTRUCTOR_REFERENCE("rejected", "constructorReference"),
+    REJECTED_RESULT_USED("rejected", "resultUsed"),
+    REJECTED_SUPER_CALL("rejected", "superCall"),
+    REJECTED_VOID_RETURN("rejected", "voidReturn"),
+    REJECTED_THROWING_FUNCTIONAL_INTERFACE("rejected", "throwingFunctionalInterface"),
+    REJECTED_NOT_MATCHED("rejected", "notMatched"),
+    REJECTED_EXPECTED_EXCEPTION("rejected", "expectedException"),
+    /** Verdict lookups, by where the deciding annotation was found. */
+    VERDICT_METHOD("verdicts", "method"),
+    VERDICT_CLASS("verdicts", "class"),
+    VERDICT_PACKAGE("verdicts", "package"),
+    VERDICT_NONE("verdicts", "none"),
+    DIAGNOSTICS(null, "diagnostics"),
+    EXPECTED_EXCEPTION_EVALUATIONS(null, "expectedExceptionEvaluations"),
+    MATCH_METHOD_INVOCATION_NANOS("nanos", "matchMethodInvocation"),
+    MATCH_MEMBER_REFERENCE_NANOS("nanos", "matchMemberReference"),
+    SPECIALIZED_MATCHER_NANOS("nanos", "specializedMatcher"),
+    EXPECTED_EXCEPTION_TEST_NANOS("nanos", "expectedExceptionTest");
+
+    final String group;
+    final String key;
+
+    Metric(String group, String key) {
+      this.group = group;
+      this.key = key;
+    }
+
+    String qualifiedName() {
+      return group == null ? key : group + "." + key;
+    }
+  }
+
+  private static final Metric[] METRICS = Metric.values();
+  private static final Totals TOTALS = new Totals();
+  private static boolean registered;
+
+  private final Optional<Path> file;
+  private final String outputDirectory;
+  private final Consumer<String> warnings;
+  private final long[] values = new long[METRICS.length];
+  /** What has been added to {@link #TOTALS} so far. */
+  private final long[] flushed = new long[METRICS.length];
+
+  private Metrics(Optional<Path> file, String outputDirectory, Consumer<String> warnings) {
+    this.file = file;
+    this.outputDirectory = outputDirectory;
+    this.warnings = warnings;
+  }
+
+  /**
+   * Returns the metrics of the compilation owning {@code context}, creating them on first use and
+   * registering the MXBean on first use in this JVM.
+   */
+  static Metrics instance(Context context, Optional<Path> file) {
+    Metrics metrics = context.get(KEY);
+    if (metrics == null) {
+      registerMXBean();
+      String outputDirectory = Options.instance(context).get("-d");
+      Log log = Log.instance(context);
+      metrics = new Metrics(file, outputDirectory == null ? "" : outputDirectory,
+          warning -> log.rawWarning(Position.NOPOS, warning));
+      context.put(KEY, metrics);
+      CompilationEvents events = CompilationEvents.instance(context);
+      events.onUnitFinished(metrics::flush);
+      events.onCompilationFinished(metrics::finish);
+    }
+    return metrics;
+  }
+
+  void increment(Metric metric) {
+    values[metric.ordinal()]++;
+  }
+
+  void add(Metric metric, long value) {
+    values[metric.ordinal()] += value;
+  }
+
+  long get(Metric metric) {
+    return values[metric.ordinal()];
+  }
+
+  /** Adds what was counted since the last flush to the process-wide totals. */
+  void flush() {
+    for (int i = 0; i < values.length; i++) {
+      long delta = values[i] - flushed[i];
+      if (delta != 0) {
+        TOTALS.values[i].add(delta);
+        flushed[i] = values[i];
+      }
+    }
+  }
+
+  private void finish() {
+    flush();
+    TOTALS.compilations.increment();
+    if (file.isPresent()) {
+      write(file.get(), toJson(values, outputDirectory), outputDirectory, warnings);
+    }
+  }
+
+  /**
+   * Writes {@code json}, the metrics of the compilation into {@code outputDirectory}, to
+   * {@code path}. A plain file that another task is writing, or that holds the metrics of a
+   * compilation into another directory, is left alone: they go to a file named after the output
+   * directory next to it instead, and {@code warnings} is told where.
+   */
+  static void write(Path path, String json, String outputDirectory, Consumer<String> warnings) {
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    try {
+      if (Files.isDirectory(path)) {
+        Files.write(Files.createTempFile(path, "crv-metrics-", ".json"), bytes);
+        return;
+      }
+      Path parent = path.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+
+      String owner = Json.quote(outputDirectory);
+      String conflict;
+      // Closing the channel releases the lock.
+      try (FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE)) {
+        if (FindingsReport.tryLock(channel) == null) {
+          conflict = "is being written by another javac task";
+        } else {
+          String previousOwner = FindingsReport.owner(channel);
+          if (previousOwner == null || previousOwner.equals(owner)) {
+            channel.truncate(0);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+              channel.write(buffer);
+            }
+            return;
+          }
+          conflict = "holds the metrics of the compilation into " + previousOwner;
+        }
+      }
+
+      Path fallback = FindingsReport.fallback(path, ".json", outputDirectory);
+      warnings.accept("MetricsFile " + path + " " + conflict + ", the metrics of the compilation"
+          + " into " + owner + " are written to " + fallback + " instead. Give each javac task its"
+          + " own metrics file, or set MetricsFile to a directory.");
+      Files.write(fallback, bytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write metrics to " + path, e);
+    }
+  }
+
+  /**
+   * The compilation's output directory first, which identifies the owner of the file, then the
+   * metrics. Groups become nested objects, in declaration order.
+   */
+  static String toJson(long[] values, String outputDirectory) {
+    StringBuilder sb = new StringBuilder("{\n  \"outputDirectory\": ")
+        .append(Json.quote(outputDirectory));
+    String group = null;
+    for (Metric metric : METRICS) {
+      boolean sameGroup = metric.group != null && metric.group.equals(group);
+      if (group != null && !sameGroup) {
+        sb.append("\n  }");
+      }
+      sb.append(',');
+      if (metric.group != null && !sameGroup) {
+        sb.append("\n  ").append(Json.quote(metric.group)).append(": {");
+      }
+      group = metric.group;
+      sb.append(group != null ? "\n    " : "\n  ")
+          .append(Json.quote(metric.key)).append(": ").append(values[metric.ordinal()]);
+    }
+    if (group != null) {
+      sb.append("\n  }");
+    }
+    return sb.append("\n}\n").toString();
+  }
+
+  /**
+   * Registers {@link #TOTALS}, replacing a registration from another copy of this class, e.g. one
+   * loaded by a previous build in the same Gradle daemon.
+   */
+  private static synchronized void registerMXBean() {
+    if (registered) {
+      return;
+    }
+    registered = true;
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(TOTALS, name);
+    } catch (JMException e) {
+      // Metrics are diagnostics, never fail a compilation because JMX is unavailable.
+    }
+  }
+
+  private static final class Totals implements MetricsMXBean {
+
+    final LongAdder[] values = new LongAdder[METRICS.length];
+    final LongAdder compilations = new LongAdder();
+
+    Totals() {
+      for (int i = 0; i < values.length; i++) {
+        values[i] = new LongAdder();
+      }
+    }
+
+    @Override public Map<String, Long> getMetrics() {
+      Map<String, Long> metrics = new LinkedHashMap<>();
+      for (Metric metric : METRICS) {
+        metrics.put(metric.qualifiedName(), values[metric.ordinal()].sum());
+      }
+      return metrics;
+    }
+
+    @Override public long getCompilations() {
+      return compilations.sum();
+    }
+
+    @Override public void reset() {
+      for (LongAdder value : values) {
+        value.reset();
+      }
+      compilations.reset();
+    }
+  }
+}
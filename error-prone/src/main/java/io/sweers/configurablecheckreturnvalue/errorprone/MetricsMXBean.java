@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import java.util.Map;
+
+/**
+ * Live totals of {@link ConfigurableCheckReturnValue}'s metrics in this JVM, registered as
+ * {@value Metrics#OBJECT_NAME} when {@code Metrics} or {@code MetricsFile} is set. Totals include
+ * running compilations up to their last finished compilation unit.
+ */
+public interface MetricsMXBean {
+
+  /** Every metric by its name in the JSON dump, e.g. {@code rejected.resultUsed}. */
+  Map<String, Long> getMetrics();
+
+  /** Number of finished compilations. */
+  long getCompilations();
+
+  /** Resets all totals to zero. */
+  void reset();
+}
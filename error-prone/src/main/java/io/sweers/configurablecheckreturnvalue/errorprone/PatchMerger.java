@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Final step of the patch mode: combines the per-task fragments that {@link PatchWriter} left in a
+ * patch directory into a single unified diff and deletes the fragments.
+ *
+ * <p>Fragments are streamed line by line, so the merged patch never has to fit in memory. They are
+ * ordered by the first file they touch to keep the output stable across builds.
+ *
+ * <pre>{@code
+ * java -cp error-prone.jar io.sweers.configurablecheckreturnvalue.errorprone.PatchMerger \
+ *     build/crv-patches [build/crv-patches/ConfigurableCheckReturnValue.patch]
+ * }</pre>
+ */
+public final class PatchMerger {
+
+  public static final String DEFAULT_PATCH_NAME = "ConfigurableCheckReturnValue.patch";
+
+  private PatchMerger() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: PatchMerger <patch directory> [<output file>]");
+      System.exit(1);
+    }
+    Path directory = Paths.get(args[0]);
+    Path output = args.length == 2 ? Paths.get(args[1]) : directory.resolve(DEFAULT_PATCH_NAME);
+    int fragments = merge(directory, output);
+    System.out.println("Merged " + fragments + " fragment(s) into " + output);
+  }
+
+  /**
+   * Merges all fragments in {@code directory} into {@code output} and returns how many were
+   * merged. An existing {@code output} is replaced.
+   */
+  public static int merge(Path directory, Path output) throws IOException {
+    // Keyed by first line (the first file header), then file name to break ties.
+    TreeMap<String, Path> fragments = new TreeMap<>();
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(directory, "*" + PatchWriter.FRAGMENT_SUFFIX)) {
+      for (Path fragment : stream) {
+        String firstLine;
+        try (BufferedReader reader = Files.newBufferedReader(fragment, StandardCharsets.UTF_8)) {
+          firstLine = reader.readLine();
+        }
+        if (firstLine != null) {
+          fragments.put(firstLine + '\0' + fragment.getFileName(), fragment);
+        }
+      }
+    }
+
+    List<Path> merged = new ArrayList<>(fragments.values());
+    try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      for (Path fragment : merged) {
+        try (BufferedReader reader = Files.newBufferedReader(fragment, StandardCharsets.UTF_8)) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            writer.write(line);
+            writer.write('\n');
+          }
+        }
+      }
+    }
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(directory, "*" + PatchWriter.FRAGMENT_SUFFIX)) {
+      for (Path fragment : stream) {
+        Files.delete(fragment);
+      }
+    }
+    return merged.size();
+  }
+}
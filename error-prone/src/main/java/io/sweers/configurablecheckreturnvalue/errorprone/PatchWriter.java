@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.google.errorprone.fixes.Fix;
+import com.google.errorprone.fixes.Replacement;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.LineMap;
+import com.sun.tools.javac.tree.JCTree.JCCompilationUnit;
+import com.sun.tools.javac.util.Context;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes suggested fixes as zero-context unified diff hunks to a per-task fragment file in a patch
+ * directory, to be combined with {@link PatchMerger} once the build is done.
+ *
+ * <p>Only the rendered hunks of the compilation unit being analyzed are held in memory. They are
+ * written out and dropped as soon as javac finishes analyzing that unit.
+ */
+final class PatchWriter {
+
+  static final String FRAGMENT_SUFFIX = ".patch.part";
+
+  private static final Context.Key<PatchWriter> KEY = new Context.Key<>();
+
+  private final Path directory;
+  private final Path root;
+  private BufferedWriter writer;
+
+  /** Hunks of the current compilation unit, keyed by first original line. */
+  private final TreeMap<Long, Hunk> pendingHunks = new TreeMap<>();
+  private String pendingPath;
+
+  private PatchWriter(Path directory, Path root) {
+    this.directory = directory;
+    this.root = root.toAbsolutePath().normalize();
+  }
+
+  static PatchWriter instance(Context context, Path directory, Path root) {
+    PatchWriter patchWriter = context.get(KEY);
+    if (patchWriter == null) {
+      patchWriter = new PatchWriter(directory, root);
+      context.put(KEY, patchWriter);
+      CompilationEvents events = CompilationEvents.instance(context);
+      events.onUnitFinished(patchWriter::writePending);
+      events.onCompilationFinished(patchWriter::close);
+    }
+    return patchWriter;
+  }
+
+  /** Renders the first replacement set of {@code fix} as a hunk against the unit's source. */
+  void add(Fix fix, CompilationUnitTree unit, CharSequence source) {
+    if (fix.isEmpty()) {
+      return;
+    }
+    List<Replacement> replacements =
+        new ArrayList<>(fix.getReplacements(((JCCompilationUnit) unit).endPositions));
+    if (replacements.isEmpty()) {
+      return;
+    }
+    replacements.sort(Comparator.comparingInt(Replacement::startPosition));
+
+    String path = relativePath(unit);
+    if (!path.equals(pendingPath)) {
+      writePending();
+      pendingPath = path;
+    }
+
+    LineMap lineMap = unit.getLineMap();
+    int start = replacements.get(0).startPosition();
+    int end = replacements.get(replacements.size() - 1).endPosition();
+    long firstLine = lineMap.getLineNumber(start);
+    long lastLine = lineMap.getLineNumber(Math.max(start, end - 1));
+    int regionStart = (int) lineMap.getStartPosition(firstLine);
+    int regionEnd = lineEnd(source, Math.max(start, end - 1));
+
+    StringBuilder updated = new StringBuilder();
+    // Start and end in updated of every replacement, to find lines a deletion left blank.
+    List<int[]> edits = new ArrayList<>(replacements.size());
+    int cursor = regionStart;
+    for (Replacement replacement : replacements) {
+      if (replacement.startPosition() < cursor) {
+        // Overlapping replacements within one fix, nothing sensible to emit.
+        return;
+      }
+      updated.append(source, cursor, replacement.startPosition());
+      int editStart = updated.length();
+      updated.append(replacement.replaceWith());
+      edits.add(new int[] {editStart, updated.length()});
+      cursor = replacement.endPosition();
+    }
+    updated.append(source, cursor, regionEnd);
+
+    Map.Entry<Long, Hunk> previous = pendingHunks.floorEntry(lastLine);
+    if (previous != null && previous.getValue().lastLine >= firstLine) {
+      // Conflicts with a fix we already have for these lines; keep the first one.
+      return;
+    }
+    Map.Entry<Long, Hunk> next = pendingHunks.ceilingEntry(firstLine);
+    if (next != null && next.getKey() <= lastLine) {
+      return;
+    }
+    pendingHunks.put(firstLine, new Hunk(firstLine, lastLine,
+        lines(source.subSequence(regionStart, regionEnd), Collections.emptyList()),
+        lines(updated, edits)));
+  }
+
+  /** Appends the hunks of the current compilation unit to this task's fragment file. */
+  private void writePending() {
+    if (pendingHunks.isEmpty()) {
+      return;
+    }
+    try {
+      BufferedWriter out = writer();
+      out.write("--- a/" + pendingPath + "\n");
+      out.write("+++ b/" + pendingPath + "\n");
+      long delta = 0;
+      for (Hunk hunk : pendingHunks.values()) {
+        int oldCount = hunk.oldLines.size();
+        int newCount = hunk.newLines.size();
+        long oldStart = oldCount == 0 ? hunk.firstLine - 1 : hunk.firstLine;
+        long newStart = (newCount == 0 ? hunk.firstLine - 1 : hunk.firstLine) + delta;
+        out.write("@@ -" + oldStart + "," + oldCount + " +" + newStart + "," + newCount + " @@\n");
+        for (String line : hunk.oldLines) {
+          out.write("-" + line + "\n");
+        }
+        for (String line : hunk.newLines) {
+          out.write("+" + line + "\n");
+        }
+        delta += newCount - oldCount;
+      }
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      pendingHunks.clear();
+    }
+  }
+
+  private BufferedWriter writer() throws IOException {
+    if (writer == null) {
+      Files.createDirectories(directory);
+      Path fragment = Files.createTempFile(directory, "crv-", FRAGMENT_SUFFIX);
+      writer = Files.newBufferedWriter(fragment, StandardCharsets.UTF_8);
+    }
+    return writer;
+  }
+
+  private void close() {
+    writePending();
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private String relativePath(CompilationUnitTree unit) {
+    URI uri = unit.getSourceFile().toUri();
+    Path file = ("file".equals(uri.getScheme()) ? Paths.get(uri) : Paths.get(uri.getPath()))
+        .toAbsolutePath()
+        .normalize();
+    Path relative = file.startsWith(root) ? root.relativize(file) : file;
+    return relative.toString().replace('\\', '/');
+  }
+
+  /** Returns the position just past the line terminator of the line containing {@code pos}. */
+  private static int lineEnd(CharSequence source, int pos) {
+    int i = pos;
+    while (i < source.length() && source.charAt(i) != '\n') {
+      i++;
+    }
+    return Math.min(i + 1, source.length());
+  }
+
+  /**
+   * Splits {@code text} into lines, leaving out lines that an edit, given as start and end in
+   * {@code text}, touched and left blank, e.g. where a fix deleted a whole statement.
+   */
+  private static List<String> lines(CharSequence text, List<int[]> edits) {
+    List<String> lines = new ArrayList<>();
+    int lineStart = 0;
+    while (lineStart < text.length()) {
+      int newline = lineStart;
+      while (newline < text.length() && text.charAt(newline) != '\n') {
+        newline++;
+      }
+      int lineEnd = newline > lineStart && text.charAt(newline - 1) == '\r' ? newline - 1 : newline;
+      String line = text.subSequence(lineStart, lineEnd).toString();
+      if (!line.trim().isEmpty() || !edited(edits, lineStart, lineEnd)) {
+        lines.add(line);
+      }
+      lineStart = newline + 1;
+    }
+    return lines;
+  }
+
+  private static boolean edited(List<int[]> edits, int lineStart, int lineEnd) {
+    for (int[] edit : edits) {
+      if (edit[0] <= lineEnd && edit[1] >= lineStart) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static final class Hunk {
+    final long firstLine;
+    final long lastLine;
+    final List<String> oldLines;
+    final List<String> newLines;
+
+    Hunk(long firstLine, long lastLine, List<String> oldLines, List<String> newLines) {
+      this.firstLine = firstLine;
+      this.lastLine = lastLine;
+      this.oldLines = oldLines;
+      this.newLines = newLines;
+    }
+  }
+}
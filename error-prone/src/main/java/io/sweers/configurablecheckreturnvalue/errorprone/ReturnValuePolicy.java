@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import com.sun.tools.javac.util.Context;
+import io.sweers.configurablecheckreturnvalue.core.AnnotationMatcher;
+import io.sweers.configurablecheckreturnvalue.core.CheckReturnValueConfig;
+import java.util.List;
+import java.util.Optional;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Decides whether the return value of a method must be checked: annotations on the method, then on
+ * its enclosing classes, then on its package, and finally the enabled {@link RulePack}s.
+ *
+ * <p>Shared by the Error Prone check and the javac plugin, so it only uses javac APIs. The
+ * configuration and annotation matching come from the core module, which lint uses as well.
+ */
+final class ReturnValuePolicy {
+
+  static final String CAN_IGNORE_RETURN_VALUE = CheckReturnValueConfig.CAN_IGNORE_RETURN_VALUE;
+  static final String SUMMARY = "Ignored return value of method that is annotated with"
+      + " @CheckReturnValue or specified alternatives";
+  /** The message for both annotations on one element, formatted with "method" or "class". */
+  static final String BOTH_ERROR =
+      "@CheckReturnValue and @CanIgnoreReturnValue cannot both be applied to the same %s";
+  /** The message for an annotated void method, formatted with the annotation's simple name. */
+  static final String VOID_ERROR = "@%s may not be applied to void-returning methods";
+
+  private final AnnotationMatcher matcher;
+  private final List<RulePack> rulePacks;
+
+  ReturnValuePolicy(AnnotationMatcher matcher, List<RulePack> rulePacks) {
+    this.matcher = matcher;
+    this.rulePacks = rulePacks;
+  }
+
+  /**
+   * Creates a policy from the {@code CustomAnnotations}, {@code ExcludeAnnotations} and
+   * {@code RulePacks} options, plus whatever options the enabled packs read.
+   */
+  static ReturnValuePolicy fromOptions(RulePack.Options options) {
+    CheckReturnValueConfig config = CheckReturnValueConfig.fromOptions(options::getList);
+    return new ReturnValuePolicy(config.matcher(),
+        RulePack.forNames(config.rulePacks(), options));
+  }
+
+  /** The configured annotation matching the first annotation directly present on {@code sym}. */
+  Optional<String> checkReturn(Symbol sym) {
+    for (AnnotationMirror annotation : sym.getAnnotationMirrors()) {
+      String match = matcher.match(qualifiedName(annotation));
+      if (match != null) {
+        return Optional.of(match);
+      }
+    }
+    return Optional.empty();
+  }
+
+  /** Whether {@code sym} is directly annotated with any {@code CanIgnoreReturnValue}. */
+  static boolean canIgnore(Symbol sym) {
+    return hasDirectAnnotationWithName(sym, CAN_IGNORE_RETURN_VALUE);
+  }
+
+  /**
+   * The verdict of the nearest annotation on {@code method}, its enclosing classes or its package,
+   * where {@code CanIgnoreReturnValue} wins over a check annotation on the same element.
+   */
+  Optional<Boolean> annotationVerdict(MethodSymbol method) {
+    return annotationVerdict(method, null);
+  }
+
+  /** Like {@link #annotationVerdict(MethodSymbol)}, counting where it was decided into metrics. */
+  Optional<Boolean> annotationVerdict(MethodSymbol method, Metrics metrics) {
+    Optional<Boolean> result = verdict(method);
+    if (result.isPresent()) {
+      return count(metrics, Metrics.Metric.VERDICT_METHOD, result);
+    }
+    Symbol enclosingClass = method.owner.enclClass();
+    while (enclosingClass instanceof ClassSymbol) {
+      result = verdict(enclosingClass);
+      if (result.isPresent()) {
+        return count(metrics, Metrics.Metric.VERDICT_CLASS, result);
+      }
+      enclosingClass = enclosingClass.owner;
+    }
+    result = method.packge() != null ? verdict(method.packge()) : Optional.empty();
+    return count(metrics,
+        result.isPresent() ? Metrics.Metric.VERDICT_PACKAGE : Metrics.Metric.VERDICT_NONE, result);
+  }
+
+  private static Optional<Boolean> count(Metrics metrics, Metrics.Metric metric,
+      Optional<Boolean> result) {
+    if (metrics != null) {
+      metrics.increment(metric);
+    }
+    return result;
+  }
+
+  /** The first enabled pack covering {@code method}, or {@code null}. */
+  RulePack matchingPack(MethodSymbol method, Context context) {
+    for (RulePack pack : rulePacks) {
+      if (pack.matches(method, context)) {
+        return pack;
+      }
+    }
+    return null;
+  }
+
+  /** The simple name of an annotation given by simple or qualified name. */
+  static String shortName(String name) {
+    if (name.contains(".")) {
+      return name.substring(name.lastIndexOf(".") + 1);
+    } else {
+      return name;
+    }
+  }
+
+  /** One pass over the annotations of {@code sym}, see {@link AnnotationMatcher#verdict}. */
+  private Optional<Boolean> verdict(Symbol sym) {
+    boolean check = false;
+    for (AnnotationMirror annotation : sym.getAnnotationMirrors()) {
+      String name = qualifiedName(annotation);
+      if (AnnotationMatcher.isCanIgnoreReturnValue(name)) {
+        return Optional.of(false);
+      }
+      check |= matcher.matches(name);
+    }
+    return check ? Optional.of(true) : Optional.empty();
+  }
+
+  private static String qualifiedName(AnnotationMirror annotation) {
+    Element element = annotation.getAnnotationType().asElement();
+    return element instanceof TypeElement
+        ? ((TypeElement) element).getQualifiedName().toString()
+        : element.getSimpleName().toString();
+  }
+
+  /**
+   * Checks for an annotation directly on {@code sym}, by simple name if {@code name} has no dots
+   * and by qualified name otherwise. Does *not* consider annotation inheritance.
+   */
+  static boolean hasDirectAnnotationWithName(Symbol sym, String name) {
+    boolean isSimple = !name.contains(".");
+    for (AnnotationMirror annotation : sym.getAnnotationMirrors()) {
+      Element element = annotation.getAnnotationType().asElement();
+      if (isSimple && element.getSimpleName().contentEquals(name)) {
+        return true;
+      } else if (element instanceof TypeElement
+          && ((TypeElement) element).getQualifiedName().contentEquals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import com.sun.tools.javac.code.Symbol.VarSymbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.util.Context;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A built-in, opt-in set of APIs whose return values must be checked even though they carry no
+ * annotation. Packs are enabled by name through the {@code RulePacks} flag.
+ *
+ * <p>Packs only use javac APIs so they work regardless of how the check is hosted. Whatever they
+ * resolve is cached per compilation {@link Context}.
+ */
+abstract class RulePack {
+
+  private static final Map<String, Function<Options, RulePack>> PACKS = new LinkedHashMap<>();
+
+  static {
+    PACKS.put("streams", options -> streams());
+    PACKS.put("queues", options -> queues());
+    PACKS.put("concurrency", options -> concurrency());
+    PACKS.put("io", options -> io());
+    PACKS.put("futures", RulePack::futures);
+    PACKS.put("allocations", options -> allocations());
+    PACKS.put("disposables", options -> disposables());
+    PACKS.put("publishers", RulePack::publishers);
+    PACKS.put("netty", options -> netty());
+    PACKS.put("closeables", RulePack::closeables);
+  }
+
+  /** List-valued options for packs that can be configured. */
+  interface Options {
+    /** Returns the list set for {@code key}, or {@code null} if it is not set. */
+    List<String> getList(String key);
+  }
+
+  final String name;
+  private final String message;
+
+  RulePack(String name, String message) {
+    this.name = name;
+    this.message = message;
+  }
+
+  /** Whether {@code method} must have its return value checked according to this pack. */
+  abstract boolean matches(MethodSymbol method, Context context);
+
+  /** The diagnostic message for an ignored call to {@code method}. */
+  String message(Symbol method) {
+    return String.format(message, method.owner.getSimpleName() + "." + method.getSimpleName());
+  }
+
+  /** Returns new instances of the named packs, in the given order. */
+  static List<RulePack> forNames(List<String> names, Options options) {
+    List<RulePack> packs = new ArrayList<>(names.size());
+    for (String name : names) {
+      Function<Options, RulePack> pack = PACKS.get(name);
+      if (pack == null) {
+        throw new IllegalArgumentException(
+            "Unknown rule pack '" + name + "'. Known packs are " + PACKS.keySet());
+      }
+      packs.add(pack.apply(options));
+    }
+    return Collections.unmodifiableList(packs);
+  }
+
+  /** Intermediate {@code java.util.stream} operations and {@code Collectors} factories. */
+  static RulePack streams() {
+    List<String> common = Arrays.asList(
+        "filter", "map", "flatMap", "distinct", "sorted", "peek", "limit", "skip", "takeWhile",
+        "dropWhile", "mapToObj", "mapToInt", "mapToLong", "mapToDouble", "flatMapToInt",
+        "flatMapToLong", "flatMapToDouble", "mapMulti", "asLongStream", "asDoubleStream",
+        "boxed");
+    List<String> signatures = new ArrayList<>();
+    for (String stream : Arrays.asList("java.util.stream.Stream", "java.util.stream.IntStream",
+        "java.util.stream.LongStream", "java.util.stream.DoubleStream")) {
+      // Members a type doesn't declare (e.g. Stream.boxed) simply don't resolve. BaseStream's
+      // parallel()/sequential()/unordered()/onClose() are left out as they modify the pipeline
+      // in place, so ignoring their result is harmless.
+      for (String operation : common) {
+        signatures.add(stream + "#" + operation);
+      }
+    }
+    signatures.add("java.util.stream.Collectors#*");
+    return new SymbolRulePack("streams",
+        "Ignored return value of `%s`. Intermediate stream operations are lazy and collectors"
+            + " only describe a reduction, neither does anything unless the result is used.",
+        signatures);
+  }
+
+  /** Non-blocking and timed queue operations that report failure through their return value. */
+  static RulePack queues() {
+    return new SymbolRulePack("queues",
+        "Ignored return value of `%s`. A false or null result means the element was not accepted"
+            + " or not received in time, so it is silently dropped or lost.",
+        Arrays.asList(
+            "java.util.Queue#offer",
+            "java.util.concurrent.BlockingQueue#offer",
+            "java.util.concurrent.BlockingQueue#poll(long,java.util.concurrent.TimeUnit)",
+            "java.util.concurrent.TransferQueue#tryTransfer",
+            "java.util.Deque#offerFirst",
+            "java.util.Deque#offerLast",
+            "java.util.concurrent.BlockingDeque#offerFirst",
+            "java.util.concurrent.BlockingDeque#offerLast",
+            "java.util.concurrent.BlockingDeque#pollFirst(long,java.util.concurrent.TimeUnit)",
+            "java.util.concurrent.BlockingDeque#pollLast(long,java.util.concurrent.TimeUnit)"));
+  }
+
+  /** Timed acquisitions and compare-and-set operations that report failure as {@code false}. */
+  static RulePack concurrency() {
+    List<String> signatures = new ArrayList<>(Arrays.asList(
+        "java.util.concurrent.locks.Lock#tryLock",
+        "java.util.concurrent.Semaphore#tryAcquire",
+        "java.util.concurrent.CountDownLatch#await(long,java.util.concurrent.TimeUnit)",
+        "java.util.concurrent.locks.Condition#await(long,java.util.concurrent.TimeUnit)",
+        "java.util.concurrent.locks.Condition#awaitNanos",
+        "java.util.concurrent.locks.Condition#awaitUntil"));
+    for (String atomic : Arrays.asList("AtomicBoolean", "AtomicInteger", "AtomicLong",
+        "AtomicReference", "AtomicIntegerArray", "AtomicLongArray", "AtomicReferenceArray",
+        "AtomicIntegerFieldUpdater", "AtomicLongFieldUpdater", "AtomicReferenceFieldUpdater",
+        "AtomicMarkableReference", "AtomicStampedReference")) {
+      for (String cas : Arrays.asList("compareAndSet", "weakCompareAndSet",
+          "weakCompareAndSetPlain", "weakCompareAndSetVolatile", "weakCompareAndSetAcquire",
+          "weakCompareAndSetRelease")) {
+        signatures.add("java.util.concurrent.atomic." + atomic + "#" + cas);
+      }
+    }
+    return new SymbolRulePack("concurrency",
+        "Ignored return value of `%s`. A false result means the lock, permit or latch was not"
+            + " acquired in time, or that the compare-and-set did not happen because the value had"
+            + " changed, yet the code carries on as if it had succeeded.",
+        signatures);
+  }
+
+  /** Reads, writes, skips and transfers that may complete only partially. */
+  static RulePack io() {
+    return new SymbolRulePack("io",
+        "Ignored return value of `%s`. It may read, write, skip or transfer fewer bytes than"
+            + " requested; loop until the whole range is done, e.g."
+            + " `while (buffer.hasRemaining()) { channel.write(buffer); }`, or use a method that"
+            + " does so like `readFully`.",
+        Arrays.asList(
+            "java.io.InputStream#read(byte[])",
+            "java.io.InputStream#read(byte[],int,int)",
+            "java.io.InputStream#skip",
+            "java.io.Reader#read(char[])",
+            "java.io.Reader#read(char[],int,int)",
+            "java.io.Reader#skip",
+            "java.nio.channels.ReadableByteChannel#read",
+            "java.nio.channels.ScatteringByteChannel#read",
+            "java.nio.channels.WritableByteChannel#write",
+            "java.nio.channels.GatheringByteChannel#write",
+            "java.nio.channels.FileChannel#read(java.nio.ByteBuffer,long)",
+            "java.nio.channels.FileChannel#write(java.nio.ByteBuffer,long)",
+            "java.nio.channels.FileChannel#transferTo",
+            "java.nio.channels.FileChannel#transferFrom",
+            "java.nio.channels.AsynchronousFileChannel#read",
+            "java.nio.channels.AsynchronousFileChannel#write"));
+  }
+
+  /**
+   * Any method returning a future, which would otherwise swallow the task's failure and let
+   * unobserved work pile up. The types can be replaced through the {@code FutureTypes} option.
+   * Methods that return the future they are called on, like {@code CompletableFuture.orTimeout}
+   * or Netty's {@code addListener}, are exempt.
+   */
+  static RulePack futures(Options options) {
+    List<String> types = options.getList("FutureTypes");
+    Set<String> fluentMethods = new HashSet<>(Arrays.asList(
+        "orTimeout", "completeOnTimeout", "addListener", "addListeners", "removeListener",
+        "removeListeners", "await", "awaitUninterruptibly", "sync", "syncUninterruptibly"));
+    return new TypeRulePack("futures",
+        "Ignored future returned by `%s`. The task's failure is silently swallowed and nothing"
+            + " bounds how much work piles up; keep the future and wait for or check it.",
+        types != null ? types : Arrays.asList(
+            "java.util.concurrent.Future",
+            "java.util.concurrent.CompletionStage")) {
+      @Override boolean isExempt(MethodSymbol method, Types types) {
+        return isFluent(method, types, fluentMethods);
+      }
+    };
+  }
+
+  /** Any method returning an RxJava {@code Disposable} or a Reactive Streams subscription. */
+  static RulePack disposables() {
+    return new TypeRulePack("disposables",
+        "Ignored subscription returned by `%s`. It keeps the subscription and everything it"
+            + " references alive until the source terminates; keep it and dispose or cancel it,"
+            + " e.g. by adding it to a CompositeDisposable.",
+        Arrays.asList(
+            "io.reactivex.disposables.Disposable",
+            "io.reactivex.rxjava3.disposables.Disposable",
+            "org.reactivestreams.Subscription"));
+  }
+
+  /**
+   * Any method returning a Project Reactor {@code Mono} or {@code Flux}, plus any publisher types
+   * added through the {@code PublisherTypes} option.
+   */
+  static RulePack publishers(Options options) {
+    List<String> types = new ArrayList<>(Arrays.asList(
+        "reactor.core.publisher.Mono",
+        "reactor.core.publisher.Flux"));
+    List<String> extra = options.getList("PublisherTypes");
+    if (extra != null) {
+      types.addAll(extra);
+    }
+    return new TypeRulePack("publishers",
+        "Ignored publisher returned by `%s`. Publishers are cold, so nothing happens until"
+            + " something subscribes; return it, compose it into the surrounding chain or"
+            + " subscribe to it.",
+        types);
+  }
+
+  /**
+   * Any method returning a Netty {@code ReferenceCounted} (e.g. a {@code ByteBuf}) or a
+   * {@code ChannelFuture}. Methods that return their receiver, like {@code ByteBuf.writeInt},
+   * {@code skipBytes}, {@code retain} or {@code ChannelFuture.addListener}, are exempt. Methods
+   * returning a new buffer of the same type, like {@code readBytes(int)}, {@code copy()} or
+   * {@code retainedSlice()}, are not.
+   */
+  static RulePack netty() {
+    Set<String> fluentMethods = new HashSet<>(Arrays.asList(
+        "skipBytes", "retain", "touch", "readerIndex", "writerIndex", "setIndex", "clear",
+        "markReaderIndex", "resetReaderIndex", "markWriterIndex", "resetWriterIndex",
+        "discardReadBytes", "discardSomeReadBytes", "ensureWritable", "capacity", "getBytes",
+        "addListener", "addListeners", "removeListener", "removeListeners", "await",
+        "awaitUninterruptibly", "sync", "syncUninterruptibly"));
+    return new TypeRulePack("netty",
+        "Ignored return value of `%s`. A dropped reference-counted object is never released and"
+            + " leaks (often pooled, direct) memory, and a dropped ChannelFuture hides a failed"
+            + " operation; release the object or add a listener to the future.",
+        Arrays.asList("io.netty.util.ReferenceCounted", "io.netty.channel.ChannelFuture")) {
+      @Override boolean isExempt(MethodSymbol method, Types types) {
+        String name = method.name.toString();
+        if (name.equals("readBytes")) {
+          // readBytes(int) reads into a new buffer, the other overloads into their argument.
+          List<VarSymbol> parameters = method.getParameters();
+          return !(parameters.size() == 1 && parameters.get(0).type.hasTag(TypeTag.INT))
+              && returnsReceiver(method, types);
+        }
+        // The setXxx and writeXxx methods of buffers, and ChannelPromise.setSuccess/setFailure.
+        return name.startsWith("set") || name.startsWith("write")
+            ? returnsReceiver(method, types)
+            : isFluent(method, types, fluentMethods);
+      }
+    };
+  }
+
+  /**
+   * Any method returning an {@code AutoCloseable}, except fluent methods that return their receiver
+   * and methods declared by or returning a type listed in the {@code CloseableExcludes} option.
+   * Streams are excluded by default as only the few backed by I/O need closing.
+   */
+  static RulePack closeables(Options options) {
+    Set<String> excludes = new HashSet<>(Collections.singletonList("java.util.stream.BaseStream"));
+    List<String> extra = options.getList("CloseableExcludes");
+    if (extra != null) {
+      excludes.addAll(extra);
+    }
+    return new TypeRulePack("closeables",
+        "Ignored resource returned by `%s`. Nothing closes it, so the file descriptor, connection"
+            + " or other resource behind it leaks; use try-with-resources or close it.",
+        Collections.singletonList("java.lang.AutoCloseable")) {
+      @Override boolean isExempt(MethodSymbol method, Types types) {
+        return returnsReceiver(method, types)
+            || isExcluded(method.owner.type, types)
+            || isExcluded(method.getReturnType(), types);
+      }
+
+      private boolean isExcluded(Type type, Types types) {
+        for (Type supertype : types.closure(types.erasure(type))) {
+          if (excludes.contains(supertype.tsym.getQualifiedName().toString())) {
+            return true;
+          }
+        }
+        return false;
+      }
+    };
+  }
+
+  /** Side-effect free JDK methods, so an ignored call only wastes CPU and allocation. */
+  static RulePack allocations() {
+    return new SymbolRulePack("allocations",
+        "Ignored return value of `%s`. It has no side effects, so the call only wastes CPU and"
+            + " allocation; if the intent was to modify the receiver, note that it is immutable.",
+        readSignatures("allocations.txt"));
+  }
+
+  /**
+   * Reads a bundled signature list: one signature per line, blank lines and lines starting with
+   * {@code #} are ignored.
+   */
+  static List<String> readSignatures(String resource) {
+    InputStream stream = RulePack.class.getResourceAsStream(resource);
+    if (stream == null) {
+      throw new IllegalStateException("Missing rule pack resource " + resource);
+    }
+    List<String> signatures = new ArrayList<>();
+    try (BufferedReader reader =
+             new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          signatures.add(line);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read rule pack resource " + resource, e);
+    }
+    return signatures;
+  }
+}
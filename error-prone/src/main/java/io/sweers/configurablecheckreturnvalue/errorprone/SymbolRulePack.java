@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import com.sun.tools.javac.code.Symbol.TypeSymbol;
+import com.sun.tools.javac.code.Symbol.VarSymbol;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.model.JavacElements;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Name;
+import io.sweers.configurablecheckreturnvalue.core.SignatureMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+
+/**
+ * A {@link RulePack} backed by a list of method signatures.
+ *
+ * <p>Signatures have the form {@code owner#name}, {@code owner#name(param, ...)} with erased,
+ * fully qualified parameter types, or {@code owner#*} for every method of the owner. They are
+ * parsed into a {@link SignatureMatcher} once per pack and resolved to symbols once per
+ * compilation. Calls to methods that override a listed method match as well; that answer is
+ * memoized per called symbol, so repeated calls cost a map lookup.
+ */
+final class SymbolRulePack extends RulePack {
+
+  private final SignatureMatcher signatures;
+
+  private Context context;
+  private Types types;
+  /** Resolved methods, by simple name. */
+  private final Map<Name, List<MethodSymbol>> index = new HashMap<>();
+  private final Map<MethodSymbol, Boolean> verdicts = new HashMap<>();
+
+  SymbolRulePack(String name, String message, List<String> signatures) {
+    super(name, message);
+    this.signatures = new SignatureMatcher(signatures);
+  }
+
+  @Override boolean matches(MethodSymbol method, Context context) {
+    if (this.context != context) {
+      resolve(context);
+    }
+    Boolean verdict = verdicts.get(method);
+    if (verdict == null) {
+      verdict = computeMatch(method);
+      verdicts.put(method, verdict);
+    }
+    return verdict;
+  }
+
+  private boolean computeMatch(MethodSymbol method) {
+    List<MethodSymbol> candidates = index.get(method.name);
+    if (candidates == null) {
+      return false;
+    }
+    for (MethodSymbol candidate : candidates) {
+      if (candidate == method
+          || (!method.isStatic()
+          && method.owner instanceof TypeSymbol
+          && method.overrides(candidate, (TypeSymbol) method.owner, types, true))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void resolve(Context context) {
+    this.context = context;
+    this.types = Types.instance(context);
+    index.clear();
+    verdicts.clear();
+    JavacElements elements = JavacElements.instance(context);
+    for (String owner : signatures.owners()) {
+      ClassSymbol ownerSymbol = elements.getTypeElement(owner);
+      if (ownerSymbol == null) {
+        // Not on the classpath of this compilation (or a newer JDK API), nothing to match.
+        continue;
+      }
+      for (Element element : ownerSymbol.getEnclosedElements()) {
+        if (element.getKind() != ElementKind.METHOD) {
+          continue;
+        }
+        MethodSymbol method = (MethodSymbol) element;
+        String parameters = null;
+        for (SignatureMatcher.Signature signature
+            : signatures.candidates(owner, method.name.toString())) {
+          if (signature.parameters != null && parameters == null) {
+            parameters = erasedParameters(method);
+          }
+          if (signature.matchesParameters(parameters)) {
+            index.computeIfAbsent(method.name, n -> new ArrayList<>(1)).add(method);
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  private String erasedParameters(MethodSymbol method) {
+    StringBuilder sb = new StringBuilder();
+    for (VarSymbol parameter : method.getParameters()) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(types.erasure(parameter.type));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import com.sun.tools.javac.code.Symbol.TypeSymbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.model.JavacElements;
+import com.sun.tools.javac.util.Context;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link RulePack} that matches every method whose return type is a subtype of one of a list of
+ * types.
+ *
+ * <p>The types are resolved once per compilation and the subtype test is memoized per return
+ * {@link TypeSymbol}, so it runs once per distinct return type rather than once per call. A type
+ * variable return type matches if its bound does, e.g. {@code <E extends Disposable> E}.
+ *
+ * <p>Packs can exempt individual methods of a matching type through {@link #isExempt}, e.g. fluent
+ * methods that return their receiver.
+ */
+class TypeRulePack extends RulePack {
+
+  private final List<String> typeNames;
+
+  private Context context;
+  private Types types;
+  private final List<Type> targets = new ArrayList<>();
+  private final Map<TypeSymbol, Boolean> verdicts = new HashMap<>();
+  private final Map<MethodSymbol, Boolean> exemptions = new HashMap<>();
+
+  TypeRulePack(String name, String message, List<String> typeNames) {
+    super(name, message);
+    this.typeNames = typeNames;
+  }
+
+  @Override boolean matches(MethodSymbol method, Context context) {
+    if (this.context != context) {
+      resolve(context);
+    }
+    Type returnType = method.getReturnType();
+    if (returnType == null || targets.isEmpty()
+        || !(returnType.hasTag(TypeTag.CLASS) || returnType.hasTag(TypeTag.TYPEVAR))) {
+      return false;
+    }
+    TypeSymbol returnSymbol = returnType.tsym;
+    Boolean verdict = verdicts.get(returnSymbol);
+    if (verdict == null) {
+      verdict = isTargetSubtype(returnSymbol);
+      verdicts.put(returnSymbol, verdict);
+    }
+    if (!verdict) {
+      return false;
+    }
+    Boolean exempt = exemptions.get(method);
+    if (exempt == null) {
+      exempt = isExempt(method, types);
+      exemptions.put(method, exempt);
+    }
+    return !exempt;
+  }
+
+  /**
+   * Whether {@code method} is exempt even though its return type matches. Only asked once per
+   * method and compilation. Nothing is exempt by default.
+   */
+  boolean isExempt(MethodSymbol method, Types types) {
+    return false;
+  }
+
+  /**
+   * Whether {@code method} is an instance method whose declaring type is a subtype of its return
+   * type, as with a fluent setter that returns {@code this}.
+   */
+  static boolean returnsReceiver(MethodSymbol method, Types types) {
+    return !method.isStatic()
+        && types.isSubtype(types.erasure(method.owner.type), types.erasure(method.getReturnType()));
+  }
+
+  /**
+   * Whether {@code method} is one of {@code fluentMethods}, by name, and {@link #returnsReceiver}.
+   * The types alone can't tell {@code return this} from a new instance of the receiver's type, as
+   * with {@code CompletableFuture.thenApply}, so packs whose types have both list the fluent ones.
+   */
+  static boolean isFluent(MethodSymbol method, Types types, Set<String> fluentMethods) {
+    return fluentMethods.contains(method.name.toString()) && returnsReceiver(method, types);
+  }
+
+  private boolean isTargetSubtype(TypeSymbol symbol) {
+    Type erased = types.erasure(symbol.type);
+    for (Type target : targets) {
+      if (types.isSubtype(erased, target)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void resolve(Context context) {
+    this.context = context;
+    this.types = Types.instance(context);
+    targets.clear();
+    verdicts.clear();
+    exemptions.clear();
+    JavacElements elements = JavacElements.instance(context);
+    for (String typeName : typeNames) {
+      ClassSymbol symbol = elements.getTypeElement(typeName);
+      if (symbol != null) {
+        targets.add(types.erasure(symbol.type));
+      }
+    }
+  }
+}
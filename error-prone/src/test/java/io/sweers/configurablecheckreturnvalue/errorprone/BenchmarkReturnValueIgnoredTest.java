@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.google.errorprone.CompilationTestHelper;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static com.google.common.truth.Truth.assertThat;
+import static io.sweers.configurablecheckreturnvalue.errorprone.PluginCompilation.source;
+
+@RunWith(JUnit4.class)
+public class BenchmarkReturnValueIgnoredTest {
+
+  private CompilationTestHelper compilationHelper;
+
+  @Before public void setUp() {
+    compilationHelper =
+        CompilationTestHelper.newInstance(BenchmarkReturnValueIgnored.class, getClass())
+            .addSourceLines("org/openjdk/jmh/annotations/Benchmark.java",
+                "package org.openjdk.jmh.annotations;",
+                "public @interface Benchmark {}")
+            .addSourceLines("org/openjdk/jmh/infra/Blackhole.java",
+                "package org.openjdk.jmh.infra;",
+                "public class Blackhole {",
+                "  public void consume(Object o) {}",
+                "}");
+  }
+
+  @Test public void ignoredResultInBenchmark() {
+    compilationHelper.addSourceLines("test/MyBenchmark.java",
+        "package test;",
+        "import org.openjdk.jmh.annotations.Benchmark;",
+        "import org.openjdk.jmh.infra.Blackhole;",
+        "public class MyBenchmark {",
+        "  String value = \"value\";",
+        "  @Benchmark public void noBlackhole() {",
+        "    // BUG: Diagnostic contains: Ignored return value of `trim` in a @Benchmark method",
+        "    value.trim();",
+        "  }",
+        "  @Benchmark public void withBlackhole(Blackhole bh) {",
+        "    // BUG: Diagnostic contains: bh.consume(value.trim())",
+        "    value.trim();",
+        "  }",
+        "  @Benchmark public String returned() {",
+        "    return value.trim();",
+        "  }",
+        "  @Benchmark public void lambda(java.util.List<String> list) {",
+        "    // BUG: Diagnostic contains: Ignored return value",
+        "    list.forEach(s -> s.trim());",
+        "  }",
+        "  public void notABenchmark() {",
+        "    value.trim();",
+        "  }",
+        "}")
+        .doTest();
+  }
+
+  @Test public void canIgnoreReturnValueIsExempt() {
+    compilationHelper.addSourceLines("test/MyBenchmark.java",
+        "package test;",
+        "import com.google.errorprone.annotations.CanIgnoreReturnValue;",
+        "import org.openjdk.jmh.annotations.Benchmark;",
+        "public class MyBenchmark {",
+        "  @CanIgnoreReturnValue",
+        "  int sideEffect() { return 1; }",
+        "  @CanIgnoreReturnValue",
+        "  static class Builder {",
+        "    Builder set() { return this; }",
+        "  }",
+        "  @Benchmark public void benchmark() {",
+        "    sideEffect();",
+        "    new Builder().set();",
+        "  }",
+        "}")
+        .doTest();
+  }
+
+  @Test public void packageCanIgnoreReturnValueIsExempt() {
+    compilationHelper.addSourceLines("lib/CanIgnoreReturnValue.java",
+        "package lib;",
+        "public @interface CanIgnoreReturnValue {}")
+        .addSourceLines("lib/package-info.java",
+            "@CanIgnoreReturnValue",
+            "package lib;")
+        .addSourceLines("lib/Lib.java",
+            "package lib;",
+            "public class Lib {",
+            "  public static int sideEffect() { return 1; }",
+            "}")
+        .addSourceLines("test/MyBenchmark.java",
+            "package test;",
+            "import org.openjdk.jmh.annotations.Benchmark;",
+            "public class MyBenchmark {",
+            "  @Benchmark public void benchmark() {",
+            "    lib.Lib.sideEffect();",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  /** Error Prone finds the check through its service registration, as a warning by default. */
+  @Test public void registeredWithErrorProne() throws IOException {
+    JavaFileObject[] sources = {
+        source("org/openjdk/jmh/annotations/Benchmark.java",
+            "package org.openjdk.jmh.annotations;",
+            "public @interface Benchmark {}"),
+        source("test/MyBenchmark.java",
+            "package test;",
+            "public class MyBenchmark {",
+            "  int f() { return 1; }",
+            "  @org.openjdk.jmh.annotations.Benchmark public void benchmark() {",
+            "    f();",
+            "  }",
+            "}")
+    };
+    String finding = "[BenchmarkReturnValueIgnored] Ignored return value of `f`";
+
+    List<String> diagnostics = PluginCompilation.diagnostics(Collections.emptyList(), sources);
+    assertThat(diagnostics).hasSize(1);
+    assertThat(diagnostics.get(0)).startsWith("WARNING: " + finding);
+
+    diagnostics = PluginCompilation.diagnostics(
+        Collections.singletonList("-Xep:BenchmarkReturnValueIgnored:ERROR"), sources);
+    assertThat(diagnostics).hasSize(1);
+    assertThat(diagnostics.get(0)).startsWith("ERROR: " + finding);
+
+    assertThat(PluginCompilation.diagnostics(
+        Collections.singletonList("-Xep:BenchmarkReturnValueIgnored:OFF"), sources)).isEmpty();
+  }
+}
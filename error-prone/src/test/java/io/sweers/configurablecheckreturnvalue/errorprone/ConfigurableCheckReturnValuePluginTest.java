@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.google.common.io.Resources;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.Plugin;
+import io.sweers.configurablecheckreturnvalue.core.CheckReturnValueConfig;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.TreeSet;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Checks that {@link ConfigurableCheckReturnValuePlugin} reports the same lines as the Error Prone
+ * check, using the cases from {@link ConfigurableCheckReturnValueTest}. Lines are expected after
+ * each {@code // BUG: Diagnostic contains:} comment, as in Error Prone's test helper. Messages
+ * aren't compared since the plugin doesn't suggest fixes.
+ */
+@RunWith(JUnit4.class)
+public class ConfigurableCheckReturnValuePluginTest {
+
+  private static final String BUG_MARKER = "// BUG: Diagnostic contains:";
+
+  @Test public void serviceLoader() {
+    List<String> names = new ArrayList<>();
+    for (Plugin plugin : ServiceLoader.load(Plugin.class, getClass().getClassLoader())) {
+      names.add(plugin.getName());
+    }
+    assertThat(names).contains("ConfigurableCheckReturnValue");
+  }
+
+  @Test public void positiveCases() throws IOException {
+    assertParity(Collections.emptyList(),
+        resource("ConfigurableCheckReturnValuePositiveCases.java"));
+  }
+
+  @Test public void negativeCases() throws IOException {
+    assertParity(Collections.emptyList(),
+        resource("ConfigurableCheckReturnValueNegativeCases.java"));
+  }
+
+  @Test public void customAnnotations() throws IOException {
+    assertParity(Collections.singletonList("CustomAnnotations=foo.bar.ConfiguredCheckReturn"),
+        source("foo/bar/ConfiguredCheckReturn.java",
+            "package foo.bar;",
+            "public @interface ConfiguredCheckReturn {}"),
+        source("Test.java",
+            "class Test {",
+            "  @foo.bar.ConfiguredCheckReturn int configured() { return 1; }",
+            "  @javax.annotation.CheckReturnValue int defaultAnnotation() { return 1; }",
+            "  void m() {",
+            "    // BUG: Diagnostic contains: Ignored return value",
+            "    configured();",
+            "    defaultAnnotation();",
+            "  }",
+            "}"));
+  }
+
+  @Test public void excludeAnnotations() throws IOException {
+    // The defaults also match any annotation named CheckReturnValue, so that entry goes as well.
+    assertParity(
+        Collections.singletonList(
+            "ExcludeAnnotations=javax.annotation.CheckReturnValue,CheckReturnValue"),
+        source("Test.java",
+            "class Test {",
+            "  @javax.annotation.CheckReturnValue int excluded() { return 1; }",
+            "  @com.google.errorprone.annotations.CheckReturnValue int checked() { return 1; }",
+            "  void m() {",
+            "    excluded();",
+            "    // BUG: Diagnostic contains: Ignored return value",
+            "    checked();",
+            "  }",
+            "}"));
+  }
+
+  @Test public void classAndPackageAnnotations() throws IOException {
+    assertParity(Collections.emptyList(),
+        source("lib/package-info.java",
+            "@javax.annotation.CheckReturnValue",
+            "package lib;"),
+        source("lib/Lib.java",
+            "package lib;",
+            "public class Lib {",
+            "  public static int f() { return 42; }",
+            "  public static void g() {}",
+            "  @com.google.errorprone.annotations.CanIgnoreReturnValue",
+            "  public static int ignorable() { return 42; }",
+            "}"),
+        source("other/Other.java",
+            "package other;",
+            "@javax.annotation.CheckReturnValue",
+            "public class Other {",
+            "  public static int f() { return 42; }",
+            "  public static class Nested {",
+            "    public static int f() { return 42; }",
+            "  }",
+            "  @com.google.errorprone.annotations.CanIgnoreReturnValue",
+            "  public static class Ignorable {",
+            "    public static int f() { return 42; }",
+            "  }",
+            "}"),
+        source("Test.java",
+            "class Test {",
+            "  void m() {",
+            "    // BUG: Diagnostic contains: Ignored return value",
+            "    lib.Lib.f();",
+            "    lib.Lib.g();",
+            "    lib.Lib.ignorable();",
+            "    // BUG: Diagnostic contains: Ignored return value",
+            "    other.Other.f();",
+            "    // BUG: Diagnostic contains: Ignored return value",
+            "    other.Other.Nested.f();",
+            "    other.Other.Ignorable.f();",
+            "  }",
+            "}"));
+  }
+
+  @Test public void annotationValidation() throws IOException {
+    assertParity(Collections.emptyList(),
+        source("Test.java",
+            "import com.google.errorprone.annotations.CanIgnoreReturnValue;",
+            "import javax.annotation.CheckReturnValue;",
+            "class Test {",
+            "  // BUG: Diagnostic contains: may not be applied to void-returning methods",
+            "  @CheckReturnValue void procedure() {}",
+            "  // BUG: Diagnostic contains: cannot both be applied to the same method",
+            "  @CheckReturnValue @CanIgnoreReturnValue int both() { return 1; }",
+            "  // BUG: Diagnostic contains: cannot both be applied to the same class",
+            "  @CheckReturnValue @CanIgnoreReturnValue static class Both {}",
+            "}"));
+  }
+
+  @Test public void suppression() throws IOException {
+    assertParity(Collections.emptyList(),
+        source("Test.java",
+            "class Test {",
+            "  @javax.annotation.CheckReturnValue int f() { return 1; }",
+            "  @SuppressWarnings(\"ConfigurableCheckReturnValue\") void suppressed() {",
+            "    f();",
+            "  }",
+            "  @SuppressWarnings({\"unused\", \"ReturnValueIgnored\"}) void altName() {",
+            "    f();",
+            "  }",
+            "  @SuppressWarnings(\"foo\") void notSuppressed() {",
+            "    // BUG: Diagnostic contains: Ignored return value",
+            "    f();",
+            "  }",
+            "}"));
+  }
+
+  @Test public void testExemptions() throws IOException {
+    assertParity(Collections.emptyList(),
+        source("Foo.java",
+            "@javax.annotation.CheckReturnValue",
+            "public class Foo {",
+            "  public int f() {",
+            "    return 42;",
+            "  }",
+            "}"),
+        source("Test.java",
+            "import static org.mockito.Mockito.verify;",
+            "import static org.mockito.Mockito.doReturn;",
+            "class Test {",
+            "  private org.junit.rules.ExpectedException exception;",
+            "  void mockito(Foo foo) {",
+            "    verify(foo).f();",
+            "    doReturn(1).when(foo).f();",
+            "  }",
+            "  void tryFail(Foo foo) {",
+            "    try {",
+            "      foo.f();",
+            "      org.junit.Assert.fail();",
+            "    } catch (Exception expected) {}",
+            "    // BUG: Diagnostic contains: Ignored return value",
+            "    foo.f();",
+            "    org.junit.Assert.fail();",
+            "  }",
+            "  void rule(Foo foo) {",
+            "    exception.expect(IllegalArgumentException.class);",
+            "    foo.f();",
+            "  }",
+            "  void throwingRunnables(Foo foo) {",
+            "    org.junit.Assert.assertThrows(IllegalStateException.class, () -> foo.f());",
+            "    org.junit.Assert.assertThrows(IllegalStateException.class, foo::f);",
+            "    org.junit.Assert.assertThrows(IllegalStateException.class, () -> {",
+            "      // BUG: Diagnostic contains: Ignored return value",
+            "      foo.f();",
+            "      foo.f();",
+            "    });",
+            "  }",
+            "}"));
+  }
+
+  @Test public void rulePacks() throws IOException {
+    assertParity(Arrays.asList("RulePacks=futures", "FutureTypes=foo.Promise"),
+        source("foo/Promise.java",
+            "package foo;",
+            "public interface Promise<T> {",
+            "  Promise<T> then(Runnable r);",
+            "}"),
+        source("Test.java",
+            "class Test {",
+            "  void m(foo.Promise<String> promise, java.util.concurrent.ExecutorService e) {",
+            "    // BUG: Diagnostic contains: Ignored future returned by `Promise.then`",
+            "    promise.then(() -> {});",
+            "    e.submit(() -> {});",
+            "  }",
+            "}"));
+  }
+
+  /**
+   * Runs the plugin from a class loader that can't load Error Prone, as with {@code -Xplugin}
+   * without Error Prone on the processor path, on every kind of finding it reports.
+   */
+  @Test public void withoutErrorProne() throws Exception {
+    ClassLoader loader = loaderWithoutErrorProne();
+    try {
+      loader.loadClass("com.google.errorprone.bugpatterns.BugChecker");
+      throw new AssertionError("Error Prone is visible to the plugin");
+    } catch (ClassNotFoundException expected) {
+    }
+    Plugin plugin = (Plugin) loader.loadClass(ConfigurableCheckReturnValuePlugin.class.getName())
+        .getDeclaredConstructor()
+        .newInstance();
+    assertParity(plugin, Collections.singletonList("RulePacks=futures"),
+        source("Test.java",
+            "import com.google.errorprone.annotations.CanIgnoreReturnValue;",
+            "import javax.annotation.CheckReturnValue;",
+            "class Test {",
+            "  // BUG: Diagnostic contains: may not be applied to void-returning methods",
+            "  @CheckReturnValue void procedure() {}",
+            "  // BUG: Diagnostic contains: may not be applied to void-returning methods",
+            "  @CanIgnoreReturnValue void ignorable() {}",
+            "  // BUG: Diagnostic contains: cannot both be applied to the same method",
+            "  @CheckReturnValue @CanIgnoreReturnValue int both() { return 1; }",
+            "  // BUG: Diagnostic contains: cannot both be applied to the same class",
+            "  @CheckReturnValue @CanIgnoreReturnValue static class Both {}",
+            "  @CheckReturnValue int f() { return 1; }",
+            "  void m(java.util.concurrent.ExecutorService e) {",
+            "    // BUG: Diagnostic contains: Ignored return value",
+            "    f();",
+            "    // BUG: Diagnostic contains: Ignored future",
+            "    e.submit(() -> {});",
+            "  }",
+            "}"));
+  }
+
+  /**
+   * A class loader for the plugin and the core module that delegates everything else, except Error
+   * Prone, to the test's class loader.
+   */
+  private static ClassLoader loaderWithoutErrorProne() {
+    ClassLoader parent = new ClassLoader(ConfigurableCheckReturnValuePluginTest.class
+        .getClassLoader()) {
+      @Override protected Class<?> loadClass(String name, boolean resolve)
+          throws ClassNotFoundException {
+        if (name.startsWith("com.google.errorprone.")
+            || name.startsWith("io.sweers.configurablecheckreturnvalue.")) {
+          throw new ClassNotFoundException(name);
+        }
+        return super.loadClass(name, resolve);
+      }
+    };
+    return new URLClassLoader(new URL[] {
+        location(ConfigurableCheckReturnValuePlugin.class),
+        location(CheckReturnValueConfig.class)
+    }, parent);
+  }
+
+  private static URL location(Class<?> type) {
+    return type.getProtectionDomain().getCodeSource().getLocation();
+  }
+
+  private static void assertParity(List<String> options, JavaFileObject... sources)
+      throws IOException {
+    assertParity(new ConfigurableCheckReturnValuePlugin(), options, sources);
+  }
+
+  /**
+   * Compiles {@code sources} with {@code plugin} and asserts that errors are reported on exactly
+   * the lines following a {@link #BUG_MARKER}.
+   */
+  private static void assertParity(Plugin plugin, List<String> options,
+      JavaFileObject... sources) throws IOException {
+    TreeSet<String> expected = new TreeSet<>();
+    for (JavaFileObject source : sources) {
+      String[] lines = source.getCharContent(true).toString().split("\n", -1);
+      for (int i = 0; i < lines.length; i++) {
+        if (lines[i].trim().startsWith(BUG_MARKER)) {
+          // The diagnostic is on the first line after the comment(s).
+          int line = i + 1;
+          while (lines[line].trim().startsWith("//")) {
+            line++;
+          }
+          expected.add(source.getName() + ":" + (line + 1));
+        }
+      }
+    }
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    JavacTask task = (JavacTask) compiler.getTask(null, null, diagnostics,
+        Arrays.asList("-proc:none", "-cp", System.getProperty("java.class.path")),
+        null, Arrays.asList(sources));
+    plugin.init(task, options.toArray(new String[0]));
+    task.analyze();
+
+    TreeSet<String> actual = new TreeSet<>();
+    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+      String message = diagnostic.getMessage(null);
+      if (diagnostic.getKind() == Diagnostic.Kind.ERROR
+          && message.startsWith("[ConfigurableCheckReturnValue]")) {
+        actual.add(diagnostic.getSource().getName() + ":" + diagnostic.getLineNumber());
+      } else {
+        assertThat(diagnostic.getKind()).isNotEqualTo(Diagnostic.Kind.ERROR);
+      }
+    }
+    assertThat(actual).containsExactlyElementsIn(expected);
+  }
+
+  private JavaFileObject resource(String name) throws IOException {
+    String content = Resources.toString(getClass().getResource(name), StandardCharsets.UTF_8);
+    return new Source(name, content);
+  }
+
+  private static JavaFileObject source(String path, String... lines) {
+    return new Source(path, String.join("\n", lines) + "\n");
+  }
+
+  private static final class Source extends SimpleJavaFileObject {
+
+    private final String content;
+
+    Source(String path, String content) {
+      super(URI.create("string:///" + path), Kind.SOURCE);
+      this.content = content;
+    }
+
+    @Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+      return content;
+    }
+  }
+}
@@ -18,11 +18,30 @@ package io.sweers.configurablecheckreturnvalue.errorprone;
 
 import com.google.common.collect.ImmutableList;
 import com.google.errorprone.CompilationTestHelper;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.tools.JavaFileObject;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import static com.google.common.truth.Truth.assertThat;
+import static io.sweers.configurablecheckreturnvalue.errorprone.PluginCompilation.source;
+
 /**
  * Configurable version of
  * <a href="https://github.com/google/error-prone/blob/f14fb18bb05c7e9f10794771df692a42b333f18c/core/src/test/java/com/google/errorprone/bugpatterns/CheckReturnValueTest.java">The error prone version.</a>
@@ -32,6 +51,8 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class ConfigurableCheckReturnValueTest {
 
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
   private CompilationTestHelper compilationHelper;
 
   @Before public void setUp() {
@@ -583,6 +604,755 @@ public class ConfigurableCheckReturnValueTest {
         .doTest();
   }
 
+  @Test public void reportFile_jsonLines() throws Exception {
+    File report = new File(tmp.getRoot(), "findings.jsonl");
+    compilationHelper.addSourceLines("Test.java",
+        "class Test {",
+        "  @javax.annotation.CheckReturnValue",
+        "  int f() { return 42; }",
+        "  @javax.annotation.CheckReturnValue",
+        "  // BUG: Diagnostic contains: may not be applied to void-returning methods",
+        "  void g() {}",
+        "  void m() {",
+        "    // BUG: Diagnostic contains: Ignored return value",
+        "    f();",
+        "  }",
+        "}")
+        .setArgs(ImmutableList.of("-XepOpt:ReportFile=" + report, "-XepOpt:ReportFormat=jsonl"))
+        .doTest();
+
+    List<String> lines = Files.readAllLines(report.toPath(), StandardCharsets.UTF_8);
+    assertThat(lines).hasSize(2);
+    assertThat(lines.get(0))
+        .contains("\"ruleId\":\"ConfigurableCheckReturnValue/VoidReturningMethod\"");
+    assertThat(lines.get(1)).contains("\"ruleId\":\"ConfigurableCheckReturnValue\"");
+    assertThat(lines.get(1)).contains("\"line\":9");
+  }
+
+  @Test public void reportFile_sarifDirectory() throws Exception {
+    File reportDir = tmp.newFolder("reports");
+    compilationHelper.addSourceLines("Test.java",
+        "class Test {",
+        "  @javax.annotation.CheckReturnValue",
+        "  int f() { return 42; }",
+        "  void m() {",
+        "    // BUG: Diagnostic contains: Ignored return value",
+        "    f();",
+        "    // BUG: Diagnostic contains: Ignored return value",
+        "    f();",
+        "  }",
+        "}")
+        .setArgs(ImmutableList.of("-XepOpt:ReportFile=" + reportDir))
+        .doTest();
+
+    File[] reports = reportDir.listFiles();
+    assertThat(reports).hasLength(1);
+    assertThat(reports[0].getName()).endsWith(".sarif");
+    String sarif = new String(Files.readAllBytes(reports[0].toPath()), StandardCharsets.UTF_8);
+    assertThat(sarif).contains("\"version\": \"2.1.0\"");
+    assertThat(sarif).contains("\"startLine\":6");
+    assertThat(sarif).contains("\"startLine\":8");
+    assertThat(sarif.trim()).endsWith("}");
+  }
+
+  @Test public void reportFile_severityOverride() throws Exception {
+    File report = new File(tmp.getRoot(), "findings.jsonl");
+    compilationHelper.addSourceLines("Test.java",
+        "class Test {",
+        "  @javax.annotation.CheckReturnValue",
+        "  int f() { return 42; }",
+        "  void m() {",
+        "    // BUG: Diagnostic contains: Ignored return value",
+        "    f();",
+        "  }",
+        "}")
+        .setArgs(ImmutableList.of("-Xep:ConfigurableCheckReturnValue:WARN",
+            "-XepOpt:ReportFile=" + report, "-XepOpt:ReportFormat=jsonl"))
+        .doTest();
+
+    List<String> lines = Files.readAllLines(report.toPath(), StandardCharsets.UTF_8);
+    assertThat(lines).hasSize(1);
+    assertThat(lines.get(0)).contains("\"severity\":\"WARNING\"");
+  }
+
+  @Test public void reportFile_ownedByAnotherCompilation() throws Exception {
+    Path report = tmp.getRoot().toPath().resolve("findings.sarif");
+    List<String> warnings = new ArrayList<>();
+    FindingsReport.open(report, FindingsReport.Format.SARIF, "/out/main", warnings::add).close();
+    // The same compilation may replace its own report, e.g. on the next build.
+    FindingsReport.open(report, FindingsReport.Format.SARIF, "/out/main", warnings::add).close();
+    assertThat(warnings).isEmpty();
+
+    FindingsReport.open(report, FindingsReport.Format.SARIF, "/out/test", warnings::add).close();
+    Path fallback = FindingsReport.fallback(report, FindingsReport.Format.SARIF, "/out/test");
+    assertThat(warnings).hasSize(1);
+    assertThat(warnings.get(0)).contains("\"/out/main\"");
+    assertThat(warnings.get(0)).contains(fallback.toString());
+    String sarif = new String(Files.readAllBytes(report), StandardCharsets.UTF_8);
+    assertThat(sarif).contains("\"outputDirectory\": \"/out/main\"");
+    sarif = new String(Files.readAllBytes(fallback), StandardCharsets.UTF_8);
+    assertThat(sarif).contains("\"outputDirectory\": \"/out/test\"");
+  }
+
+  @Test public void reportFile_lockedByAnotherTask() throws Exception {
+    Path report = tmp.getRoot().toPath().resolve("findings.jsonl");
+    List<String> warnings = new ArrayList<>();
+    try (FindingsReport running =
+        FindingsReport.open(report, FindingsReport.Format.JSONL, "/out/main", warnings::add)) {
+      FindingsReport.open(report, FindingsReport.Format.JSONL, "/out/main", warnings::add)
+          .close();
+    }
+    assertThat(warnings).hasSize(1);
+    assertThat(warnings.get(0)).contains("is being written by another javac task");
+    assertThat(Files.exists(
+        FindingsReport.fallback(report, FindingsReport.Format.JSONL, "/out/main"))).isTrue();
+  }
+
+  @Test public void patchDirectory() throws Exception {
+    File patches = tmp.newFolder("patches");
+    compilationHelper.addSourceLines("Test.java",
+        "class Test {",
+        "  @javax.annotation.CheckReturnValue",
+        "  Test self() { return this; }",
+        "  void m(Test t) {",
+        "    // BUG: Diagnostic contains: t = t.self()",
+        "    t.self();",
+        "    // BUG: Diagnostic contains: remove this line",
+        "    self();",
+        "  }",
+        "}")
+        .setArgs(ImmutableList.of("-XepOpt:PatchDirectory=" + patches, "-XepOpt:PatchRoot=/"))
+        .doTest();
+
+    File merged = new File(patches, "merged.patch");
+    assertThat(PatchMerger.merge(patches.toPath(), merged.toPath())).isEqualTo(1);
+    List<String> lines = Files.readAllLines(merged.toPath(), StandardCharsets.UTF_8);
+    // The deleted statement's line goes away rather than being left blank.
+    assertThat(lines)
+        .containsAllOf("@@ -6,1 +6,1 @@", "-    t.self();", "+    t = t.self();",
+            "@@ -8,1 +7,0 @@", "-    self();")
+        .inOrder();
+    assertThat(lines).doesNotContain("+    ");
+    assertThat(patches.list()).asList().containsExactly("merged.patch");
+  }
+
+  @Test public void loopAware() {
+    compilationHelper.addSourceLines("Test.java",
+        "import java.util.List;",
+        "class Test {",
+        "  @javax.annotation.CheckReturnValue",
+        "  int f() { return 42; }",
+        "  void m(List<String> list) {",
+        "    // BUG: Diagnostic contains: Ignored return value of method",
+        "    f();",
+        "    for (int i = 0; i < 10; i++) {",
+        "      // BUG: Diagnostic contains: loop depth 1",
+        "      f();",
+        "      while (i < 5) {",
+        "        // BUG: Diagnostic contains: loop depth 2",
+        "        f();",
+        "      }",
+        "    }",
+        "    list.forEach(s -> {",
+        "      // BUG: Diagnostic contains: loop depth 1",
+        "      f();",
+        "    });",
+        "    do {",
+        "      new Object() {",
+        "        void n() {",
+        "          // BUG: Diagnostic contains: Ignored return value of method",
+        "          f();",
+        "        }",
+        "      };",
+        "    } while (list.isEmpty());",
+        "  }",
+        "}")
+        .setArgs(ImmutableList.of("-XepOpt:LoopAware=true"))
+        .doTest();
+  }
+
+  @Test public void loopAware_mapFunctionsAreNotIteration() {
+    compilationHelper.addSourceLines("Test.java",
+        "import java.util.Map;",
+        "class Test {",
+        "  @javax.annotation.CheckReturnValue",
+        "  int f() { return 42; }",
+        "  void m(Map<String, Integer> map) {",
+        "    map.computeIfAbsent(\"a\", k -> {",
+        "      // BUG: Diagnostic matches: NO_LOOP",
+        "      f();",
+        "      return 1;",
+        "    });",
+        "    map.merge(\"a\", 1, (a, b) -> {",
+        "      // BUG: Diagnostic matches: NO_LOOP",
+        "      f();",
+        "      return a + b;",
+        "    });",
+        "    map.forEach((k, v) -> {",
+        "      // BUG: Diagnostic contains: loop depth 1",
+        "      f();",
+        "    });",
+        "  }",
+        "}")
+        .setArgs(ImmutableList.of("-XepOpt:LoopAware=true"))
+        .expectErrorMessage("NO_LOOP",
+            message -> message.contains("Ignored return value") && !message.contains("loop depth"))
+        .doTest();
+  }
+
+  @Test public void loopAware_initializers() {
+    compilationHelper.addSourceLines("Test.java",
+        "import java.util.List;",
+        "class Test {",
+        "  @javax.annotation.CheckReturnValue",
+        "  static int f() { return 42; }",
+        "  static List<String> list;",
+        "  static {",
+        "    for (int i = 0; i < 10; i++) {",
+        "      // BUG: Diagnostic contains: loop depth 1",
+        "      f();",
+        "    }",
+        "  }",
+        "  final Runnable r = () -> list.forEach(s -> {",
+        "    // BUG: Diagnostic contains: loop depth 1",
+        "    f();",
+        "  });",
+        "}")
+        .setArgs(ImmutableList.of("-XepOpt:LoopAware=true"))
+        .doTest();
+  }
+
+  @Test public void metricsFile() throws Exception {
+    File metrics = new File(tmp.getRoot(), "metrics/crv.json");
+    compilationHelper.addSourceLines("Test.java",
+        "class Test {",
+        "  @javax.annotation.CheckReturnValue",
+        "  int f() { return 42; }",
+        "  int g() { return 1; }",
+        "  void m() {",
+        "    // BUG: Diagnostic contains: Ignored return value",
+        "    f();",
+        "    g();",
+        "    int x = f();",
+        "  }",
+        "}")
+        .setArgs(ImmutableList.of("-XepOpt:MetricsFile=" + metrics))
+        .doTest();
+
+    String json = new String(Files.readAllBytes(metrics.toPath()), StandardCharsets.UTF_8);
+    assertThat(json).contains("\"diagnostics\": 1,");
+    assertThat(json).contains("\"resultUsed\": 1,");
+    assertThat(json).contains("\"notMatched\": 1,");
+    assertThat(json).contains("\"method\": 1,");
+    assertThat(json).contains("\"none\": 1\n");
+    assertThat(json).contains("\"expectedExceptionEvaluations\": 1,");
+  }
+
+  @Test public void metricsFile_ownedByAnotherCompilation() throws Exception {
+    Path file = tmp.getRoot().toPath().resolve("metrics.json");
+    long[] values = new long[Metrics.Metric.values().length];
+    List<String> warnings = new ArrayList<>();
+    Metrics.write(file, Metrics.toJson(values, "/out/main"), "/out/main", warnings::add);
+    // The same compilation may replace its own metrics, e.g. on the next build.
+    Metrics.write(file, Metrics.toJson(values, "/out/main"), "/out/main", warnings::add);
+    assertThat(warnings).isEmpty();
+
+    Metrics.write(file, Metrics.toJson(values, "/out/test"), "/out/test", warnings::add);
+    Path fallback = FindingsReport.fallback(file, ".json", "/out/test");
+    assertThat(warnings).hasSize(1);
+    assertThat(warnings.get(0)).contains("\"/out/main\"");
+    assertThat(warnings.get(0)).contains(fallback.toString());
+    String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    assertThat(json).contains("\"outputDirectory\": \"/out/main\"");
+    json = new String(Files.readAllBytes(fallback), StandardCharsets.UTF_8);
+    assertThat(json).contains("\"outputDirectory\": \"/out/test\"");
+  }
+
+  @Test public void jfrUnitEvent() throws Exception {
+    Path file = tmp.newFile("crv.jfr").toPath();
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrRecorder.UNIT_EVENT);
+      recording.start();
+      compilationHelper.addSourceLines("Test.java",
+          "class Test {",
+          "  @javax.annotation.CheckReturnValue",
+          "  int f() { return 42; }",
+          "  void m() {",
+          "    // BUG: Diagnostic contains: Ignored return value",
+          "    f();",
+          "    int x = f();",
+          "  }",
+          "}")
+          .doTest();
+      recording.stop();
+      recording.dump(file);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+        .filter(event -> event.getEventType().getName().equals(JfrRecorder.UNIT_EVENT))
+        .collect(Collectors.toList());
+    assertThat(events).hasSize(1);
+    RecordedEvent event = events.get(0);
+    assertThat(event.getString("path")).endsWith("Test.java");
+    assertThat(event.getLong("invocations")).isAtLeast(2L);
+    assertThat(event.getLong("diagnostics")).isEqualTo(1L);
+    assertThat(event.getLong("matcherTime")).isGreaterThan(0L);
+    assertThat(event.getLong("checkTime")).isAtLeast(event.getLong("matcherTime"));
+  }
+
+  @Test public void loopAware_disabledByDefault() {
+    compilationHelper.addSourceLines("Test.java",
+        "class Test {",
+        "  @javax.annotation.CheckReturnValue",
+        "  int f() { return 42; }",
+        "  void m() {",
+        "    while (true) {",
+        "      // BUG: Diagnostic matches: NO_LOOP",
+        "      f();",
+        "    }",
+        "  }",
+        "}")
+        .expectErrorMessage("NO_LOOP", message -> !message.contains("loop depth"))
+        .doTest();
+  }
+
+  @Test public void rulePack_streams() {
+    compilationHelper.addSourceLines("Test.java",
+        "import java.util.List;",
+        "import java.util.stream.Collectors;",
+        "import java.util.stream.IntStream;",
+        "class Test {",
+        "  void m(List<String> list) {",
+        "    // BUG: Diagnostic contains: Intermediate stream operations are lazy",
+        "    list.stream().map(String::trim);",
+        "    // BUG: Diagnostic contains: `IntStream.filter`",
+        "    IntStream.range(0, 3).filter(i -> i > 1);",
+        "    // BUG: Diagnostic contains: `Collectors.toList`",
+        "    Collectors.toList();",
+        "    list.stream().map(String::trim).forEach(System.out::println);",
+        "    list.stream().count();",
+        "    list.stream().parallel();",
+        "  }",
+        "}")
+        .setArgs(ImmutableList.of("-XepOpt:RulePacks=streams"))
+        .doTest();
+  }
+
+  @Test public void rulePack_queues() {
+    compilationHelper.addSourceLines("Test.java",
+        "import java.util.ArrayDeque;",
+        "import java.util.concurrent.ArrayBlockingQueue;",
+        "import java.util.concurrent.BlockingQueue;",
+        "import java.util.concurrent.LinkedTransferQueue;",
+        "import java.util.concurrent.TimeUnit;",
+        "class Test {",
+        "  void m(BlockingQueue<String> queue, ArrayBlockingQueue<String> bounded,",
+        "      LinkedTransferQueue<String> transfer, ArrayDeque<String> deque)",
+        "      throws InterruptedException {",
+        "    // BUG: Diagnostic contains: silently dropped or lost",
+        "    queue.offer(\"a\");",
+        "    // BUG: Diagnostic contains: `ArrayBlockingQueue.offer`",
+        "    bounded.offer(\"a\", 1, TimeUnit.SECONDS);",
+        "    // BUG: Diagnostic contains: `BlockingQueue.poll`",
+        "    queue.poll(1, TimeUnit.SECONDS);",
+        "    // BUG: Diagnostic contains: `LinkedTransferQueue.tryTransfer`",
+        "    transfer.tryTransfer(\"a\");",
+        "    // BUG: Diagnostic contains: `ArrayDeque.offerLast`",
+        "    deque.offerLast(\"a\");",
+        "    queue.poll();",
+        "    queue.put(\"a\");",
+        "    deque.addFirst(\"a\");",
+        "  }",
+        "}")
+        .setArgs(ImmutableList.of("-XepOpt:RulePacks=queues"))
+        .doTest();
+  }
+
+  @Test public void rulePack_concurrency() {
+    compilationHelper.addSourceLines("Test.java",
+        "import java.util.concurrent.CountDownLatch;",
+        "import java.util.concurrent.Semaphore;",
+        "import java.util.concurrent.TimeUnit;",
+        "import java.util.concurrent.atomic.AtomicInteger;",
+        "import java.util.concurrent.locks.Condition;",
+        "import java.util.concurrent.locks.ReentrantLock;",
+        "class Test {",
+        "  void m(ReentrantLock lock, Semaphore semaphore, CountDownLatch latch,",
+        "      Condition condition, AtomicInteger counter) throws InterruptedException {",
+        "    // BUG: Diagnostic contains: lock, permit or latch was not acquired in time",
+        "    lock.tryLock();",
+        "    // BUG: Diagnostic contains: `Semaphore.tryAcquire`",
+        "    semaphore.tryAcquire(1, TimeUnit.SECONDS);",
+        "    // BUG: Diagnostic contains: `CountDownLatch.await`",
+        "    latch.await(1, TimeUnit.SECONDS);",
+        "    // BUG: Diagnostic contains: `Condition.await`",
+        "    condition.await(1, TimeUnit.SECONDS);",
+        "    // BUG: Diagnostic contains: compare-and-set did not happen",
+        "    counter.compareAndSet(1, 2);",
+        "    latch.await();",
+        "    lock.lock();",
+        "    counter.incrementAndGet();",
+        "  }",
+        "}")
+        .setArgs(ImmutableList.of("-XepOpt:RulePacks=concurrency"))
+        .doTest();
+  }
+
+  @Test public void rulePack_io() {
+    compilationHelper.addSourceLines("Test.java",
+        "import java.io.DataInputStream;",
+        "import java.io.FileInputStream;",
+        "import java.io.IOException;",
+        "import java.nio.ByteBuffer;",
+        "import java.nio.channels.AsynchronousFileChannel;",
+        "import java.nio.channels.FileChannel;",
+        "import java.nio.channels.WritableByteChannel;",
+        "class Test {",
+        "  void m(FileInputStream in, DataInputStream data, FileChannel file,",
+        "      WritableByteChannel out, AsynchronousFileChannel async, ByteBuffer buffer,",
+        "      byte[] bytes) throws IOException {",
+        "    // BUG: Diagnostic contains: loop until the whole range is done",
+        "    in.read(bytes);",
+        "    // BUG: Diagnostic contains: `FileInputStream.skip`",
+        "    in.skip(10);",
+        "    // BUG: Diagnostic contains: `WritableByteChannel.write`",
+        "    out.write(buffer);",
+        "    // BUG: Diagnostic contains: `FileChannel.transferTo`",
+        "    file.transferTo(0, 10, out);",
+        "    // BUG: Diagnostic contains: `AsynchronousFileChannel.write`",
+        "    async.write(buffer, 0);",
+        "    in.read();",
+        "    data.readFully(bytes);",
+        "    while (buffer.hasRemaining()) {",
+        "      int written = out.write(buffer);",
+        "    }",
+        "  }",
+        "}")
+        .setArgs(ImmutableList.of("-XepOpt:RulePacks=io"))
+        .doTest();
+  }
+
+  @Test public void rulePack_futures() {
+    // orTimeout and completeOnTimeout are JDK 9 API, declared here so the test also runs on JDK 8.
+    compilationHelper.addSourceLines("foo/TimedFuture.java",
+        "package foo;",
+        "import java.util.concurrent.CompletableFuture;",
+        "import java.util.concurrent.TimeUnit;",
+        "public class TimedFuture<T> extends CompletableFuture<T> {",
+        "  public TimedFuture<T> orTimeout(long timeout, TimeUnit unit) { return this; }",
+        "  public TimedFuture<T> completeOnTimeout(T value, long timeout, TimeUnit unit) {",
+        "    return this;",
+        "  }",
+        "}")
+        .addSourceLines("Test.java",
+            "import java.util.concurrent.CompletableFuture;",
+            "import java.util.concurrent.ExecutorService;",
+            "class Test {",
+            "  void m(ExecutorService executor, foo.TimedFuture<String> future) {",
+            "    // BUG: Diagnostic contains: Ignored future returned by `ExecutorService.submit`",
+            "    executor.submit(() -> {});",
+            "    // BUG: Diagnostic contains: `CompletableFuture.supplyAsync`",
+            "    CompletableFuture.supplyAsync(() -> \"a\");",
+            "    // BUG: Diagnostic contains: `CompletableFuture.thenApply`",
+            "    future.thenApply(String::trim);",
+            "    future.complete(\"a\");",
+            "    executor.execute(() -> {});",
+            "    CompletableFuture<String> kept = future.thenApply(String::trim);",
+            "    future.orTimeout(1, java.util.concurrent.TimeUnit.SECONDS);",
+            "    future.completeOnTimeout(\"a\", 1, java.util.concurrent.TimeUnit.SECONDS);",
+            "  }",
+            "}")
+        .setArgs(ImmutableList.of("-XepOpt:RulePacks=futures"))
+        .doTest();
+  }
+
+  @Test public void rulePack_futures_customTypes() {
+    compilationHelper.addSourceLines("foo/Promise.java",
+        "package foo;",
+        "public interface Promise<T> {",
+        "  Promise<T> then(Runnable r);",
+        "}")
+        .addSourceLines("Test.java",
+            "import java.util.concurrent.ExecutorService;",
+            "class Test {",
+            "  void m(ExecutorService executor, foo.Promise<String> promise) {",
+            "    // BUG: Diagnostic contains: Ignored future returned by `Promise.then`",
+            "    promise.then(() -> {});",
+            "    executor.submit(() -> {});",
+            "  }",
+            "}")
+        .setArgs(ImmutableList.of("-XepOpt:RulePacks=futures", "-XepOpt:FutureTypes=foo.Promise"))
+        .doTest();
+  }
+
+  @Test public void rulePack_allocations() {
+    compilationHelper.addSourceLines("Test.java",
+        "import java.math.BigDecimal;",
+        "import java.time.LocalDate;",
+        "import java.util.Collections;",
+        "import java.util.List;",
+        "import java.util.regex.Matcher;",
+        "import java.util.regex.Pattern;",
+        "class Test {",
+        "  void m(String s, BigDecimal d, LocalDate date, List<String> list, Matcher matcher) {",
+        "    // BUG: Diagnostic contains: Ignored return value of `Pattern.compile`. It has no side",
+        "    Pattern.compile(s);",
+        "    // BUG: Diagnostic contains: `String.format`",
+        "    String.format(\"%s\", s);",
+        "    // BUG: Diagnostic contains: `String.trim`",
+        "    s.trim();",
+        "    // BUG: Diagnostic contains: `BigDecimal.add`",
+        "    d.add(BigDecimal.ONE);",
+        "    // BUG: Diagnostic contains: `LocalDate.plusDays`",
+        "    date.plusDays(1);",
+        "    // BUG: Diagnostic contains: `Collections.unmodifiableList`",
+        "    Collections.unmodifiableList(list);",
+        "    matcher.find();",
+        "    list.add(s);",
+        "  }",
+        "}")
+        .setArgs(ImmutableList.of("-XepOpt:RulePacks=allocations"))
+        .doTest();
+  }
+
+  @Test public void rulePack_disposables() {
+    compilationHelper.addSourceLines("io/reactivex/disposables/Disposable.java",
+        "package io.reactivex.disposables;",
+        "public interface Disposable {",
+        "  void dispose();",
+        "}")
+        .addSourceLines("io/reactivex/observers/TestObserver.java",
+            "package io.reactivex.observers;",
+            "public class TestObserver<T> implements io.reactivex.disposables.Disposable {",
+            "  public void dispose() {}",
+            "}")
+        .addSourceLines("io/reactivex/Observable.java",
+            "package io.reactivex;",
+            "import io.reactivex.disposables.Disposable;",
+            "import io.reactivex.observers.TestObserver;",
+            "public class Observable<T> {",
+            "  public Disposable subscribe() { return null; }",
+            "  public TestObserver<T> test() { return null; }",
+            "  public Observable<T> share() { return this; }",
+            "}")
+        .addSourceLines("Test.java",
+            "import io.reactivex.Observable;",
+            "import io.reactivex.disposables.Disposable;",
+            "class Test {",
+            "  void m(Observable<String> observable) {",
+            "    // BUG: Diagnostic contains: Ignored subscription returned by `Observable.subscribe`",
+            "    observable.subscribe();",
+            "    // BUG: Diagnostic contains: `Observable.test`",
+            "    observable.test();",
+            "    Disposable kept = observable.subscribe();",
+            "    observable.share();",
+            "  }",
+            "}")
+        .setArgs(ImmutableList.of("-XepOpt:RulePacks=disposables"))
+        .doTest();
+  }
+
+  @Test public void rulePack_publishers() {
+    compilationHelper.addSourceLines("reactor/core/publisher/Mono.java",
+        "package reactor.core.publisher;",
+        "public abstract class Mono<T> {",
+        "  public final Mono<Void> then() { return null; }",
+        "  public final void subscribe() {}",
+        "}")
+        .addSourceLines("reactor/core/publisher/Flux.java",
+            "package reactor.core.publisher;",
+            "public abstract class Flux<T> {",
+            "  public final Mono<T> next() { return null; }",
+            "}")
+        .addSourceLines("foo/Repository.java",
+            "package foo;",
+            "import reactor.core.publisher.Flux;",
+            "import reactor.core.publisher.Mono;",
+            "public interface Repository {",
+            "  Mono<String> save(String value);",
+            "  Flux<String> findAll();",
+            "  CustomPublisher<String> custom();",
+            "}")
+        .addSourceLines("foo/CustomPublisher.java",
+            "package foo;",
+            "public interface CustomPublisher<T> {}")
+        .addSourceLines("Test.java",
+            "import foo.Repository;",
+            "import reactor.core.publisher.Mono;",
+            "class Test {",
+            "  Mono<Void> m(Repository repository) {",
+            "    // BUG: Diagnostic contains: Ignored publisher returned by `Mono.then`",
+            "    repository.save(\"a\").then();",
+            "    // BUG: Diagnostic contains: `Repository.findAll`",
+            "    repository.findAll();",
+            "    // BUG: Diagnostic contains: `Flux.next`",
+            "    repository.findAll().next();",
+            "    // BUG: Diagnostic contains: `Repository.custom`",
+            "    repository.custom();",
+            "    repository.save(\"a\").subscribe();",
+            "    return repository.save(\"a\").then();",
+            "  }",
+            "}")
+        .setArgs(ImmutableList.of(
+            "-XepOpt:RulePacks=publishers", "-XepOpt:PublisherTypes=foo.CustomPublisher"))
+        .doTest();
+  }
+
+  @Test public void rulePack_netty() {
+    compilationHelper.addSourceLines("io/netty/util/ReferenceCounted.java",
+        "package io.netty.util;",
+        "public interface ReferenceCounted {",
+        "  ReferenceCounted retain();",
+        "  boolean release();",
+        "}")
+        .addSourceLines("io/netty/buffer/ByteBuf.java",
+            "package io.netty.buffer;",
+            "public abstract class ByteBuf implements io.netty.util.ReferenceCounted {",
+            "  public abstract ByteBuf retain();",
+            "  public abstract ByteBuf retainedSlice();",
+            "  public abstract ByteBuf copy();",
+            "  public abstract ByteBuf readBytes(int length);",
+            "  public abstract ByteBuf readBytes(ByteBuf dst);",
+            "  public abstract ByteBuf skipBytes(int length);",
+            "  public abstract ByteBuf writeInt(int value);",
+            "}")
+        .addSourceLines("io/netty/buffer/Unpooled.java",
+            "package io.netty.buffer;",
+            "public final class Unpooled {",
+            "  public static ByteBuf buffer() { return null; }",
+            "}")
+        .addSourceLines("io/netty/channel/ChannelFuture.java",
+            "package io.netty.channel;",
+            "public interface ChannelFuture {",
+            "  ChannelFuture addListener(Runnable listener);",
+            "}")
+        .addSourceLines("io/netty/channel/Channel.java",
+            "package io.netty.channel;",
+            "public interface Channel {",
+            "  ChannelFuture writeAndFlush(Object msg);",
+            "}")
+        .addSourceLines("Test.java",
+            "import io.netty.buffer.ByteBuf;",
+            "import io.netty.buffer.Unpooled;",
+            "import io.netty.channel.Channel;",
+            "class Test {",
+            "  void m(ByteBuf buf, Channel channel) {",
+            "    // BUG: Diagnostic contains: Ignored return value of `ByteBuf.retainedSlice`. A",
+            "    buf.retainedSlice();",
+            "    // BUG: Diagnostic contains: `ByteBuf.readBytes`",
+            "    buf.readBytes(4);",
+            "    // BUG: Diagnostic contains: `ByteBuf.copy`",
+            "    buf.copy();",
+            "    // BUG: Diagnostic contains: `Unpooled.buffer`",
+            "    Unpooled.buffer();",
+            "    // BUG: Diagnostic contains: `Channel.writeAndFlush`",
+            "    channel.writeAndFlush(buf);",
+            "    buf.writeInt(1);",
+            "    buf.readBytes(buf);",
+            "    buf.skipBytes(4);",
+            "    buf.retain();",
+            "    channel.writeAndFlush(buf).addListener(() -> {});",
+            "    buf.release();",
+            "  }",
+            "}")
+        .setArgs(ImmutableList.of("-XepOpt:RulePacks=netty"))
+        .doTest();
+  }
+
+  @Test public void rulePack_closeables() {
+    compilationHelper.addSourceLines("foo/Response.java",
+        "package foo;",
+        "public interface Response extends AutoCloseable {}")
+        .addSourceLines("foo/Call.java",
+            "package foo;",
+            "public interface Call {",
+            "  Response execute();",
+            "}")
+        .addSourceLines("foo/Client.java",
+            "package foo;",
+            "public interface Client extends AutoCloseable {",
+            "  Call newCall(String url);",
+            "  Client withTimeout(int millis);",
+            "  Builder newBuilder();",
+            "  interface Builder {",
+            "    Client build();",
+            "    Builder retries(int retries);",
+            "  }",
+            "}")
+        .addSourceLines("foo/Pool.java",
+            "package foo;",
+            "public interface Pool {",
+            "  Client lease();",
+            "}")
+        .addSourceLines("Test.java",
+            "import foo.Client;",
+            "import foo.Pool;",
+            "import foo.Response;",
+            "import java.io.PrintStream;",
+            "import java.nio.file.Files;",
+            "import java.nio.file.Path;",
+            "import java.util.List;",
+            "class Test {",
+            "  void m(Client client, Pool pool, Path path, PrintStream out, List<String> list)",
+            "      throws Exception {",
+            "    // BUG: Diagnostic contains: Ignored resource returned by `Call.execute`",
+            "    client.newCall(\"url\").execute();",
+            "    // BUG: Diagnostic contains: `Files.newInputStream`",
+            "    Files.newInputStream(path);",
+            "    // BUG: Diagnostic contains: `Builder.build`",
+            "    client.newBuilder().build();",
+            "    pool.lease();",
+            "    client.withTimeout(1);",
+            "    out.printf(\"%s\", path);",
+            "    list.stream().map(String::trim);",
+            "    try (Response response = client.newCall(\"url\").execute()) {}",
+            "  }",
+            "}")
+        .setArgs(ImmutableList.of(
+            "-XepOpt:RulePacks=closeables", "-XepOpt:CloseableExcludes=foo.Pool"))
+        .doTest();
+  }
+
+  @Test public void rulePack_disabledByDefault() {
+    compilationHelper.addSourceLines("Test.java",
+        "import java.util.List;",
+        "class Test {",
+        "  void m(List<String> list) {",
+        "    list.stream().map(String::trim);",
+        "  }",
+        "}")
+        .doTest();
+  }
+
+  @Test public void registeredWithErrorProne() throws IOException {
+    JavaFileObject[] sources = {
+        source("test/Test.java",
+            "package test;",
+            "public class Test {",
+            "  @javax.annotation.CheckReturnValue int f() { return 1; }",
+            "  void m() {",
+            "    f();",
+            "  }",
+            "}")
+    };
+    String finding = "[ConfigurableCheckReturnValue] ";
+    // Error Prone's own CheckReturnValue would report the same call.
+    String builtIn = "-Xep:CheckReturnValue:OFF";
+
+    List<String> diagnostics =
+        PluginCompilation.diagnostics(Collections.singletonList(builtIn), sources);
+    assertThat(diagnostics).hasSize(1);
+    assertThat(diagnostics.get(0)).startsWith("ERROR: " + finding);
+
+    diagnostics = PluginCompilation.diagnostics(
+        Arrays.asList(builtIn, "-Xep:ConfigurableCheckReturnValue:WARN"), sources);
+    assertThat(diagnostics).hasSize(1);
+    assertThat(diagnostics.get(0)).startsWith("WARNING: " + finding);
+
+    assertThat(PluginCompilation.diagnostics(
+        Arrays.asList(builtIn, "-Xep:ConfigurableCheckReturnValue:OFF"), sources)).isEmpty();
+  }
+
   /** Test class containing a method annotated with @CRV. */
   public static class CRVTest {
     @javax.annotation.CheckReturnValue public static int f() {
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.errorprone;
+
+import com.sun.source.util.JavacTask;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles sources with Error Prone running as a javac plugin, which finds checks the way a build
+ * does: through their {@code BugChecker} service registration on the processor path.
+ * {@code CompilationTestHelper} instantiates the checker itself, so it can't tell whether a check
+ * is registered at all.
+ */
+final class PluginCompilation {
+
+  private PluginCompilation() {
+  }
+
+  /**
+   * Compiles {@code sources} with the test class path as class and processor path and returns
+   * every diagnostic as {@code KIND: message}.
+   */
+  static List<String> diagnostics(List<String> errorProneArgs, JavaFileObject... sources)
+      throws IOException {
+    String classpath = System.getProperty("java.class.path");
+    List<String> options = Arrays.asList("-XDcompilePolicy=simple", "-cp", classpath,
+        "-processorpath", classpath, "-Xplugin:ErrorProne " + String.join(" ", errorProneArgs));
+    DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+    JavacTask task = (JavacTask) ToolProvider.getSystemJavaCompiler()
+        .getTask(null, null, collector, options, null, Arrays.asList(sources));
+    task.analyze();
+
+    List<String> diagnostics = new ArrayList<>();
+    for (Diagnostic<? extends JavaFileObject> diagnostic : collector.getDiagnostics()) {
+      diagnostics.add(diagnostic.getKind() + ": " + diagnostic.getMessage(Locale.ROOT));
+    }
+    return diagnostics;
+  }
+
+  static JavaFileObject source(String path, String... lines) {
+    String content = String.join("\n", lines) + "\n";
+    return new SimpleJavaFileObject(URI.create("string:///" + path), JavaFileObject.Kind.SOURCE) {
+      @Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return content;
+      }
+    };
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.gradle;
+
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+
+/**
+ * The {@code configurableCheckReturnValue} extension, shared by the Error Prone check and the lint
+ * detector.
+ *
+ * <pre>{@code
+ * configurableCheckReturnValue {
+ *   customAnnotations = ["my.custom.annotation.CheckReturn", "CheckReturnValue"]
+ *   excludeAnnotations = ["some.excluded.CheckReturnAnnotation"]
+ *   rulePacks = ["streams", "closeables"]
+ *   options = ["CloseableExcludes": "java.io.StringWriter"]
+ * }
+ * }</pre>
+ */
+public class ConfigurableCheckReturnValueExtension {
+
+  private final ListProperty<String> customAnnotations;
+  private final ListProperty<String> excludeAnnotations;
+  private final ListProperty<String> rulePacks;
+  private final MapProperty<String, String> options;
+  private final Property<String> severity;
+
+  public ConfigurableCheckReturnValueExtension(ObjectFactory objects) {
+    customAnnotations = objects.listProperty(String.class);
+    excludeAnnotations = objects.listProperty(String.class);
+    rulePacks = objects.listProperty(String.class);
+    options = objects.mapProperty(String.class, String.class);
+    severity = objects.property(String.class);
+    severity.set("ERROR");
+  }
+
+  /** Annotations that replace the default set, fully qualified or simple names. */
+  public ListProperty<String> getCustomAnnotations() {
+    return customAnnotations;
+  }
+
+  /** Annotations removed from the default (or custom) set. */
+  public ListProperty<String> getExcludeAnnotations() {
+    return excludeAnnotations;
+  }
+
+  /** Rule packs to enable, Error Prone only. */
+  public ListProperty<String> getRulePacks() {
+    return rulePacks;
+  }
+
+  /**
+   * Any other Error Prone option of the check, e.g. {@code FutureTypes} or {@code LoopAware}, by
+   * key. Values are passed through as is, so lists are comma separated.
+   */
+  public MapProperty<String, String> getOptions() {
+    return options;
+  }
+
+  /** Severity of the Error Prone check, {@code ERROR} by default. */
+  public Property<String> getSeverity() {
+    return severity;
+  }
+}
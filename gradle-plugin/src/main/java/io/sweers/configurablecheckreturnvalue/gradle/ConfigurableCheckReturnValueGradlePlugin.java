@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.gradle;
+
+import net.ltgt.gradle.errorprone.ErrorProneOptions;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.plugins.ExtensionAware;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.api.tasks.compile.JavaCompile;
+
+/**
+ * Configures the Error Prone check and the lint detector from one
+ * {@link ConfigurableCheckReturnValueExtension}.
+ *
+ * <p>With {@code net.ltgt.errorprone} applied, every {@code JavaCompile} task gets the check's
+ * options through an {@link ErrorProneArguments} provider. The annotation lists are also written
+ * to the properties file the lint detector reads, and lint tasks depend on it. All wiring is lazy:
+ * no task is realized and no property is read at configuration time.
+ */
+public class ConfigurableCheckReturnValueGradlePlugin implements Plugin<Project> {
+
+  static final String EXTENSION_NAME = "configurableCheckReturnValue";
+  static final String LINT_PROPERTIES_TASK = "generateConfigurableCheckReturnValueLintProperties";
+  /** Relative to the build directory, keep in sync with {@code ConfigurableCheckResultDetector}. */
+  static final String LINT_PROPERTIES_PATH = "configurableCheckReturnValue/lint.properties";
+
+  @Override public void apply(Project project) {
+    ConfigurableCheckReturnValueExtension extension = project.getExtensions()
+        .create(EXTENSION_NAME, ConfigurableCheckReturnValueExtension.class, project.getObjects());
+
+    ErrorProneArguments arguments = new ErrorProneArguments(extension);
+    project.getPluginManager().withPlugin("net.ltgt.errorprone", plugin ->
+        project.getTasks().withType(JavaCompile.class).configureEach(task ->
+            ((ExtensionAware) task.getOptions()).getExtensions()
+                .getByType(ErrorProneOptions.class)
+                .getErrorproneArgumentProviders()
+                .add(arguments)));
+
+    TaskProvider<GenerateLintProperties> lintProperties = project.getTasks()
+        .register(LINT_PROPERTIES_TASK, GenerateLintProperties.class, task -> {
+          task.getCustomAnnotations().set(extension.getCustomAnnotations());
+          task.getExcludeAnnotations().set(extension.getExcludeAnnotations());
+          task.getOutputFile().set(project.getLayout().getBuildDirectory()
+              .file(LINT_PROPERTIES_PATH));
+        });
+    project.getTasks().configureEach(task -> {
+      if (task.getName().startsWith("lint")) {
+        task.dependsOn(lintProperties);
+        task.getInputs()
+            .file(lintProperties.flatMap(GenerateLintProperties::getOutputFile))
+            .withPropertyName("configurableCheckReturnValueLintProperties")
+            .withPathSensitivity(PathSensitivity.NONE);
+      }
+    });
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.gradle;
+
+import io.sweers.configurablecheckreturnvalue.core.CheckReturnValueConfig;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.process.CommandLineArgumentProvider;
+
+/**
+ * The Error Prone arguments of the check, added to every {@code JavaCompile} task.
+ *
+ * <p>Each option is a separate task input instead of part of one opaque {@code -XepOpt} string, so
+ * up-to-date checks and the build cache see exactly what changed. It only holds the extension's
+ * providers, which are read when the task runs rather than when it is configured.
+ */
+class ErrorProneArguments implements CommandLineArgumentProvider {
+
+  static final String CHECK_NAME = "ConfigurableCheckReturnValue";
+
+  private final ListProperty<String> customAnnotations;
+  private final ListProperty<String> excludeAnnotations;
+  private final ListProperty<String> rulePacks;
+  private final MapProperty<String, String> options;
+  private final Property<String> severity;
+
+  ErrorProneArguments(ConfigurableCheckReturnValueExtension extension) {
+    customAnnotations = extension.getCustomAnnotations();
+    excludeAnnotations = extension.getExcludeAnnotations();
+    rulePacks = extension.getRulePacks();
+    options = extension.getOptions();
+    severity = extension.getSeverity();
+  }
+
+  @Input public ListProperty<String> getCustomAnnotations() {
+    return customAnnotations;
+  }
+
+  @Input public ListProperty<String> getExcludeAnnotations() {
+    return excludeAnnotations;
+  }
+
+  @Input public ListProperty<String> getRulePacks() {
+    return rulePacks;
+  }
+
+  @Input public MapProperty<String, String> getOptions() {
+    return options;
+  }
+
+  @Input public Property<String> getSeverity() {
+    return severity;
+  }
+
+  @Override public Iterable<String> asArguments() {
+    List<String> arguments = new ArrayList<>();
+    arguments.add("-Xep:" + CHECK_NAME + ":" + severity.get());
+    addList(arguments, CheckReturnValueConfig.CUSTOM_ANNOTATIONS, customAnnotations.get());
+    addList(arguments, CheckReturnValueConfig.EXCLUDE_ANNOTATIONS, excludeAnnotations.get());
+    addList(arguments, CheckReturnValueConfig.RULE_PACKS, rulePacks.get());
+    // Sorted, so the command line does not depend on declaration order.
+    for (Map.Entry<String, String> option : new TreeMap<>(options.get()).entrySet()) {
+      arguments.add("-XepOpt:" + option.getKey() + "=" + option.getValue());
+    }
+    return arguments;
+  }
+
+  private static void addList(List<String> arguments, String key, List<String> values) {
+    if (!values.isEmpty()) {
+      arguments.add("-XepOpt:" + key + "=" + String.join(",", values));
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.gradle;
+
+import io.sweers.configurablecheckreturnvalue.core.CheckReturnValueConfig;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Writes the extension's annotation lists in the properties format read by the lint detector.
+ *
+ * <p>The detector picks this file up from its conventional location in the build directory, so
+ * the annotations no longer have to be duplicated into {@code gradle.properties}. The output only
+ * depends on the inputs, which makes it safe to cache and relocate.
+ */
+@CacheableTask
+public class GenerateLintProperties extends DefaultTask {
+
+  private final ListProperty<String> customAnnotations;
+  private final ListProperty<String> excludeAnnotations;
+  private final RegularFileProperty outputFile;
+
+  public GenerateLintProperties() {
+    customAnnotations = getProject().getObjects().listProperty(String.class);
+    excludeAnnotations = getProject().getObjects().listProperty(String.class);
+    outputFile = getProject().getObjects().fileProperty();
+  }
+
+  @Input public ListProperty<String> getCustomAnnotations() {
+    return customAnnotations;
+  }
+
+  @Input public ListProperty<String> getExcludeAnnotations() {
+    return excludeAnnotations;
+  }
+
+  @OutputFile public RegularFileProperty getOutputFile() {
+    return outputFile;
+  }
+
+  @TaskAction public void generate() {
+    // Written by hand rather than with Properties.store(), which adds a timestamp.
+    List<String> lines = new ArrayList<>();
+    lines.add("# Generated by the io.sweers.configurablecheckreturnvalue plugin, do not edit.");
+    addList(lines, CheckReturnValueConfig.CUSTOM_ANNOTATIONS, customAnnotations.get());
+    addList(lines, CheckReturnValueConfig.EXCLUDE_ANNOTATIONS, excludeAnnotations.get());
+    Path file = outputFile.get().getAsFile().toPath();
+    try {
+      Files.createDirectories(file.getParent());
+      Files.write(file, lines, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write " + file, e);
+    }
+  }
+
+  private static void addList(List<String> lines, String option, List<String> values) {
+    if (!values.isEmpty()) {
+      lines.add(CheckReturnValueConfig.propertyKey(option) + "="
+          + String.join(CheckReturnValueConfig.PROPERTY_LIST_SEPARATOR, values));
+    }
+  }
+}
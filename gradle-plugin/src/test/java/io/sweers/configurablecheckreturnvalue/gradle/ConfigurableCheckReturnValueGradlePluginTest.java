@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2019. Zac Sweers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.sweers.configurablecheckreturnvalue.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import net.ltgt.gradle.errorprone.ErrorProneOptions;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.plugins.ExtensionAware;
+import org.gradle.api.tasks.compile.JavaCompile;
+import org.gradle.process.CommandLineArgumentProvider;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class ConfigurableCheckReturnValueGradlePluginTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private Project project;
+  private ConfigurableCheckReturnValueExtension extension;
+
+  @Before public void setUp() {
+    project = ProjectBuilder.builder().withProjectDir(tmpFolder.getRoot()).build();
+    project.getPluginManager().apply("java");
+    project.getPluginManager().apply("net.ltgt.errorprone");
+    project.getPluginManager().apply(ConfigurableCheckReturnValueGradlePlugin.class);
+    extension = project.getExtensions().getByType(ConfigurableCheckReturnValueExtension.class);
+  }
+
+  @Test public void defaults() {
+    assertThat(errorProneArguments("compileJava"))
+        .containsExactly("-Xep:ConfigurableCheckReturnValue:ERROR");
+  }
+
+  @Test public void errorProneArguments() {
+    extension.getCustomAnnotations().set(Arrays.asList("a.CheckResult", "CheckReturnValue"));
+    extension.getExcludeAnnotations().add("b.Excluded");
+    extension.getRulePacks().add("streams");
+    extension.getOptions().put("LoopAware", "true");
+    extension.getOptions().put("FutureTypes", "a.Future,b.Future");
+    extension.getSeverity().set("WARN");
+
+    List<String> expected = Arrays.asList(
+        "-Xep:ConfigurableCheckReturnValue:WARN",
+        "-XepOpt:CustomAnnotations=a.CheckResult,CheckReturnValue",
+        "-XepOpt:ExcludeAnnotations=b.Excluded",
+        "-XepOpt:RulePacks=streams",
+        "-XepOpt:FutureTypes=a.Future,b.Future",
+        "-XepOpt:LoopAware=true");
+    assertThat(errorProneArguments("compileJava")).containsExactlyElementsIn(expected).inOrder();
+    assertThat(errorProneArguments("compileTestJava"))
+        .containsExactlyElementsIn(expected)
+        .inOrder();
+  }
+
+  @Test public void extensionIsReadLazily() {
+    List<String> before = errorProneArguments("compileJava");
+    extension.getCustomAnnotations().add("a.CheckResult");
+    assertThat(before).containsExactly("-Xep:ConfigurableCheckReturnValue:ERROR");
+    assertThat(errorProneArguments("compileJava"))
+        .contains("-XepOpt:CustomAnnotations=a.CheckResult");
+  }
+
+  @Test public void lintProperties() throws IOException {
+    extension.getCustomAnnotations().set(Arrays.asList("a.CheckResult", "CheckReturnValue"));
+    extension.getExcludeAnnotations().add("b.Excluded");
+
+    GenerateLintProperties task = (GenerateLintProperties) project.getTasks()
+        .getByName(ConfigurableCheckReturnValueGradlePlugin.LINT_PROPERTIES_TASK);
+    task.generate();
+
+    File file = new File(project.getBuildDir(),
+        ConfigurableCheckReturnValueGradlePlugin.LINT_PROPERTIES_PATH);
+    assertThat(task.getOutputFile().get().getAsFile()).isEqualTo(file);
+    assertThat(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)).containsExactly(
+        "# Generated by the io.sweers.configurablecheckreturnvalue plugin, do not edit.",
+        "configurableCheckReturnValue.customAnnotations=a.CheckResult:CheckReturnValue",
+        "configurableCheckReturnValue.excludeAnnotations=b.Excluded").inOrder();
+  }
+
+  @Test public void lintTasksDependOnLintProperties() {
+    Task lint = project.getTasks().create("lint");
+    assertThat(lint.getTaskDependencies().getDependencies(lint))
+        .contains(project.getTasks()
+            .getByName(ConfigurableCheckReturnValueGradlePlugin.LINT_PROPERTIES_TASK));
+    Task other = project.getTasks().create("other");
+    assertThat(other.getTaskDependencies().getDependencies(other)).isEmpty();
+  }
+
+  private List<String> errorProneArguments(String taskName) {
+    JavaCompile task = (JavaCompile) project.getTasks().getByName(taskName);
+    ErrorProneOptions options = ((ExtensionAware) task.getOptions()).getExtensions()
+        .getByType(ErrorProneOptions.class);
+    for (CommandLineArgumentProvider provider : options.getErrorproneArgumentProviders()) {
+      if (provider instanceof ErrorProneArguments) {
+        List<String> arguments = new ArrayList<>();
+        provider.asArguments().forEach(arguments::add);
+        return arguments;
+      }
+    }
+    return Collections.emptyList();
+  }
+}
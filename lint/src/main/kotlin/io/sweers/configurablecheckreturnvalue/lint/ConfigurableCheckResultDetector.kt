@@ -22,12 +22,15 @@ import com.android.tools.lint.detector.api.Detector
 import com.android.tools.lint.detector.api.Implementation
 import com.android.tools.lint.detector.api.Issue
 import com.android.tools.lint.detector.api.JavaContext
+import com.android.tools.lint.detector.api.Project
 import com.android.tools.lint.detector.api.Scope
 import com.android.tools.lint.detector.api.Severity
 import com.android.tools.lint.detector.api.SourceCodeScanner
-import com.android.tools.lint.detector.api.UastLintUtils.containsAnnotation
 import com.android.tools.lint.detector.api.UastLintUtils.getAnnotationStringValue
 import com.intellij.psi.PsiMethod
+import io.sweers.configurablecheckreturnvalue.core.AnnotationMatcher.isCanIgnoreReturnValue
+import io.sweers.configurablecheckreturnvalue.core.CheckReturnValueConfig
+import io.sweers.configurablecheckreturnvalue.core.CheckReturnValueConfig.propertyKey
 import org.jetbrains.uast.UAnnotation
 import org.jetbrains.uast.UBlockExpression
 import org.jetbrains.uast.UClassInitializer
@@ -37,6 +40,7 @@ import org.jetbrains.uast.ULambdaExpression
 import org.jetbrains.uast.UMethod
 import org.jetbrains.uast.UQualifiedReferenceExpression
 import org.jetbrains.uast.getParentOfType
+import java.io.File
 import java.util.EnumSet
 import java.util.Properties
 
@@ -50,30 +54,29 @@ class ConfigurableCheckResultDetector : Detector(), SourceCodeScanner {
   private lateinit var appliedAnnotations: List<String>
 
   override fun beforeCheckRootProject(context: Context) {
-    val annotations = mutableSetOf<String>()
-    val excludedAnnotations = mutableSetOf<String>()
-
-    // Add the custom annotations defined in configuration.
     val props = Properties().apply {
       context.project.propertyFiles.find { it.name == PROPERTY_FILE }?.let { file ->
         load(context.client.readFile(file).reader())
       }
+      // Written by the Gradle plugin, takes precedence over gradle.properties.
+      generatedPropertyFile(context.project).takeIf { it.isFile }?.let { file ->
+        load(context.client.readFile(file).reader())
+      }
     }
-    annotations += props.getProperty(CUSTOM_ANNOTATIONS_KEY)
-        ?.split(":")
-        ?.asSequence()
-        ?.map(String::trim)
-        ?.filter(String::isNotBlank)
-        ?.toList()
-        ?: DEFAULT_ANNOTATIONS
-    props.getProperty(EXCLUDE_ANNOTATIONS_KEY)
-        ?.split(":")
-        ?.asSequence()
-        ?.map(String::trim)
-        ?.filter(String::isNotBlank)
-        ?.toList()
-        ?.let { excludedAnnotations += it }
-    appliedAnnotations = annotations.filterNot { it in excludedAnnotations }.toList()
+    // Same defaults and custom/exclude semantics as the Error Prone check. Lint only matches
+    // annotations by qualified name, so simple names such as the default `CheckReturnValue` would
+    // never apply and are left out.
+    appliedAnnotations = CheckReturnValueConfig.fromProperties(props).annotations()
+        .filter { it.contains('.') }
+  }
+
+  /**
+   * The file the Gradle plugin writes into the project's build directory. Android projects report
+   * where that is, e.g. when `buildDir` was moved; other projects fall back to `build`.
+   */
+  private fun generatedPropertyFile(project: Project): File {
+    val buildDir = project.gradleProjectModel?.buildFolder ?: File(project.dir, DEFAULT_BUILD_DIR)
+    return File(buildDir, GENERATED_PROPERTY_FILE)
   }
 
   override fun applicableAnnotations(): List<String> = appliedAnnotations
@@ -91,7 +94,7 @@ class ConfigurableCheckResultDetector : Detector(), SourceCodeScanner {
       allPackageAnnotations: List<UAnnotation>
   ) {
     method ?: return
-    if (qualifiedName == ERRORPRONE_CAN_IGNORE_RETURN_VALUE) {
+    if (isCanIgnoreReturnValue(qualifiedName)) {
       return
     }
     checkResult(
@@ -117,15 +120,9 @@ class ConfigurableCheckResultDetector : Detector(), SourceCodeScanner {
     if (isExpressionValueUnused(element)) {
       // If this OptionalCheckReturnValue annotations is from a class, check to see
       // if it's been reversed with @CanIgnoreReturnValue
-      if (containsAnnotation(allMemberAnnotations, ERRORPRONE_CAN_IGNORE_RETURN_VALUE) ||
-          containsAnnotation(
-              allClassAnnotations,
-              ERRORPRONE_CAN_IGNORE_RETURN_VALUE
-          ) ||
-          containsAnnotation(
-              allPackageAnnotations,
-              ERRORPRONE_CAN_IGNORE_RETURN_VALUE
-          )
+      if (containsCanIgnoreReturnValue(allMemberAnnotations) ||
+          containsCanIgnoreReturnValue(allClassAnnotations) ||
+          containsCanIgnoreReturnValue(allPackageAnnotations)
       ) {
         return
       }
@@ -164,6 +161,12 @@ class ConfigurableCheckResultDetector : Detector(), SourceCodeScanner {
     }
   }
 
+  private fun containsCanIgnoreReturnValue(annotations: List<UAnnotation>): Boolean {
+    return annotations.any { annotation ->
+      annotation.qualifiedName?.let(::isCanIgnoreReturnValue) ?: false
+    }
+  }
+
   private fun isExpressionValueUnused(element: UElement): Boolean {
     var prev = element.getParentOfType<UExpression>(
         UExpression::class.java, false
@@ -220,9 +223,11 @@ class ConfigurableCheckResultDetector : Detector(), SourceCodeScanner {
 
   companion object {
     internal const val PROPERTY_FILE = "gradle.properties"
-    internal const val CUSTOM_ANNOTATIONS_KEY = "configurableCheckReturnValue.customAnnotations"
-    internal const val EXCLUDE_ANNOTATIONS_KEY = "configurableCheckReturnValue.excludeAnnotations"
-    const val ERRORPRONE_CAN_IGNORE_RETURN_VALUE = "com.google.errorprone.annotations.CanIgnoreReturnValue"
+    internal const val DEFAULT_BUILD_DIR = "build"
+    /** Relative to the build directory, keep in sync with the Gradle plugin. */
+    internal const val GENERATED_PROPERTY_FILE = "configurableCheckReturnValue/lint.properties"
+    internal val CUSTOM_ANNOTATIONS_KEY = propertyKey(CheckReturnValueConfig.CUSTOM_ANNOTATIONS)
+    internal val EXCLUDE_ANNOTATIONS_KEY = propertyKey(CheckReturnValueConfig.EXCLUDE_ANNOTATIONS)
     const val ATTR_SUGGEST = "suggest"
 
     // We use the overloaded constructor that takes a varargs of `Scope` as the last param.
@@ -238,15 +243,6 @@ class ConfigurableCheckResultDetector : Detector(), SourceCodeScanner {
         EnumSet.of(Scope.JAVA_FILE),
         EnumSet.of(Scope.TEST_SOURCES)
     )
-    private val DEFAULT_ANNOTATIONS = listOf(
-        "androidx.annotation.CheckResult",
-        "com.support.annotation.CheckResult",
-        "edu.umd.cs.findbugs.annotations.CheckReturnValue",
-        "javax.annotation.CheckReturnValue",
-        ERRORPRONE_CAN_IGNORE_RETURN_VALUE,
-        "io.reactivex.annotations.CheckReturnValue",
-        "com.google.errorprone.annotations.CheckReturnValue"
-    )
     /** Method result should be used  */
     @JvmField
     val CONFIGURABLE_CHECK_RETURN_VALUE = Issue.create(
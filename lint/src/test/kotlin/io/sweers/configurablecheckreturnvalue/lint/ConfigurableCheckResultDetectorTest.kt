@@ -4,6 +4,7 @@ import com.android.tools.lint.checks.infrastructure.LintDetectorTest
 import com.android.tools.lint.checks.infrastructure.TestFile
 import com.android.tools.lint.checks.infrastructure.TestFiles.java
 import com.android.tools.lint.checks.infrastructure.TestFiles.projectProperties
+import com.android.tools.lint.checks.infrastructure.TestFiles.source
 import com.android.tools.lint.checks.infrastructure.TestLintTask.lint
 import io.sweers.configurablecheckreturnvalue.lint.ConfigurableCheckResultDetector.Companion.CUSTOM_ANNOTATIONS_KEY
 import io.sweers.configurablecheckreturnvalue.lint.ConfigurableCheckResultDetector.Companion.EXCLUDE_ANNOTATIONS_KEY
@@ -61,6 +62,34 @@ class ConfigurableCheckResultDetectorTest {
         .expectClean()
   }
 
+  @Test
+  fun generatedProperties() {
+    lint()
+        .files(source("build/${ConfigurableCheckResultDetector.GENERATED_PROPERTY_FILE}",
+            "$CUSTOM_ANNOTATIONS_KEY=foo.bar.CustomAnnotation"),
+            customAnnotation("foo.bar", "CustomAnnotation"),
+            java("test/test/foo/Example.java", """
+          package test.foo;
+          import foo.bar.CustomAnnotation;
+          class Example {
+            @CustomAnnotation
+            public int foo() {
+                return 2;
+            }
+            public void bar() {
+              foo();
+            }
+          }""").indented())
+        .issues(ConfigurableCheckResultDetector.CONFIGURABLE_CHECK_RETURN_VALUE)
+        .run()
+        .expect("""
+          |test/test/foo/Example.java:9: Error: The result of foo is not used [ConfigurableCheckReturnValue]
+          |    foo();
+          |    ~~~~~
+          |1 errors, 0 warnings""".trimMargin()
+        )
+  }
+
   @Test
   fun basicCheck_custom() {
     lint()
@@ -114,6 +143,26 @@ class ConfigurableCheckResultDetectorTest {
         .expectClean()
   }
 
+  @Test
+  fun canIgnoreAloneIsNotChecked() {
+    lint()
+        .files(canIgnoreReturnValue, java("test/test/foo/Example.java", """
+          package test.foo;
+          import com.google.errorprone.annotations.CanIgnoreReturnValue;
+          class Example {
+            @CanIgnoreReturnValue
+            public int foo() {
+                return 2;
+            }
+            public void bar() {
+              foo();
+            }
+          }""").indented())
+        .issues(ConfigurableCheckResultDetector.CONFIGURABLE_CHECK_RETURN_VALUE)
+        .run()
+        .expectClean()
+  }
+
   @Ignore("Local method annotations aren't getting parsed?")
   @Test
   fun canIgnoreOnMethod() {